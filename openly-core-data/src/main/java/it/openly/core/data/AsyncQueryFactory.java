@@ -0,0 +1,138 @@
+package it.openly.core.data;
+
+import lombok.NonNull;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Asynchronous counterpart of a {@link QueryFactory QueryFactory}, obtained through {@link QueryFactory#async()}.
+ * Each method executes the corresponding QueryFactory method on an executor, returning a
+ * {@link CompletableFuture CompletableFuture} of its result. This allows to fan out independent queries, such as a page
+ * and its lookups, rather than running them one after the other.<br/>
+ * By default, the executor is the {@link it.openly.core.data.support.DataSourceBulkhead DataSourceBulkhead} of the
+ * DataSource, limiting the number of statements running concurrently to the size of the connection pool. A different
+ * executor, such as one starting a virtual thread per task on runtimes supporting them, can be supplied through the
+ * constructor.<br/>
+ * Note that the work runs on other threads, and therefore doesn't take part in the transaction of the calling thread.
+ *
+ * @author filippo.possenti
+ */
+public final class AsyncQueryFactory {
+    private final QueryFactory queryFactory;
+    private final Executor executor;
+
+    public AsyncQueryFactory(@NonNull QueryFactory queryFactory, @NonNull Executor executor) {
+        this.queryFactory = queryFactory;
+        this.executor = executor;
+    }
+
+    /**
+     * Executes arbitrary work with the QueryFactory, asynchronously.
+     * @param work The work
+     * @param <T> The result type
+     * @return The future result of the work
+     */
+    public <T> CompletableFuture<T> submit(@NonNull Function<QueryFactory, T> work) {
+        return CompletableFuture.supplyAsync(() -> work.apply(queryFactory), executor);
+    }
+
+    /**
+     * @see QueryFactory#queryForList(String, Map[])
+     */
+    @SafeVarargs
+    public final CompletableFuture<List<Map<String, Object>>> queryForList(String namedQuery, Map<String, Object>... contexts) {
+        return submit(qf -> qf.queryForList(namedQuery, contexts));
+    }
+
+    /**
+     * @see QueryFactory#queryForBeans(String, Class, Map[])
+     */
+    @SafeVarargs
+    public final <T> CompletableFuture<List<T>> queryForBeans(String namedQuery, Class<T> clazz, Map<String, Object>... contexts) {
+        return submit(qf -> qf.queryForBeans(namedQuery, clazz, contexts));
+    }
+
+    /**
+     * @see QueryFactory#queryForInt(String, Map[])
+     */
+    @SafeVarargs
+    public final CompletableFuture<Integer> queryForInt(String namedQuery, Map<String, Object>... contexts) {
+        return submit(qf -> qf.queryForInt(namedQuery, contexts));
+    }
+
+    /**
+     * @see QueryFactory#queryForLong(String, Map[])
+     */
+    @SafeVarargs
+    public final CompletableFuture<Long> queryForLong(String namedQuery, Map<String, Object>... contexts) {
+        return submit(qf -> qf.queryForLong(namedQuery, contexts));
+    }
+
+    /**
+     * @see QueryFactory#queryForLongArray(String, Map[])
+     */
+    @SafeVarargs
+    public final CompletableFuture<long[]> queryForLongArray(String namedQuery, Map<String, Object>... contexts) {
+        return submit(qf -> qf.queryForLongArray(namedQuery, contexts));
+    }
+
+    /**
+     * @see QueryFactory#queryForObject(String, Class, Map[])
+     */
+    @SafeVarargs
+    public final <T> CompletableFuture<T> queryForObject(String namedQuery, Class<T> clazz, Map<String, Object>... contexts) {
+        return submit(qf -> qf.queryForObject(namedQuery, clazz, contexts));
+    }
+
+    /**
+     * @see QueryFactory#queryForMap(String, Map[])
+     */
+    @SafeVarargs
+    public final CompletableFuture<Map<String, Object>> queryForMap(String namedQuery, Map<String, Object>... contexts) {
+        return submit(qf -> qf.queryForMap(namedQuery, contexts));
+    }
+
+    /**
+     * @see QueryFactory#queryForBean(String, Class, Map[])
+     */
+    @SafeVarargs
+    public final <T> CompletableFuture<T> queryForBean(String namedQuery, Class<T> clazz, Map<String, Object>... contexts) {
+        return submit(qf -> qf.queryForBean(namedQuery, clazz, contexts));
+    }
+
+    /**
+     * @see QueryFactory#update(String, Map[])
+     */
+    @SafeVarargs
+    public final CompletableFuture<Integer> update(String namedQuery, Map<String, Object>... contexts) {
+        return submit(qf -> qf.update(namedQuery, contexts));
+    }
+
+    /**
+     * @see QueryFactory#batchUpdate(String, Collection)
+     */
+    public CompletableFuture<List<int[]>> batchUpdate(String namedQuery, Collection<? extends Map<String, Object>> rows) {
+        return submit(qf -> qf.batchUpdate(namedQuery, rows));
+    }
+
+    /**
+     * @see QueryFactory#iterate(String, IRowHandlerCallback, Map[])
+     */
+    @SafeVarargs
+    public final CompletableFuture<Void> iterate(String namedQuery, IRowHandlerCallback<Map<String, Object>> callback, Map<String, Object>... contexts) {
+        return CompletableFuture.runAsync(() -> queryFactory.iterate(namedQuery, callback, contexts), executor);
+    }
+
+    /**
+     * @see QueryFactory#execute(String, Map[])
+     */
+    @SafeVarargs
+    public final CompletableFuture<Void> execute(String namedQuery, Map<String, Object>... contexts) {
+        return CompletableFuture.runAsync(() -> queryFactory.execute(namedQuery, contexts), executor);
+    }
+}
@@ -0,0 +1,23 @@
+package it.openly.core.data;
+
+/**
+ * The formats query results can be {@link Query#exportTo(java.io.OutputStream, ExportFormat) exported} to, all encoded
+ * as UTF-8.
+ *
+ * @author filippo.possenti
+ */
+public enum ExportFormat {
+    /**
+     * Comma-separated values as per RFC 4180: a header line with the column labels followed by one line per row,
+     * separated by CRLF. Fields are quoted only when needed, and null values are empty fields.
+     */
+    CSV,
+    /**
+     * Newline-delimited JSON: one JSON object per row, each followed by a line feed.
+     */
+    NDJSON,
+    /**
+     * A single JSON array, with one JSON object per row.
+     */
+    JSON
+}
@@ -1,10 +1,20 @@
 package it.openly.core.data;
 
 import javax.sql.DataSource;
+import java.util.List;
 
 /**
  * @author filippo.possenti
  */
 public interface IQueryResourceLoader {
     String loadQuery(DataSource dataSource, String namedQuery);
+
+    /**
+     * Lists the named queries that can be loaded for the specified {@link javax.sql.DataSource DataSource}.
+     * @param dataSource The {@link javax.sql.DataSource DataSource} instance for which the queries are to be listed
+     * @return The names of the queries. Loaders that can't enumerate their queries return an empty list.
+     */
+    default List<String> listQueries(DataSource dataSource) {
+        return List.of();
+    }
 }
@@ -1,5 +1,6 @@
 package it.openly.core.data;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -7,4 +8,14 @@ import java.util.Map;
  */
 public interface ITemplateProcessor {
 	ProcessedTemplate processTemplate(String templateText, Map<String, Object> context);
+
+	/**
+	 * Prepares a template ahead of its processing, for example parsing it and caching the result, so that the first
+	 * actual processing doesn't pay for it.
+	 * @param templateText The template text
+	 * @return The list of problems found in the template. An empty list means no problem was found.
+	 */
+	default List<String> prepareTemplate(String templateText) {
+		return List.of();
+	}
 }
@@ -0,0 +1,142 @@
+package it.openly.core.data;
+
+import lombok.NonNull;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Iterates lazily through the pages of a query using keyset (or "seek") pagination: rather than skipping the rows of
+ * the previous pages through an offset, each page is requested as the rows following the last one of the previous
+ * page, which the database can seek to through an index no matter how deep the page is.<br/>
+ * Each page is rendered from the template with the following additional variables:
+ * <ul>
+ *     <li>{@link #PAGE_SIZE page_size}, the number of rows of the page</li>
+ *     <li>{@link #AFTER_PREFIX after_}[key column], for each key column, the value of the last row of the previous
+ *     page. Missing for the first page.</li>
+ * </ul>
+ * For example, with "last_name" and "idx" as key columns:<br/>
+ * <br/>
+ * <code>
+ * select * from customers<br/>
+ * where 1=1<br/>
+ *     -- after_idx -- and (last_name, idx) &gt; (:after_last_name, :after_idx)<br/>
+ * order by last_name, idx<br/>
+ * -- page_size -- limit :page_size<br/>
+ * </code>
+ * <br/>
+ * The key columns must be part of the result, must not be null and must identify a row uniquely, in the same order
+ * the query is sorted by. Pages are also limited to the page size through the maximum number of rows of the query.
+ * The iteration ends with the first page having fewer rows than the page size, and never returns empty pages.<br/>
+ * Each page is fetched on the thread calling {@link #hasNext()} or {@link #next()}, with its own connection.
+ *
+ * @param <T> The type of the rows
+ * @author filippo.possenti
+ */
+public final class KeysetPageIterator<T> implements Iterator<List<T>> {
+    public static final String PAGE_SIZE = "page_size";
+    public static final String AFTER_PREFIX = "after_";
+
+    private final Function<Map<String, Object>, Query> queries;
+    private final Supplier<RowMapper<T>> rowMappers;
+    private final String[] keyColumns;
+    private final int pageSize;
+    private Object[] lastKey;
+    private List<T> nextPage;
+    private boolean finished;
+
+    KeysetPageIterator(@NonNull Function<Map<String, Object>, Query> queries, @NonNull Supplier<RowMapper<T>> rowMappers, @NonNull List<String> keyColumns, int pageSize) {
+        if (keyColumns.isEmpty()) {
+            throw new IllegalArgumentException("At least one key column is required.");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("The page size must be positive.");
+        }
+        this.queries = queries;
+        this.rowMappers = rowMappers;
+        this.keyColumns = keyColumns.toArray(new String[0]);
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextPage == null && !finished) {
+            nextPage = fetch();
+            if (nextPage.isEmpty()) {
+                nextPage = null;
+                finished = true;
+            }
+        }
+        return nextPage != null;
+    }
+
+    @Override
+    public List<T> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        List<T> page = nextPage;
+        nextPage = null;
+        return page;
+    }
+
+    private List<T> fetch() {
+        Map<String, Object> pageContext = new HashMap<>();
+        pageContext.put(PAGE_SIZE, pageSize);
+        if (lastKey != null) {
+            for (int i = 0; i < keyColumns.length; i++) {
+                pageContext.put(AFTER_PREFIX + keyColumns[i], lastKey[i]);
+            }
+        }
+        PageHandler handler = new PageHandler(rowMappers.get());
+        queries.apply(pageContext).maxRows(pageSize).query(handler);
+        if (handler.rows.size() < pageSize) {
+            finished = true;
+        }
+        else {
+            for (int i = 0; i < keyColumns.length; i++) {
+                if (handler.key[i] == null) {
+                    throw new IllegalStateException("The key column '" + keyColumns[i] + "' of the last row of the page is null.");
+                }
+            }
+            if (Arrays.equals(lastKey, handler.key)) {
+                throw new IllegalStateException("The page didn't advance: the query must restrict its rows through the '" + AFTER_PREFIX + "' variables.");
+            }
+            lastKey = handler.key;
+        }
+        return handler.rows;
+    }
+
+    /**
+     * Maps the rows of a page, keeping the key of the last one.
+     */
+    private final class PageHandler implements RowCallbackHandler {
+        private final RowMapper<T> rowMapper;
+        private final List<T> rows = new ArrayList<>(pageSize);
+        private final Object[] key = new Object[keyColumns.length];
+        private int[] keyIndexes;
+
+        private PageHandler(RowMapper<T> rowMapper) {
+            this.rowMapper = rowMapper;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            if (keyIndexes == null) {
+                keyIndexes = new int[keyColumns.length];
+                for (int i = 0; i < keyColumns.length; i++) {
+                    keyIndexes[i] = rs.findColumn(keyColumns[i]);
+                }
+            }
+            rows.add(rowMapper.mapRow(rs, rows.size()));
+            for (int i = 0; i < keyIndexes.length; i++) {
+                key[i] = rs.getObject(keyIndexes[i]);
+            }
+        }
+    }
+}
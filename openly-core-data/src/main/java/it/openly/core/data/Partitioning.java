@@ -0,0 +1,98 @@
+package it.openly.core.data;
+
+import lombok.Getter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Describes how a query is split into partitions to be iterated concurrently, each partition being rendered from the
+ * same template with its own variables and executed on its own connection.<br/>
+ * The template restricts itself to a partition through the variables it receives:
+ * <ul>
+ *     <li>{@link #PARTITION_INDEX PARTITION_INDEX} and {@link #PARTITION_COUNT PARTITION_COUNT}, always present,
+ *     allowing keyed partitioning such as <code>-- PARTITION_COUNT -- and mod(customer_id, :PARTITION_COUNT) = :PARTITION_INDEX</code></li>
+ *     <li>{@link #PARTITION_FROM PARTITION_FROM} (inclusive) and {@link #PARTITION_TO PARTITION_TO} (exclusive),
+ *     present only for {@link #byRange(long, long, int) range partitioning}, allowing restrictions such as
+ *     <code>-- PARTITION_FROM -- and id &gt;= :PARTITION_FROM and id &lt; :PARTITION_TO</code></li>
+ * </ul>
+ * Guarding the restrictions with the variables keeps the same template usable without partitioning.
+ *
+ * @author filippo.possenti
+ */
+@Getter
+public final class Partitioning {
+    public static final String PARTITION_INDEX = "PARTITION_INDEX";
+    public static final String PARTITION_COUNT = "PARTITION_COUNT";
+    public static final String PARTITION_FROM = "PARTITION_FROM";
+    public static final String PARTITION_TO = "PARTITION_TO";
+
+    private final int count;
+    private final Long from;
+    private final Long to;
+
+    private Partitioning(int count, Long from, Long to) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("The number of partitions must be positive.");
+        }
+        this.count = count;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Splits a query into the specified number of partitions, leaving to the template how to assign rows to each
+     * partition through the {@link #PARTITION_INDEX PARTITION_INDEX} and {@link #PARTITION_COUNT PARTITION_COUNT}
+     * variables.
+     * @param count The number of partitions
+     * @return The partitioning
+     */
+    public static Partitioning byKey(int count) {
+        return new Partitioning(count, null, null);
+    }
+
+    /**
+     * Splits a numeric range into the specified number of contiguous ranges of about the same size, passed to the
+     * template through the {@link #PARTITION_FROM PARTITION_FROM} and {@link #PARTITION_TO PARTITION_TO} variables.
+     * @param from The lower bound of the range, inclusive
+     * @param to The upper bound of the range, exclusive
+     * @param count The number of partitions. Ranges smaller than the number of partitions result in fewer partitions.
+     * @return The partitioning
+     * @throws IllegalArgumentException If the range is empty, or wider than {@link Long#MAX_VALUE Long.MAX_VALUE}
+     */
+    public static Partitioning byRange(long from, long to, int count) {
+        if (to <= from) {
+            throw new IllegalArgumentException("The upper bound of the range must be greater than the lower bound.");
+        }
+        long span;
+        try {
+            span = Math.subtractExact(to, from);
+        }
+        catch (ArithmeticException e) {
+            throw new IllegalArgumentException("The range " + from + ".." + to + " is too wide to be partitioned.", e);
+        }
+        return new Partitioning((int) Math.min(count, span), from, to);
+    }
+
+    /**
+     * Returns the variables restricting the template to the specified partition.
+     * @param index The partition, between 0 and the number of partitions (excluded)
+     * @return The variables
+     */
+    public Map<String, Object> context(int index) {
+        Map<String, Object> context = new HashMap<>();
+        context.put(PARTITION_INDEX, index);
+        context.put(PARTITION_COUNT, count);
+        if (from != null) {
+            long span = Math.subtractExact(to, from);
+            context.put(PARTITION_FROM, from + span / count * index + Math.min(index, span % count));
+            context.put(PARTITION_TO, from + span / count * (index + 1) + Math.min(index + 1, span % count));
+        }
+        return context;
+    }
+
+    @Override
+    public String toString() {
+        return from == null ? "Partitioning[" + count + " by key]" : "Partitioning[" + count + " in " + from + ".." + to + "]";
+    }
+}
@@ -2,6 +2,7 @@ package it.openly.core.data;
 
 import lombok.Getter;
 import lombok.Setter;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
 
 import java.util.Map;
 
@@ -10,4 +11,12 @@ import java.util.Map;
 public class ProcessedTemplate {
     String sql;
     Map<String, Object> context;
+    /**
+     * The named parameters of the sql, already parsed. Optional: when missing, they're parsed upon execution.
+     */
+    ParsedSql parsedSql;
+    /**
+     * The pragmas declared by the template, such as FETCH_SIZE. Optional.
+     */
+    Map<String, String> pragmas;
 }
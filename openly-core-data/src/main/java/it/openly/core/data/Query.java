@@ -1,34 +1,189 @@
 package it.openly.core.data;
 
+import it.openly.core.data.support.BeanRowMapperFactory;
+import it.openly.core.data.support.LayeredContext;
+import it.openly.core.data.support.QueryCoalescer;
+import it.openly.core.data.support.QueryResultCache;
+import it.openly.core.data.support.ReadReplicas;
+import it.openly.core.data.support.ResultSetExporter;
+import it.openly.core.data.support.Row;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.IncorrectResultSetColumnCountException;
 import org.springframework.jdbc.core.*;
+import org.springframework.jdbc.core.namedparam.AbstractSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.LinkedCaseInsensitiveMap;
 
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 /**
  * Represents a configured query, ready for execution. Provides facilities to execute the query and obtain results in
- * the desired format.
+ * the desired format.<br/>
+ * When the named parameters of the statement were already parsed, for example by the template processor, the
+ * statement is executed without parsing it again.<br/>
+ * When a {@link QueryResultCache QueryResultCache} is attached, the results of queryForList, queryForBeans,
+ * queryForObject, queryForMap and queryForBean are cached, and update, batchUpdate and execute invalidate the cached
+ * results of the tables they write. Likewise, when a {@link QueryCoalescer QueryCoalescer} is attached, identical
+ * executions of those methods running concurrently share a single database call. Lists, maps and beans served from the
+ * cache or through the coalescer are copies, as modifiable as the ones read from the database, while records and
+ * objects are shared, being expected to be immutable.<br/>
+ * When {@link ReadReplicas ReadReplicas} are attached, the read methods executed outside of a transaction run on one of
+ * the replicas, while the other methods, and all of them within a transaction, run on the primary database.
  *
  * @author filippo.possenti
  */
 @Slf4j
 public class Query {
+	/**
+	 * The pragma setting the {@link #fetchSize(int) fetch size} of queries created by a {@link QueryFactory QueryFactory}.
+	 */
+	public static final String PRAGMA_FETCH_SIZE = "FETCH_SIZE";
+	/**
+	 * The pragma setting the {@link #maxRows(int) maximum number of rows} of queries created by a {@link QueryFactory QueryFactory}.
+	 */
+	public static final String PRAGMA_MAX_ROWS = "MAX_ROWS";
+	/**
+	 * The pragma setting the {@link #queryTimeout(int) timeout} of queries created by a {@link QueryFactory QueryFactory}.
+	 */
+	public static final String PRAGMA_QUERY_TIMEOUT = "QUERY_TIMEOUT";
+	/**
+	 * The pragma declaring the comma-separated tables read by a query, making its results cacheable.
+	 */
+	public static final String PRAGMA_READS = "READS";
+	/**
+	 * The pragma declaring the comma-separated tables written by a statement, invalidating the cached results read from them.
+	 */
+	public static final String PRAGMA_WRITES = "WRITES";
+	/**
+	 * The pragma making a query read from the primary database even when {@link ReadReplicas ReadReplicas} are
+	 * configured, for reads that must see the latest data.
+	 */
+	public static final String PRAGMA_READ_FROM_PRIMARY = "READ_FROM_PRIMARY";
 
 	private final String sqlStatement;
 	private final Map<String, ?> context;
 	private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+	private final ParsedSql parsedSql;
+	private int fetchSize = -1;
+	private int maxRows = -1;
+	private int queryTimeout = -1;
+	private QueryResultCache resultCache;
+	private Set<String> readTables = Set.of();
+	private Set<String> writeTables = Set.of();
+	private QueryCoalescer coalescer;
+	private ReadReplicas readReplicas;
 
 	public Query(@NonNull NamedParameterJdbcTemplate namedParameterJdbcTemplate, @NonNull String sqlStatement, Map<String, ?> context) {
+		this(namedParameterJdbcTemplate, sqlStatement, context, null);
+	}
+
+	/**
+	 * Creates a query whose named parameters were already parsed.
+	 * @param namedParameterJdbcTemplate The template used to execute the query
+	 * @param sqlStatement The query SQL
+	 * @param context The values of the named parameters
+	 * @param parsedSql The result of parsing the sqlStatement with {@link NamedParameterUtils#parseSqlStatement(String) NamedParameterUtils.parseSqlStatement}. When null, the statement is parsed upon execution.
+	 */
+	public Query(@NonNull NamedParameterJdbcTemplate namedParameterJdbcTemplate, @NonNull String sqlStatement, Map<String, ?> context, ParsedSql parsedSql) {
 		this.sqlStatement = sqlStatement;
 		this.context = context;
 		this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+		this.parsedSql = parsedSql;
+	}
+
+	/**
+	 * Sets the number of rows the JDBC driver should fetch from the database at once when more rows are needed. Note
+	 * that some drivers, such as PostgreSQL's, only honour it within a transaction.
+	 * @param fetchSize The fetch size. Zero or negative values leave the driver's default.
+	 * @return This query
+	 */
+	public final Query fetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+		return this;
+	}
+
+	/**
+	 * Limits the number of rows returned by the query, any further row being silently dropped by the driver.
+	 * @param maxRows The maximum number of rows. Zero or negative values mean no limit.
+	 * @return This query
+	 */
+	public final Query maxRows(int maxRows) {
+		this.maxRows = maxRows;
+		return this;
+	}
+
+	/**
+	 * Sets the number of seconds the driver will wait for the query to execute, each batch of
+	 * {@link #batchUpdate(Collection, int) batchUpdate} included. Within a transaction having its own timeout, the
+	 * remaining time of the transaction prevails.
+	 * @param queryTimeout The timeout in seconds. Zero or negative values mean no limit.
+	 * @return This query
+	 */
+	public final Query queryTimeout(int queryTimeout) {
+		this.queryTimeout = queryTimeout;
+		return this;
+	}
+
+	/**
+	 * Attaches a result cache to the query.
+	 * @param resultCache The cache
+	 * @param readTables The tables read by the query, lower-cased. When empty, the results are not cached.
+	 * @param writeTables The tables written by the statement, lower-cased
+	 * @return This query
+	 */
+	final Query resultCache(@NonNull QueryResultCache resultCache, @NonNull Set<String> readTables, @NonNull Set<String> writeTables) {
+		this.resultCache = resultCache;
+		this.readTables = readTables;
+		this.writeTables = writeTables;
+		return this;
+	}
+
+	/**
+	 * Attaches a coalescer to the query, so that identical executions running concurrently share their result.
+	 * @param coalescer The coalescer
+	 * @return This query
+	 */
+	final Query coalescer(@NonNull QueryCoalescer coalescer) {
+		this.coalescer = coalescer;
+		return this;
+	}
+
+	/**
+	 * Attaches replicas to the query, so that reads outside of a transaction run on them.
+	 * @param readReplicas The replicas
+	 * @return This query
+	 */
+	final Query readReplicas(@NonNull ReadReplicas readReplicas) {
+		this.readReplicas = readReplicas;
+		return this;
 	}
 
 	/**
@@ -36,20 +191,35 @@ public class Query {
 	 * @param callback The callback that will handle the results.
 	 */
 	public final void query(RowCallbackHandler callback) {
-		namedParameterJdbcTemplate.query(sqlStatement, context, callback);
+		read(template -> {
+			if (usesStatementCreator())
+				template.getJdbcOperations().query(newStatementCreator(), callback);
+			else
+				template.query(sqlStatement, context, callback);
+			return null;
+		});
 	}
 
 	/**
-	 * Executes the query expecting a list of {@link java.util.Map Map<String, Object>} as a result
+	 * Executes the query expecting a list of {@link java.util.Map Map<String, Object>} as a result.<br/>
+	 * Rows are compact {@link Row Row} objects sharing the index of the column names, with case-insensitive keys.
 	 * @return A list of {@link java.util.Map Map<String, Object>} objects.
 	 */
 	public final List<Map<String, Object>> queryForList() {
-		return namedParameterJdbcTemplate.queryForList(sqlStatement, context);
+		return shared("list", null, this::loadList, Query::copyRows);
+	}
+
+	private List<Map<String, Object>> loadList() {
+		return read(template -> {
+			if (usesStatementCreator())
+				return template.getJdbcOperations().query(newStatementCreator(), Row.rowMapper());
+			return template.query(sqlStatement, context, Row.rowMapper());
+		});
 	}
 
 	/**
 	 * Executes a query and returns a list of beans of the specified type.<br/>
-	 * The columns are converted according to spring's {@link org.springframework.jdbc.core.BeanPropertyRowMapper BeanPropertyRowMapper} rules.<br/>
+	 * The columns are converted by a {@link BeanRowMapperFactory BeanRowMapperFactory} mapper, according to spring's BeanPropertyRowMapper rules. Records are supported as well.<br/>
 	 * It's important to remember that this framework is not meant to handle relationships, meaning that the bean is expected
 	 * to contain only primitive (eventually boxed) types.<br/>
 	 * @param clazz The bean's class.
@@ -57,7 +227,15 @@ public class Query {
 	 * @return A list of beans.
 	 */
 	public final <T> List<T> queryForBeans(Class<T> clazz) {
-		return namedParameterJdbcTemplate.query(sqlStatement, new MapSqlParameterSource(context), new BeanPropertyRowMapper<>(clazz));
+		return shared("beans", clazz, () -> loadBeans(clazz), Query::copyBeans);
+	}
+
+	private <T> List<T> loadBeans(Class<T> clazz) {
+		return read(template -> {
+			if (usesStatementCreator())
+				return template.getJdbcOperations().query(newStatementCreator(), BeanRowMapperFactory.getRowMapper(clazz));
+			return template.query(sqlStatement, new MapSqlParameterSource(context), BeanRowMapperFactory.getRowMapper(clazz));
+		});
 	}
 
 	/**
@@ -76,6 +254,69 @@ public class Query {
 		return queryForObject(Long.class);
 	}
 
+	/**
+	 * Executes a single-column query and returns its values as an array of longs, read without boxing them.
+	 * Null values are read as zero.
+	 * @return The values, in result order
+	 */
+	public final long[] queryForLongArray() {
+		LongColumnHandler handler = new LongColumnHandler();
+		query(handler);
+		return handler.toArray();
+	}
+
+	/**
+	 * Executes a single-column query and returns its values as an array of integers, read without boxing them.
+	 * Null values are read as zero.
+	 * @return The values, in result order
+	 */
+	public final int[] queryForIntArray() {
+		IntColumnHandler handler = new IntColumnHandler();
+		query(handler);
+		return handler.toArray();
+	}
+
+	/**
+	 * Executes a single-column query and returns its values as an array of doubles, read without boxing them.
+	 * Null values are read as zero.
+	 * @return The values, in result order
+	 */
+	public final double[] queryForDoubleArray() {
+		DoubleColumnHandler handler = new DoubleColumnHandler();
+		query(handler);
+		return handler.toArray();
+	}
+
+	/**
+	 * Executes a single-column query and returns a lazy LongStream of its values. Null values are read as zero.<br/>
+	 * Values are read from the database as the stream is consumed. The stream holds a connection, a statement and a
+	 * ResultSet until it's closed: use it in a try-with-resources block.
+	 * @return The values, in result order
+	 */
+	public final LongStream queryForLongStream() {
+		return streamColumn((rs, rowNum) -> rs.getLong(1)).mapToLong(Long::longValue);
+	}
+
+	/**
+	 * Executes a single-column query and returns a lazy IntStream of its values. Null values are read as zero.<br/>
+	 * Values are read from the database as the stream is consumed. The stream holds a connection, a statement and a
+	 * ResultSet until it's closed: use it in a try-with-resources block.
+	 * @return The values, in result order
+	 */
+	public final IntStream queryForIntStream() {
+		return streamColumn((rs, rowNum) -> rs.getInt(1)).mapToInt(Integer::intValue);
+	}
+
+	/**
+	 * Executes a single-column query and returns a lazy DoubleStream of its values. Null values are read as zero.<br/>
+	 * Values are read from the database as the stream is consumed. The stream holds a connection, a statement and a
+	 * ResultSet until it's closed: use it in a try-with-resources block.
+	 * @return The values, in result order
+	 */
+	public final DoubleStream queryForDoubleStream() {
+		return streamColumn((rs, rowNum) -> rs.getDouble(1)).mapToDouble(Double::doubleValue);
+	}
+
 	/**
 	 * Executes a query and returns an object. Note that in this case the object is expected to be
 	 * a primitive (possibly boxed) java type. Beans are not allowed.<br/>
@@ -84,7 +325,15 @@ public class Query {
 	 * @return The object
 	 */
 	public final <T> T queryForObject(Class<T> clazz) {
-		return namedParameterJdbcTemplate.queryForObject(sqlStatement, context, clazz);
+		return shared("object", clazz, () -> loadObject(clazz), UnaryOperator.identity());
+	}
+
+	private <T> T loadObject(Class<T> clazz) {
+		return read(template -> {
+			if (usesStatementCreator())
+				return querySingle(template, new SingleColumnRowMapper<>(clazz));
+			return template.queryForObject(sqlStatement, context, clazz);
+		});
 	}
 
 	/**
@@ -92,12 +341,20 @@ public class Query {
 	 * @return A {@link java.util.Map Map<String, Object>} object
 	 */
 	public final Map<String, Object> queryForMap() {
-		return namedParameterJdbcTemplate.queryForMap(sqlStatement, context);
+		return shared("map", null, this::loadMap, Query::copyMap);
+	}
+
+	private Map<String, Object> loadMap() {
+		return read(template -> {
+			if (usesStatementCreator())
+				return querySingle(template, new ColumnMapRowMapper());
+			return template.queryForMap(sqlStatement, context);
+		});
 	}
 
 	/**
 	 * Executes a query and returns a bean of the specified type.<br/>
-	 * The columns are converted according to spring's {@link org.springframework.jdbc.core.BeanPropertyRowMapper BeanPropertyRowMapper} rules.<br/>
+	 * The columns are converted by a {@link BeanRowMapperFactory BeanRowMapperFactory} mapper, according to spring's BeanPropertyRowMapper rules. Records are supported as well.<br/>
 	 * It's important to remember that this framework is not meant to handle relationships, meaning that the bean is expected
 	 * to contain only primitive (eventually boxed) types.<br/>
 	 * @param clazz The bean's class.
@@ -105,7 +362,15 @@ public class Query {
 	 * @return A bean.
 	 */
 	public final <T> T queryForBean(Class<T> clazz) {
-		return namedParameterJdbcTemplate.queryForObject(sqlStatement, new MapSqlParameterSource(context), new BeanPropertyRowMapper<>(clazz));
+		return shared("bean", clazz, () -> loadBean(clazz), Query::copyBean);
+	}
+
+	private <T> T loadBean(Class<T> clazz) {
+		return read(template -> {
+			if (usesStatementCreator())
+				return querySingle(template, BeanRowMapperFactory.getRowMapper(clazz));
+			return template.queryForObject(sqlStatement, new MapSqlParameterSource(context), BeanRowMapperFactory.getRowMapper(clazz));
+		});
 	}
 
 	/**
@@ -113,7 +378,43 @@ public class Query {
 	 * @return The number of affected rows.
 	 */
 	public final int update() {
-		return namedParameterJdbcTemplate.update(sqlStatement, context);
+		try {
+			if (usesStatementCreator())
+				return jdbcOperations().update(newStatementCreator());
+			return namedParameterJdbcTemplate.update(sqlStatement, context);
+		}
+		finally {
+			invalidateWrittenTables();
+		}
+	}
+
+	/**
+	 * Executes the statement once for each of the specified rows, using JDBC batches to reduce the round trips to the
+	 * database. The values of each row take precedence over the ones of the query's context.
+	 * @param rows The values of the named parameters for each execution
+	 * @param chunkSize The maximum number of rows sent in a single batch
+	 * @return The number of affected rows for each row, one array for each batch that was sent, in execution order.
+	 */
+	public final List<int[]> batchUpdate(@NonNull Collection<? extends Map<String, ?>> rows, int chunkSize) {
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("The chunk size must be positive.");
+		List<int[]> results = new ArrayList<>();
+		List<SqlParameterSource> chunk = new ArrayList<>(Math.min(chunkSize, rows.size()));
+		try {
+			for (Map<String, ?> row : rows) {
+				chunk.add(new ContextParameterSource(new LayeredContext(context, row)));
+				if (chunk.size() == chunkSize) {
+					results.add(executeBatch(chunk.toArray(new SqlParameterSource[0])));
+					chunk.clear();
+				}
+			}
+			if (!chunk.isEmpty())
+				results.add(executeBatch(chunk.toArray(new SqlParameterSource[0])));
+		}
+		finally {
+			invalidateWrittenTables();
+		}
+		return results;
 	}
 
 	/**
@@ -132,18 +433,48 @@ public class Query {
 	 * @return The execution's result
 	 */
 	public final <T> T execute(PreparedStatementCallback<T> preparedStatementCallback) {
-		return namedParameterJdbcTemplate.execute(sqlStatement, context, preparedStatementCallback);
+		try {
+			if (usesStatementCreator())
+				return jdbcOperations().execute(newStatementCreator(), preparedStatementCallback);
+			return namedParameterJdbcTemplate.execute(sqlStatement, context, preparedStatementCallback);
+		}
+		finally {
+			invalidateWrittenTables();
+		}
+	}
+
+	/**
+	 * Executes the query and returns a lazy stream of its rows, each as a compact {@link Row Row}.<br/>
+	 * Rows are read from the database as the stream is consumed, so that large results don't need to be kept in memory.
+	 * The stream holds a connection, a statement and a ResultSet until it's closed: use it in a try-with-resources block.
+	 * @return A stream of rows
+	 */
+	public final Stream<Map<String, Object>> stream() {
+		return readStream(template -> template.getJdbcOperations().queryForStream(newStatementCreator(), Row.rowMapper()));
+	}
+
+	/**
+	 * Executes the query and returns a lazy stream of beans of the specified type.<br/>
+	 * The columns are converted by a {@link BeanRowMapperFactory BeanRowMapperFactory} mapper, according to spring's BeanPropertyRowMapper rules. Records are supported as well.<br/>
+	 * Rows are read from the database as the stream is consumed, so that large results don't need to be kept in memory.
+	 * The stream holds a connection, a statement and a ResultSet until it's closed: use it in a try-with-resources block.
+	 * @param clazz The bean's class.
+	 * @param <T> The type.
+	 * @return A stream of beans
+	 */
+	public final <T> Stream<T> stream(Class<T> clazz) {
+		return readStream(template -> template.getJdbcOperations().queryForStream(newStatementCreator(), BeanRowMapperFactory.getRowMapper(clazz)));
 	}
 
 	/**
 	 * Executes a query and iterates through the ResultSet executing the specified callback for
 	 * each row. This is useful for large datasets to avoid keeping data in memory while it's
-	 * being processed.
+	 * being processed. Rows are handed over as compact {@link Row Row} objects.
 	 * @param callback The callback
 	 */
 	public final void iterate(final IRowHandlerCallback<Map<String, Object>> callback) {
 		query(new RowCallbackHandler() {
-			final ColumnMapRowMapper mapper = new ColumnMapRowMapper();
+			final RowMapper<Map<String, Object>> mapper = Row.rowMapper();
 
 			@Override
 			public void processRow(ResultSet rs) throws SQLException {
@@ -162,7 +493,7 @@ public class Query {
 	 */
 	public final <T> void iterate(Class<T> clazz, final IRowHandlerCallback<T> callback) {
 		query(new RowCallbackHandler() {
-			final BeanPropertyRowMapper<T> mapper = new BeanPropertyRowMapper<>(clazz);
+			final RowMapper<T> mapper = BeanRowMapperFactory.getRowMapper(clazz);
 
 			@Override
 			public void processRow(ResultSet rs) throws SQLException {
@@ -171,4 +502,354 @@ public class Query {
 		});
 	}
 
+	/**
+	 * Executes the query and writes its rows to a stream in the specified format, straight from the ResultSet and
+	 * without building any Map or bean for them, so that results of any size can be exported. The stream is flushed but
+	 * not closed. Wrapping it in an ObservableOutputStream or an OutputStreamWithDigest, from openly-core-io, allows
+	 * to report the progress of the export or to compute the checksum of the file.<br/>
+	 * Note that some drivers, such as PostgreSQL's and MySQL's, read the whole result up front unless a
+	 * {@link #fetchSize(int) fetch size} is set.
+	 * @param out The stream
+	 * @param format The format
+	 * @return The number of rows written
+	 * @throws UncheckedIOException If the stream can't be written
+	 */
+	public final long exportTo(@NonNull OutputStream out, @NonNull ExportFormat format) {
+		ResultSetExporter exporter = new ResultSetExporter(out, format);
+		Long rows = read(template -> {
+			if (usesStatementCreator())
+				return template.getJdbcOperations().query(newStatementCreator(), exporter);
+			return template.query(sqlStatement, context, exporter);
+		});
+		return rows != null ? rows : 0;
+	}
+
+	/**
+	 * Returns the cached result when the query is cacheable, or the result of the identical execution in flight when
+	 * the query is coalesced, loading it otherwise. As the loaded result is shared with other callers, each caller
+	 * receives its own copy of it. Within a transaction both are bypassed, as the transaction may see its own
+	 * uncommitted changes.
+	 * @param form The form of the result, distinguishing the methods returning it
+	 * @param type The type of the result, when the method takes one
+	 * @param loader Loads the result
+	 * @param copy Copies the shared result for the caller
+	 */
+	private <T> T shared(String form, Class<?> type, Supplier<T> loader, UnaryOperator<T> copy) {
+		boolean cacheable = resultCache != null && !readTables.isEmpty();
+		if ((!cacheable && coalescer == null) || TransactionSynchronizationManager.isActualTransactionActive())
+			return loader.get();
+		BoundStatement bound = bind();
+		ResultKey key = new ResultKey(bound.sql(), Arrays.asList(bound.values()), maxRows, form, type);
+		Supplier<T> load = coalescer == null ? loader : () -> coalescer.execute(key, loader);
+		T result = cacheable ? resultCache.get(key, readTables, load) : load.get();
+		return result == null ? null : copy.apply(result);
+	}
+
+	private static List<Map<String, Object>> copyRows(List<Map<String, Object>> rows) {
+		List<Map<String, Object>> copy = new ArrayList<>(rows.size());
+		for (Map<String, Object> row : rows)
+			copy.add(row instanceof Row compact ? compact.copy() : copyMap(row));
+		return copy;
+	}
+
+	private static Map<String, Object> copyMap(Map<String, Object> map) {
+		Map<String, Object> copy = new LinkedCaseInsensitiveMap<>(map.size());
+		copy.putAll(map);
+		return copy;
+	}
+
+	private static <T> List<T> copyBeans(List<T> beans) {
+		List<T> copy = new ArrayList<>(beans.size());
+		for (T bean : beans)
+			copy.add(copyBean(bean));
+		return copy;
+	}
+
+	/**
+	 * Copies the properties of a bean into a new instance of its class. Records are returned as they are, their
+	 * components being immutable as well.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> T copyBean(T bean) {
+		if (bean == null || bean.getClass().isRecord())
+			return bean;
+		T copy = (T) BeanUtils.instantiateClass(bean.getClass());
+		BeanUtils.copyProperties(bean, copy);
+		return copy;
+	}
+
+	/**
+	 * Invalidates the cached results of the written tables. Within a transaction they're invalidated again upon its
+	 * completion, so that results read by others before the commit don't survive it.
+	 */
+	private void invalidateWrittenTables() {
+		if (resultCache == null || writeTables.isEmpty())
+			return;
+		QueryResultCache cache = resultCache;
+		Set<String> tables = writeTables;
+		cache.invalidate(tables);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					cache.invalidate(tables);
+				}
+			});
+		}
+	}
+
+	private JdbcOperations jdbcOperations() {
+		return namedParameterJdbcTemplate.getJdbcOperations();
+	}
+
+	private <T> T querySingle(NamedParameterJdbcTemplate template, RowMapper<T> rowMapper) {
+		return DataAccessUtils.nullableSingleResult(template.getJdbcOperations().query(newStatementCreator(), rowMapper));
+	}
+
+	/**
+	 * Executes a read on one of the replicas when they're attached and no transaction is active, on the primary
+	 * database otherwise.
+	 */
+	private <T> T read(Function<NamedParameterJdbcTemplate, T> work) {
+		if (readReplicas == null || TransactionSynchronizationManager.isActualTransactionActive())
+			return work.apply(namedParameterJdbcTemplate);
+		return readReplicas.read(work);
+	}
+
+	private <T> Stream<T> readStream(Function<NamedParameterJdbcTemplate, Stream<T>> work) {
+		if (readReplicas == null || TransactionSynchronizationManager.isActualTransactionActive())
+			return work.apply(namedParameterJdbcTemplate);
+		return readReplicas.stream(work);
+	}
+
+	private <T> Stream<T> streamColumn(RowMapper<T> reader) {
+		return readStream(template -> template.getJdbcOperations().queryForStream(newStatementCreator(), (rs, rowNum) -> {
+			if (rowNum == 0) {
+				int columnCount = rs.getMetaData().getColumnCount();
+				if (columnCount != 1)
+					throw new IncorrectResultSetColumnCountException(1, columnCount);
+			}
+			return reader.mapRow(rs, rowNum);
+		}));
+	}
+
+	private int[] executeBatch(SqlParameterSource[] batch) {
+		ParsedSql parsed = parsedSql != null ? parsedSql : NamedParameterUtils.parseSqlStatement(sqlStatement);
+		String sqlToUse = NamedParameterUtils.substituteNamedParameters(parsed, batch[0]);
+		List<SqlParameter> declaredParameters = NamedParameterUtils.buildSqlParameterList(parsed, batch[0]);
+		PreparedStatementCreatorFactory statementFactory = new PreparedStatementCreatorFactory(sqlToUse, declaredParameters);
+		PreparedStatementCreator creator = new BatchStatementCreator(sqlToUse);
+		if (fetchSize > 0 || maxRows > 0 || queryTimeout > 0)
+			creator = new StatementSettingsCreator(creator, fetchSize, maxRows, queryTimeout);
+		return jdbcOperations().execute(creator, (PreparedStatement ps) -> {
+			boolean batchSupported = JdbcUtils.supportsBatchUpdates(ps.getConnection());
+			int[] rowsAffected = new int[batch.length];
+			for (int i = 0; i < batch.length; i++) {
+				Object[] values = NamedParameterUtils.buildValueArray(parsed, batch[i], null);
+				statementFactory.newPreparedStatementSetter(values).setValues(ps);
+				if (batchSupported)
+					ps.addBatch();
+				else
+					rowsAffected[i] = ps.executeUpdate();
+			}
+			return batchSupported ? ps.executeBatch() : rowsAffected;
+		});
+	}
+
+	/**
+	 * Whether the query must be executed through a {@link PreparedStatementCreator PreparedStatementCreator}, either
+	 * because the statement was already parsed or because statement settings must be applied.
+	 */
+	private boolean usesStatementCreator() {
+		return parsedSql != null || fetchSize > 0 || maxRows > 0 || queryTimeout > 0;
+	}
+
+	private PreparedStatementCreator newStatementCreator() {
+		PreparedStatementCreator creator = newStatementCreator(parsedSql != null ? parsedSql : NamedParameterUtils.parseSqlStatement(sqlStatement));
+		if (fetchSize > 0 || maxRows > 0 || queryTimeout > 0)
+			return new StatementSettingsCreator(creator, fetchSize, maxRows, queryTimeout);
+		return creator;
+	}
+
+	private PreparedStatementCreator newStatementCreator(ParsedSql parsed) {
+		BoundStatement bound = bind(parsed);
+		return new PreparedStatementCreatorFactory(bound.sql(), bound.declaredParameters()).newPreparedStatementCreator(bound.values());
+	}
+
+	/**
+	 * Resolves the named parameters of the statement, so that it can be combined with other statements.
+	 */
+	BoundStatement bind() {
+		return bind(parsedSql != null ? parsedSql : NamedParameterUtils.parseSqlStatement(sqlStatement));
+	}
+
+	private BoundStatement bind(ParsedSql parsed) {
+		SqlParameterSource parameterSource = new ContextParameterSource(context);
+		String sqlToUse = NamedParameterUtils.substituteNamedParameters(parsed, parameterSource);
+		List<SqlParameter> declaredParameters = NamedParameterUtils.buildSqlParameterList(parsed, parameterSource);
+		Object[] values = NamedParameterUtils.buildValueArray(parsed, parameterSource, null);
+		return new BoundStatement(sqlToUse, declaredParameters, values);
+	}
+
+	/**
+	 * A statement having its named parameters replaced by placeholders, along with their declarations and values.
+	 */
+	record BoundStatement(String sql, List<SqlParameter> declaredParameters, Object[] values) {
+	}
+
+	/**
+	 * Identifies a cached or coalesced result.
+	 */
+	private record ResultKey(String sql, List<Object> values, int maxRows, String form, Class<?> type) {
+	}
+
+	/**
+	 * Reads the single column of a result into a growable primitive array, rejecting results with more columns as
+	 * {@link SingleColumnRowMapper SingleColumnRowMapper} does.
+	 */
+	private abstract static class PrimitiveColumnHandler implements RowCallbackHandler {
+		protected int size;
+
+		@Override
+		public final void processRow(ResultSet rs) throws SQLException {
+			if (size == 0) {
+				int columnCount = rs.getMetaData().getColumnCount();
+				if (columnCount != 1)
+					throw new IncorrectResultSetColumnCountException(1, columnCount);
+			}
+			read(rs, size++);
+		}
+
+		protected abstract void read(ResultSet rs, int index) throws SQLException;
+
+		protected static int grow(int capacity) {
+			return Math.max(16, capacity + (capacity >> 1));
+		}
+	}
+
+	private static final class LongColumnHandler extends PrimitiveColumnHandler {
+		private long[] values = new long[0];
+
+		@Override
+		protected void read(ResultSet rs, int index) throws SQLException {
+			if (index == values.length)
+				values = Arrays.copyOf(values, grow(values.length));
+			values[index] = rs.getLong(1);
+		}
+
+		private long[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	private static final class IntColumnHandler extends PrimitiveColumnHandler {
+		private int[] values = new int[0];
+
+		@Override
+		protected void read(ResultSet rs, int index) throws SQLException {
+			if (index == values.length)
+				values = Arrays.copyOf(values, grow(values.length));
+			values[index] = rs.getInt(1);
+		}
+
+		private int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	private static final class DoubleColumnHandler extends PrimitiveColumnHandler {
+		private double[] values = new double[0];
+
+		@Override
+		protected void read(ResultSet rs, int index) throws SQLException {
+			if (index == values.length)
+				values = Arrays.copyOf(values, grow(values.length));
+			values[index] = rs.getDouble(1);
+		}
+
+		private double[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * Reads the parameters straight from the context, rather than copying it as {@link MapSqlParameterSource MapSqlParameterSource} does.
+	 */
+	private static final class ContextParameterSource extends AbstractSqlParameterSource {
+		private final Map<String, ?> context;
+
+		private ContextParameterSource(Map<String, ?> context) {
+			this.context = context != null ? context : Map.of();
+		}
+
+		@Override
+		public boolean hasValue(String paramName) {
+			return context.containsKey(paramName);
+		}
+
+		@Override
+		public Object getValue(String paramName) {
+			Object value = context.get(paramName);
+			if (value == null && !context.containsKey(paramName)) {
+				throw new IllegalArgumentException("No value registered for key '" + paramName + "'");
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Prepares the statement of a batch, whose values are set for each row of the batch.
+	 */
+	private record BatchStatementCreator(String sql) implements PreparedStatementCreator, SqlProvider {
+		@Override
+		public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+			return con.prepareStatement(sql);
+		}
+
+		@Override
+		public String getSql() {
+			return sql;
+		}
+	}
+
+	/**
+	 * Applies the statement settings to the statements created by another creator, retaining its ability to describe
+	 * the SQL and to clean up its parameters.
+	 */
+	private static final class StatementSettingsCreator implements PreparedStatementCreator, SqlProvider, ParameterDisposer {
+		private final PreparedStatementCreator delegate;
+		private final int fetchSize;
+		private final int maxRows;
+		private final int queryTimeout;
+
+		private StatementSettingsCreator(PreparedStatementCreator delegate, int fetchSize, int maxRows, int queryTimeout) {
+			this.delegate = delegate;
+			this.fetchSize = fetchSize;
+			this.maxRows = maxRows;
+			this.queryTimeout = queryTimeout;
+		}
+
+		@Override
+		public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+			PreparedStatement ps = delegate.createPreparedStatement(con);
+			if (fetchSize > 0)
+				ps.setFetchSize(fetchSize);
+			if (maxRows > 0)
+				ps.setMaxRows(maxRows);
+			if (queryTimeout > 0)
+				ps.setQueryTimeout(queryTimeout);
+			return ps;
+		}
+
+		@Override
+		public String getSql() {
+			return delegate instanceof SqlProvider sqlProvider ? sqlProvider.getSql() : null;
+		}
+
+		@Override
+		public void cleanupParameters() {
+			if (delegate instanceof ParameterDisposer parameterDisposer)
+				parameterDisposer.cleanupParameters();
+		}
+	}
 }
@@ -1,14 +1,37 @@
 package it.openly.core.data;
 
+import it.openly.core.data.support.BeanRowMapperFactory;
+import it.openly.core.data.support.DataSourceBulkhead;
+import it.openly.core.data.support.DbProductDetector;
 import it.openly.core.data.support.DefaultQueryResourceLoader;
+import it.openly.core.data.support.LayeredContext;
+import it.openly.core.data.support.QueryCoalescer;
+import it.openly.core.data.support.QueryResultCache;
+import it.openly.core.data.support.ReadReplicas;
+import it.openly.core.data.support.Row;
 import it.openly.core.data.support.SimpleQueryTemplateProcessor;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.PreparedStatementCallback;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.sql.DataSource;
+import java.io.OutputStream;
 import java.sql.PreparedStatement;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
 import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 /**
@@ -20,21 +43,95 @@ import java.util.stream.Stream;
  *
  * @author filippo.possenti
  */
+@Slf4j
 public class QueryFactory {
+    /**
+     * The number of rows sent in a single JDBC batch when not otherwise specified.
+     */
+    public static final int DEFAULT_BATCH_CHUNK_SIZE = 1000;
+
+    private static final List<String> QUERY_SETTING_PRAGMAS = List.of(Query.PRAGMA_FETCH_SIZE, Query.PRAGMA_MAX_ROWS, Query.PRAGMA_QUERY_TIMEOUT);
+
     private final ITemplateProcessor templateProcessor;
     private final DataSource dataSource;
     private final IQueryResourceLoader queryResourceLoader;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final DbProductDetector dbProductDetector;
+    private final DataSourceTransactionManager transactionManager;
+    private volatile QueryResultCache resultCache;
+    private volatile QueryCoalescer coalescer;
+    private volatile ReadReplicas readReplicas;
 
     public QueryFactory(DataSource dataSource, ITemplateProcessor templateProcessor, IQueryResourceLoader queryResourceLoader) {
         this.templateProcessor = templateProcessor;
         this.dataSource = dataSource;
         this.queryResourceLoader = queryResourceLoader;
+        this.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+        this.dbProductDetector = queryResourceLoader instanceof DefaultQueryResourceLoader defaultLoader ? defaultLoader.getDbProductDetector() : new DbProductDetector();
+        this.transactionManager = Transaction.transactionManager(dataSource);
     }
 
     public QueryFactory(DataSource dataSource) {
         this(dataSource, new SimpleQueryTemplateProcessor(true), new DefaultQueryResourceLoader());
     }
 
+    /**
+     * Sets the cache of the results of read queries. Only the templates declaring the tables they read through a
+     * -- PRAGMA:READS=table1,table2 -- block are cached, while statements declaring the tables they write through a
+     * -- PRAGMA:WRITES=table1 -- block invalidate the cached results read from them. Changes made by other means, such
+     * as statements not declaring their writes, only become visible once the results expire. The cached queries read
+     * from the primary DataSource even when {@link #setReadReplicas(ReadReplicas) replicas} are set, so that a lagging
+     * replica can't cache again the rows a write has just invalidated.<br/>
+     * Callers receive copies of the cached lists, maps and beans, the beans being copied property by property into a
+     * new instance of their class, while records and the values of queryForObject are shared, being expected to be
+     * immutable.
+     * @param resultCache The cache, or null to disable caching
+     */
+    public void setResultCache(QueryResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    public QueryResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Enables or disables the coalescing of read queries: while a query is running, identical executions of
+     * queryForList, queryForBeans, queryForObject, queryForMap or queryForBean with the same parameters wait for its
+     * result rather than sending it to the database again, each receiving its own copy of the lists, maps and beans,
+     * while records and the values of queryForObject are shared, being expected to be immutable. Unlike the
+     * {@link #setResultCache(QueryResultCache) result cache}, no result outlives its execution. Disabled by default.
+     * @param coalescing Whether to coalesce identical read queries
+     */
+    public void setCoalescing(boolean coalescing) {
+        this.coalescer = coalescing ? new QueryCoalescer() : null;
+    }
+
+    /**
+     * Returns the coalescer of the read queries.
+     * @return The coalescer, or null when coalescing is disabled
+     */
+    public QueryCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    /**
+     * Sets the replicas serving the read queries, splitting reads from writes: queryForList, queryForBeans,
+     * queryForObject, queryForMap, queryForBean, the primitive array queries, streams and iterations executed outside
+     * of a transaction run on one of the replicas, while updates, executions and everything within a transaction run on
+     * the primary DataSource of this object.<br/>
+     * Reads that must see the latest data can be kept on the primary through a -- PRAGMA:READ_FROM_PRIMARY -- block,
+     * while the queries whose results are {@link #setResultCache(QueryResultCache) cached} always read from it.
+     * @param readReplicas The replicas, or null to run everything on the primary
+     */
+    public void setReadReplicas(ReadReplicas readReplicas) {
+        this.readReplicas = readReplicas;
+    }
+
+    public ReadReplicas getReadReplicas() {
+        return readReplicas;
+    }
+
     /**
      * Configures and returns a Transaction object that can be used to executes subsequent queries transactionally.<br/>
      * Note that the use of this facility should be used with Spring's embedded transaction management facilities in
@@ -42,7 +139,94 @@ public class QueryFactory {
      * @return A {@link Transaction Transaction} object, linked to the current datasource.
      */
     public Transaction getTransaction() {
-        return new Transaction(dataSource);
+        return getTransaction(TransactionSettings.defaults());
+    }
+
+    /**
+     * Configures and returns a Transaction object with the specified settings, such as its isolation level, whether
+     * it's read-only and its timeout. Transactions share the transaction manager of this object.
+     * @param transactionDefinition The settings, typically built through {@link TransactionSettings TransactionSettings}
+     * @return A {@link Transaction Transaction} object, linked to the current datasource.
+     */
+    public Transaction getTransaction(@NonNull TransactionDefinition transactionDefinition) {
+        return new Transaction(transactionManager, transactionDefinition);
+    }
+
+    /**
+     * Executes work within a transaction having the default settings.
+     * @see #inTransaction(TransactionDefinition, Function)
+     */
+    public <T> T inTransaction(@NonNull Function<QueryFactory, T> work) {
+        return inTransaction(TransactionSettings.defaults(), work);
+    }
+
+    /**
+     * Executes work within a transaction, committing it when the work completes and rolling it back when the work
+     * throws an exception. When a transaction is already active on the calling thread, the work takes part in it.<br/>
+     * <br/>
+     * <code>
+     * List&lt;Order&gt; orders = queryFactory.inTransaction(TransactionSettings.defaults().readOnly().timeout(5),<br/>
+     * &nbsp;&nbsp;&nbsp;&nbsp;qf -&gt; qf.queryForBeans("orders/open", Order.class));<br/>
+     * </code>
+     * @param transactionDefinition The settings, typically built through {@link TransactionSettings TransactionSettings}
+     * @param work The work, receiving this object
+     * @param <T> The result type
+     * @return The result of the work
+     */
+    public <T> T inTransaction(@NonNull TransactionDefinition transactionDefinition, @NonNull Function<QueryFactory, T> work) {
+        return new TransactionTemplate(transactionManager, transactionDefinition).execute(status -> work.apply(this));
+    }
+
+    /**
+     * Returns the asynchronous counterpart of this object, running its work on the
+     * {@link DataSourceBulkhead DataSourceBulkhead} of the current datasource.
+     * @return An {@link AsyncQueryFactory AsyncQueryFactory} object
+     */
+    public AsyncQueryFactory async() {
+        return new AsyncQueryFactory(this, DataSourceBulkhead.of(dataSource).getExecutor());
+    }
+
+    /**
+     * Creates a group of queries to be executed together, in a single round trip when the database allows it.
+     * @return A {@link QueryGroup QueryGroup} object
+     */
+    public QueryGroup createGroup() {
+        return new QueryGroup(this, namedParameterJdbcTemplate.getJdbcOperations(),
+                () -> dbProductDetector.detectProfile(dataSource).isMultiStatementSupported(),
+                DataSourceBulkhead.of(dataSource));
+    }
+
+    /**
+     * Loads and prepares, in parallel, all the named queries available for the current datasource, so that their
+     * first execution doesn't pay for loading and parsing them. Meant to be invoked at application startup.<br/>
+     * Queries that can't be loaded or that have problems, such as blocks that are not terminated, are reported, as are
+     * the ones declaring values that would make their execution fail, such as a negative FETCH_SIZE pragma.
+     * @return A {@link java.util.Map Map} having the names of the queries with problems as keys and the list of their problems as values. An empty Map means no problem was found.
+     */
+    public Map<String, List<String>> prepareQueries() {
+        Map<String, List<String>> problems = queryResourceLoader.listQueries(dataSource).parallelStream()
+                .map(namedQuery -> Map.entry(namedQuery, prepareQuery(namedQuery)))
+                .filter(entry -> !entry.getValue().isEmpty())
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, TreeMap::new));
+        problems.forEach((namedQuery, queryProblems) -> log.warn("Query '{}' has problems: {}", namedQuery, queryProblems));
+        return problems;
+    }
+
+    private List<String> prepareQuery(String namedQuery) {
+        try {
+            String sqlStatementTemplate = queryResourceLoader.loadQuery(dataSource, namedQuery);
+            List<String> problems = templateProcessor.prepareTemplate(sqlStatementTemplate);
+            if (problems.isEmpty()) {
+                Map<String, String> pragmas = templateProcessor.processTemplate(sqlStatementTemplate, new LayeredContext()).getPragmas();
+                if (pragmas != null) {
+                    QUERY_SETTING_PRAGMAS.forEach(name -> intPragma(pragmas, name));
+                }
+            }
+            return problems;
+        }
+        catch (RuntimeException e) {
+            return List.of(String.valueOf(e.getMessage()));
+        }
     }
 
     /**
@@ -58,16 +242,75 @@ public class QueryFactory {
     }
 
     /**
-     * Creates a query object based on the specified SQL and context variables.
+     * Creates a query object based on the specified SQL and context variables.<br/>
+     * The contexts are not merged: they're accessed through a {@link LayeredContext LayeredContext} view, where keys
+     * defined by a later context take precedence over the same keys defined by an earlier one.<br/>
+     * The FETCH_SIZE, MAX_ROWS and QUERY_TIMEOUT pragmas reported by the template processor are applied to the query,
+     * as are the READS and WRITES pragmas when a {@link #setResultCache(QueryResultCache) result cache} is set. The
+     * query is coalesced with identical ones when {@link #setCoalescing(boolean) coalescing} is enabled, and reads from
+     * the {@link #setReadReplicas(ReadReplicas) replicas} unless the READ_FROM_PRIMARY pragma is reported.
      * @param sqlStatementTemplate The query SQL.
      * @param contexts A variable number of {@link java.util.Map Map} objects containing the variables driving the query. Having multiple Map objects allows to more easily separate parameters, for example filter parameters could be in one Map and paging parameters in another Map.
      * @return A {@link it.openly.core.data.Query Query} object
      */
     @SafeVarargs
     public final Query createQueryFromTemplate(String sqlStatementTemplate, Map<String, Object>... contexts) {
-        Map<String, Object> context = Stream.of(contexts).flatMap(map -> map.entrySet().stream()).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        Map<String, Object> context = new LayeredContext(contexts);
         ProcessedTemplate processedTemplate = templateProcessor.processTemplate(sqlStatementTemplate, context);
-        return new Query(new NamedParameterJdbcTemplate(dataSource), processedTemplate.getSql(), processedTemplate.getContext());
+        Query query = new Query(namedParameterJdbcTemplate, processedTemplate.getSql(), processedTemplate.getContext(), processedTemplate.getParsedSql());
+        return configureQuery(query, processedTemplate.getPragmas());
+    }
+
+    private Query configureQuery(Query query, Map<String, String> pragmas) {
+        QueryCoalescer queryCoalescer = coalescer;
+        if (queryCoalescer != null) {
+            query.coalescer(queryCoalescer);
+        }
+        QueryResultCache cache = resultCache;
+        boolean cached = cache != null && pragmas != null && !tablesPragma(pragmas, Query.PRAGMA_READS).isEmpty();
+        ReadReplicas replicas = readReplicas;
+        if (replicas != null && !cached && (pragmas == null || !pragmas.containsKey(Query.PRAGMA_READ_FROM_PRIMARY))) {
+            query.readReplicas(replicas);
+        }
+        if (pragmas != null && !pragmas.isEmpty()) {
+            query.fetchSize(intPragma(pragmas, Query.PRAGMA_FETCH_SIZE))
+                    .maxRows(intPragma(pragmas, Query.PRAGMA_MAX_ROWS))
+                    .queryTimeout(intPragma(pragmas, Query.PRAGMA_QUERY_TIMEOUT));
+            if (cache != null && (pragmas.containsKey(Query.PRAGMA_READS) || pragmas.containsKey(Query.PRAGMA_WRITES))) {
+                query.resultCache(cache, tablesPragma(pragmas, Query.PRAGMA_READS), tablesPragma(pragmas, Query.PRAGMA_WRITES));
+            }
+        }
+        return query;
+    }
+
+    private static Set<String> tablesPragma(Map<String, String> pragmas, String name) {
+        String value = pragmas.get(name);
+        if (value == null) {
+            return Set.of();
+        }
+        return Arrays.stream(value.split(","))
+                .map(table -> table.trim().toLowerCase(Locale.ROOT))
+                .filter(table -> !table.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    private static int intPragma(Map<String, String> pragmas, String name) {
+        String value = pragmas.get(name);
+        if (value == null) {
+            return -1;
+        }
+        String message = String.format("Invalid value '%s' for PRAGMA:%s, a non-negative integer is expected.", value, name);
+        int result;
+        try {
+            result = Integer.parseInt(value);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException(message, e);
+        }
+        if (result < 0) {
+            throw new IllegalArgumentException(message);
+        }
+        return result;
     }
 
     /**
@@ -83,7 +326,7 @@ public class QueryFactory {
 
     /**
      * Executes a query and returns a list of beans of the specified type.<br/>
-     * The columns are converted according to spring's {@link org.springframework.jdbc.core.BeanPropertyRowMapper BeanPropertyRowMapper} rules.<br/>
+     * The columns are converted by a {@link it.openly.core.data.support.BeanRowMapperFactory BeanRowMapperFactory} mapper, according to spring's BeanPropertyRowMapper rules. Records are supported as well.<br/>
      * It's important to remember that this framework is not meant to handle relationships, meaning that the bean is expected
      * to contain only primitive (eventually boxed) types.<br/>
      * @param namedQuery The named query name. The name is defined as a relative path from the classpath:/queries/[dbproduct] path, without the ./sql extension. For example: "hello/world" will try to load the classpath:/queries/[dbproduct]/hello/world.sql file.
@@ -119,6 +362,75 @@ public class QueryFactory {
         return createQuery(namedQuery, contexts).queryForLong();
     }
 
+    /**
+     * Executes a single-column query and returns its values as an array of longs, read without boxing them. Null values are read as zero.
+     * @param namedQuery The named query name. The name is defined as a relative path from the classpath:/queries/[dbproduct] path, without the ./sql extension. For example: "hello/world" will try to load the classpath:/queries/[dbproduct]/hello/world.sql file.
+     * @param contexts A variable number of {@link java.util.Map Map} objects containing the variables driving the query. Having multiple Map objects allows to more easily separate parameters, for example filter parameters could be in one Map and paging parameters in another Map.
+     * @return The values, in result order
+     */
+    @SafeVarargs
+    public final long[] queryForLongArray(String namedQuery, Map<String, Object>... contexts) {
+        return createQuery(namedQuery, contexts).queryForLongArray();
+    }
+
+    /**
+     * Executes a single-column query and returns its values as an array of integers, read without boxing them. Null values are read as zero.
+     * @param namedQuery The named query name. The name is defined as a relative path from the classpath:/queries/[dbproduct] path, without the ./sql extension. For example: "hello/world" will try to load the classpath:/queries/[dbproduct]/hello/world.sql file.
+     * @param contexts A variable number of {@link java.util.Map Map} objects containing the variables driving the query. Having multiple Map objects allows to more easily separate parameters, for example filter parameters could be in one Map and paging parameters in another Map.
+     * @return The values, in result order
+     */
+    @SafeVarargs
+    public final int[] queryForIntArray(String namedQuery, Map<String, Object>... contexts) {
+        return createQuery(namedQuery, contexts).queryForIntArray();
+    }
+
+    /**
+     * Executes a single-column query and returns its values as an array of doubles, read without boxing them. Null values are read as zero.
+     * @param namedQuery The named query name. The name is defined as a relative path from the classpath:/queries/[dbproduct] path, without the ./sql extension. For example: "hello/world" will try to load the classpath:/queries/[dbproduct]/hello/world.sql file.
+     * @param contexts A variable number of {@link java.util.Map Map} objects containing the variables driving the query. Having multiple Map objects allows to more easily separate parameters, for example filter parameters could be in one Map and paging parameters in another Map.
+     * @return The values, in result order
+     */
+    @SafeVarargs
+    public final double[] queryForDoubleArray(String namedQuery, Map<String, Object>... contexts) {
+        return createQuery(namedQuery, contexts).queryForDoubleArray();
+    }
+
+    /**
+     * Executes a single-column query and returns a lazy stream of its values. Null values are read as zero. The stream
+     * holds a connection until it's closed: use it in a try-with-resources block.
+     * @param namedQuery The named query name. The name is defined as a relative path from the classpath:/queries/[dbproduct] path, without the ./sql extension. For example: "hello/world" will try to load the classpath:/queries/[dbproduct]/hello/world.sql file.
+     * @param contexts A variable number of {@link java.util.Map Map} objects containing the variables driving the query. Having multiple Map objects allows to more easily separate parameters, for example filter parameters could be in one Map and paging parameters in another Map.
+     * @return The values, in result order
+     */
+    @SafeVarargs
+    public final LongStream queryForLongStream(String namedQuery, Map<String, Object>... contexts) {
+        return createQuery(namedQuery, contexts).queryForLongStream();
+    }
+
+    /**
+     * Executes a single-column query and returns a lazy stream of its values. Null values are read as zero. The stream
+     * holds a connection until it's closed: use it in a try-with-resources block.
+     * @param namedQuery The named query name. The name is defined as a relative path from the classpath:/queries/[dbproduct] path, without the ./sql extension. For example: "hello/world" will try to load the classpath:/queries/[dbproduct]/hello/world.sql file.
+     * @param contexts A variable number of {@link java.util.Map Map} objects containing the variables driving the query. Having multiple Map objects allows to more easily separate parameters, for example filter parameters could be in one Map and paging parameters in another Map.
+     * @return The values, in result order
+     */
+    @SafeVarargs
+    public final IntStream queryForIntStream(String namedQuery, Map<String, Object>... contexts) {
+        return createQuery(namedQuery, contexts).queryForIntStream();
+    }
+
+    /**
+     * Executes a single-column query and returns a lazy stream of its values. Null values are read as zero. The stream
+     * holds a connection until it's closed: use it in a try-with-resources block.
+     * @param namedQuery The named query name. The name is defined as a relative path from the classpath:/queries/[dbproduct] path, without the ./sql extension. For example: "hello/world" will try to load the classpath:/queries/[dbproduct]/hello/world.sql file.
+     * @param contexts A variable number of {@link java.util.Map Map} objects containing the variables driving the query. Having multiple Map objects allows to more easily separate parameters, for example filter parameters could be in one Map and paging parameters in another Map.
+     * @return The values, in result order
+     */
+    @SafeVarargs
+    public final DoubleStream queryForDoubleStream(String namedQuery, Map<String, Object>... contexts) {
+        return createQuery(namedQuery, contexts).queryForDoubleStream();
+    }
+
     /**
      * Executes a query and returns an object. Note that in this case the object is expected to be
      * a primitive (possibly boxed) java type. Beans are not allowed.
@@ -146,7 +458,7 @@ public class QueryFactory {
 
     /**
      * Executes a query and returns a bean of the specified type.<br/>
-     * The columns are converted according to spring's {@link org.springframework.jdbc.core.BeanPropertyRowMapper BeanPropertyRowMapper} rules.<br/>
+     * The columns are converted by a {@link it.openly.core.data.support.BeanRowMapperFactory BeanRowMapperFactory} mapper, according to spring's BeanPropertyRowMapper rules. Records are supported as well.<br/>
      * It's important to remember that this framework is not meant to handle relationships, meaning that the bean is expected
      * to contain only primitive (eventually boxed) types.
      * @param namedQuery The named query name. The name is defined as a relative path from the classpath:/queries/[dbproduct] path, without the ./sql extension. For example: "hello/world" will try to load the classpath:/queries/[dbproduct]/hello/world.sql file.
@@ -171,6 +483,99 @@ public class QueryFactory {
         return createQuery(namedQuery, contexts).update();
     }
 
+    /**
+     * Executes an update query once for each of the specified rows, using JDBC batches of
+     * {@link #DEFAULT_BATCH_CHUNK_SIZE DEFAULT_BATCH_CHUNK_SIZE} rows.
+     * @param namedQuery The named query name. The name is defined as a relative path from the classpath:/queries/[dbproduct] path, without the ./sql extension. For example: "hello/world" will try to load the classpath:/queries/[dbproduct]/hello/world.sql file.
+     * @param rows The contexts driving each execution
+     * @return The number of affected rows, one array for each batch that was sent.
+     * @see #batchUpdateFromTemplate(String, Stream, int)
+     */
+    public final List<int[]> batchUpdate(String namedQuery, Collection<? extends Map<String, Object>> rows) {
+        return batchUpdate(namedQuery, rows.stream(), DEFAULT_BATCH_CHUNK_SIZE);
+    }
+
+    /**
+     * Executes an update query once for each of the specified rows, using JDBC batches.
+     * @param namedQuery The named query name. The name is defined as a relative path from the classpath:/queries/[dbproduct] path, without the ./sql extension. For example: "hello/world" will try to load the classpath:/queries/[dbproduct]/hello/world.sql file.
+     * @param rows The contexts driving each execution
+     * @param chunkSize The maximum number of rows sent in a single batch
+     * @return The number of affected rows, one array for each batch that was sent.
+     * @see #batchUpdateFromTemplate(String, Stream, int)
+     */
+    public final List<int[]> batchUpdate(String namedQuery, Stream<? extends Map<String, Object>> rows, int chunkSize) {
+        String sqlStatementTemplate = queryResourceLoader.loadQuery(dataSource, namedQuery);
+        return batchUpdateFromTemplate(sqlStatementTemplate, rows, chunkSize);
+    }
+
+    /**
+     * Executes an update query once for each of the specified rows, using JDBC batches.<br/>
+     * The template is processed for each row, and consecutive rows resulting in the same SQL are sent together: a batch
+     * is sent whenever the chunk size is reached or the SQL changes, so that the rows are executed in the order they
+     * were supplied in and each batch covers a contiguous run of them. The pragmas reported for each statement are
+     * applied as by {@link #createQueryFromTemplate(String, Map[]) createQueryFromTemplate}, so that for example the
+     * tables declared by the WRITES pragma are invalidated in the result cache. The rows are consumed as they come, so
+     * that a stream doesn't need to be held in memory as a whole.
+     * @param sqlStatementTemplate The query SQL.
+     * @param rows The contexts driving each execution
+     * @param chunkSize The maximum number of rows sent in a single batch
+     * @return The number of affected rows, one array for each batch that was sent, in execution order.
+     */
+    public final List<int[]> batchUpdateFromTemplate(String sqlStatementTemplate, Stream<? extends Map<String, Object>> rows, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("The chunk size must be positive.");
+        }
+        List<int[]> results = new ArrayList<>();
+        BatchGroup group = null;
+        Iterator<? extends Map<String, Object>> iterator = rows.iterator();
+        while (iterator.hasNext()) {
+            ProcessedTemplate processedTemplate = templateProcessor.processTemplate(sqlStatementTemplate, new LayeredContext(iterator.next()));
+            if (group == null || !group.sql.equals(processedTemplate.getSql())) {
+                if (group != null) {
+                    results.addAll(group.flush(chunkSize));
+                }
+                Query query = new Query(namedParameterJdbcTemplate, processedTemplate.getSql(), null, processedTemplate.getParsedSql());
+                group = new BatchGroup(processedTemplate.getSql(), configureQuery(query, processedTemplate.getPragmas()));
+            }
+            group.rows.add(processedTemplate.getContext());
+            if (group.rows.size() == chunkSize) {
+                results.addAll(group.flush(chunkSize));
+            }
+        }
+        if (group != null) {
+            results.addAll(group.flush(chunkSize));
+        }
+        return results;
+    }
+
+    /**
+     * Executes a query and returns a lazy stream of its rows. The stream holds a connection until it's closed: use it
+     * in a try-with-resources block.
+     * @param namedQuery The named query name. The name is defined as a relative path from the classpath:/queries/[dbproduct] path, without the ./sql extension. For example: "hello/world" will try to load the classpath:/queries/[dbproduct]/hello/world.sql file.
+     * @param contexts A variable number of {@link java.util.Map Map} objects containing the variables driving the query. Having multiple Map objects allows to more easily separate parameters, for example filter parameters could be in one Map and paging parameters in another Map.
+     * @return A stream of {@link java.util.Map Map<String, Object>} objects.
+     * @see Query#stream()
+     */
+    @SafeVarargs
+    public final Stream<Map<String, Object>> stream(String namedQuery, Map<String, Object>... contexts) {
+        return createQuery(namedQuery, contexts).stream();
+    }
+
+    /**
+     * Executes a query and returns a lazy stream of beans of the specified type. The stream holds a connection until
+     * it's closed: use it in a try-with-resources block.
+     * @param namedQuery The named query name. The name is defined as a relative path from the classpath:/queries/[dbproduct] path, without the ./sql extension. For example: "hello/world" will try to load the classpath:/queries/[dbproduct]/hello/world.sql file.
+     * @param clazz The bean's class.
+     * @param contexts A variable number of {@link java.util.Map Map} objects containing the variables driving the query. Having multiple Map objects allows to more easily separate parameters, for example filter parameters could be in one Map and paging parameters in another Map.
+     * @param <T> The type.
+     * @return A stream of beans.
+     * @see Query#stream(Class)
+     */
+    @SafeVarargs
+    public final <T> Stream<T> stream(String namedQuery, Class<T> clazz, Map<String, Object>... contexts) {
+        return createQuery(namedQuery, contexts).stream(clazz);
+    }
+
     /**
      * Executes a query and iterates through the ResultSet executing the specified callback for
      * each row. This is useful for large datasets to avoid keeping data in memory while it's
@@ -199,6 +604,119 @@ public class QueryFactory {
         createQuery(namedQuery, contexts).iterate(clazz, callback);
     }
 
+    /**
+     * Executes a query and writes its rows to a stream in the specified format, without keeping them in memory.
+     * @param namedQuery The named query name. The name is defined as a relative path from the classpath:/queries/[dbproduct] path, without the ./sql extension. For example: "hello/world" will try to load the classpath:/queries/[dbproduct]/hello/world.sql file.
+     * @param out The stream, flushed but not closed
+     * @param format The format
+     * @param contexts A variable number of {@link java.util.Map Map} objects containing the variables driving the query. Having multiple Map objects allows to more easily separate parameters, for example filter parameters could be in one Map and paging parameters in another Map.
+     * @return The number of rows written
+     * @see Query#exportTo(OutputStream, ExportFormat)
+     */
+    @SafeVarargs
+    public final long exportTo(String namedQuery, OutputStream out, ExportFormat format, Map<String, Object>... contexts) {
+        return createQuery(namedQuery, contexts).exportTo(out, format);
+    }
+
+    /**
+     * Executes one query for each partition, concurrently and each on its own connection, and iterates through their
+     * results executing the specified callback for each row. This is useful to scan large datasets faster than a
+     * single cursor allows.<br/>
+     * The partitions run on the calling thread and on the {@link DataSourceBulkhead DataSourceBulkhead} of the
+     * DataSource, no more than its limit of them at the same time. The callback is invoked concurrently by the threads
+     * of the partitions, and must therefore be thread-safe. The partitions run outside of any transaction active on the
+     * calling thread, and don't see its uncommitted changes. When a partition fails the ones that were not started yet
+     * are skipped, and the first failure is rethrown once the running ones completed.
+     * @param namedQuery The named query name. The name is defined as a relative path from the classpath:/queries/[dbproduct] path, without the ./sql extension. For example: "hello/world" will try to load the classpath:/queries/[dbproduct]/hello/world.sql file.
+     * @param partitioning How the query is split into partitions. See {@link Partitioning Partitioning} for the variables restricting the template to each partition.
+     * @param callback The callback
+     * @param contexts A variable number of {@link java.util.Map Map} objects containing the variables driving the query. Having multiple Map objects allows to more easily separate parameters, for example filter parameters could be in one Map and paging parameters in another Map.
+     */
+    @SafeVarargs
+    public final void iterate(String namedQuery, Partitioning partitioning, IRowHandlerCallback<Map<String, Object>> callback, Map<String, Object>... contexts) {
+        iterateByPartition(namedQuery, partitioning, partition -> callback, contexts);
+    }
+
+    /**
+     * Executes one query for each partition, concurrently and each on its own connection, and iterates through their
+     * results executing the specified callback for each row, converted to a bean.
+     * @param namedQuery The named query name. See {@link #iterate(String, Partitioning, IRowHandlerCallback, Map[])}.
+     * @param clazz The class of the beans for processing
+     * @param partitioning How the query is split into partitions
+     * @param callback The callback, invoked concurrently by the threads of the partitions
+     * @param contexts A variable number of {@link java.util.Map Map} objects containing the variables driving the query. Having multiple Map objects allows to more easily separate parameters, for example filter parameters could be in one Map and paging parameters in another Map.
+     * @param <T> The type.
+     */
+    @SafeVarargs
+    public final <T> void iterate(String namedQuery, Class<T> clazz, Partitioning partitioning, IRowHandlerCallback<T> callback, Map<String, Object>... contexts) {
+        iterateByPartition(namedQuery, clazz, partitioning, partition -> callback, contexts);
+    }
+
+    /**
+     * Executes one query for each partition, concurrently and each on its own connection, and iterates through their
+     * results executing the callback of the partition for each row. Each callback is only invoked by the thread of its
+     * partition, and doesn't need to be thread-safe unless it's shared.
+     * @param namedQuery The named query name. See {@link #iterate(String, Partitioning, IRowHandlerCallback, Map[])}.
+     * @param partitioning How the query is split into partitions
+     * @param callbacks Provides the callback of each partition, given its index. Invoked on the calling thread before the queries are executed.
+     * @param contexts A variable number of {@link java.util.Map Map} objects containing the variables driving the query. Having multiple Map objects allows to more easily separate parameters, for example filter parameters could be in one Map and paging parameters in another Map.
+     */
+    @SafeVarargs
+    public final void iterateByPartition(String namedQuery, Partitioning partitioning, IntFunction<IRowHandlerCallback<Map<String, Object>>> callbacks, Map<String, Object>... contexts) {
+        runPartitions(namedQuery, partitioning, contexts, partition -> {
+            IRowHandlerCallback<Map<String, Object>> callback = callbacks.apply(partition);
+            return query -> query.iterate(callback);
+        });
+    }
+
+    /**
+     * Executes one query for each partition, concurrently and each on its own connection, and iterates through their
+     * results executing the callback of the partition for each row, converted to a bean.
+     * @param namedQuery The named query name. See {@link #iterate(String, Partitioning, IRowHandlerCallback, Map[])}.
+     * @param clazz The class of the beans for processing
+     * @param partitioning How the query is split into partitions
+     * @param callbacks Provides the callback of each partition, given its index. Invoked on the calling thread before the queries are executed.
+     * @param contexts A variable number of {@link java.util.Map Map} objects containing the variables driving the query. Having multiple Map objects allows to more easily separate parameters, for example filter parameters could be in one Map and paging parameters in another Map.
+     * @param <T> The type.
+     */
+    @SafeVarargs
+    public final <T> void iterateByPartition(String namedQuery, Class<T> clazz, Partitioning partitioning, IntFunction<IRowHandlerCallback<T>> callbacks, Map<String, Object>... contexts) {
+        runPartitions(namedQuery, partitioning, contexts, partition -> {
+            IRowHandlerCallback<T> callback = callbacks.apply(partition);
+            return query -> query.iterate(clazz, callback);
+        });
+    }
+
+    /**
+     * Returns a lazy iterator over the pages of a query, using keyset pagination: each page is requested as the rows
+     * following the last row of the previous page, rather than through an offset. See
+     * {@link KeysetPageIterator KeysetPageIterator} for the variables the template receives.
+     * @param namedQuery The named query name. The name is defined as a relative path from the classpath:/queries/[dbproduct] path, without the ./sql extension. For example: "hello/world" will try to load the classpath:/queries/[dbproduct]/hello/world.sql file.
+     * @param keyColumns The columns the query is sorted by, uniquely identifying each row
+     * @param pageSize The number of rows of each page
+     * @param contexts A variable number of {@link java.util.Map Map} objects containing the variables driving the query. Having multiple Map objects allows to more easily separate parameters, for example filter parameters could be in one Map and paging parameters in another Map.
+     * @return An iterator of pages, each being a list of {@link java.util.Map Map<String, Object>} objects.
+     */
+    @SafeVarargs
+    public final KeysetPageIterator<Map<String, Object>> pages(String namedQuery, List<String> keyColumns, int pageSize, Map<String, Object>... contexts) {
+        return new KeysetPageIterator<>(page -> createQuery(namedQuery, withLayer(contexts, page)), Row::rowMapper, keyColumns, pageSize);
+    }
+
+    /**
+     * Returns a lazy iterator over the pages of a query, each converted to a list of beans, using keyset pagination.
+     * @param namedQuery The named query name. See {@link #pages(String, List, int, Map[])}.
+     * @param clazz The bean's class.
+     * @param keyColumns The columns the query is sorted by, uniquely identifying each row
+     * @param pageSize The number of rows of each page
+     * @param contexts A variable number of {@link java.util.Map Map} objects containing the variables driving the query. Having multiple Map objects allows to more easily separate parameters, for example filter parameters could be in one Map and paging parameters in another Map.
+     * @param <T> The type.
+     * @return An iterator of pages, each being a list of beans.
+     */
+    @SafeVarargs
+    public final <T> KeysetPageIterator<T> pages(String namedQuery, Class<T> clazz, List<String> keyColumns, int pageSize, Map<String, Object>... contexts) {
+        return new KeysetPageIterator<>(page -> createQuery(namedQuery, withLayer(contexts, page)), () -> BeanRowMapperFactory.getRowMapper(clazz), keyColumns, pageSize);
+    }
+
     /**
      * Executes a statement.
      * @param namedQuery The named query name. The name is defined as a relative path from the classpath:/queries/[dbproduct] path, without the ./sql extension. For example: "hello/world" will try to load the classpath:/queries/[dbproduct]/hello/world.sql file.
@@ -222,4 +740,56 @@ public class QueryFactory {
         createQuery(namedQuery, contexts).execute(preparedStatementCallback);
     }
 
+    @SneakyThrows
+    private void runPartitions(String namedQuery, @NonNull Partitioning partitioning, Map<String, Object>[] contexts, IntFunction<Consumer<Query>> tasks) {
+        int count = partitioning.getCount();
+        List<Query> queries = new ArrayList<>(count);
+        List<Consumer<Query>> partitionTasks = new ArrayList<>(count);
+        for (int partition = 0; partition < count; partition++) {
+            queries.add(createQuery(namedQuery, withLayer(contexts, partitioning.context(partition))));
+            partitionTasks.add(tasks.apply(partition));
+        }
+        TransactionTemplate outsideTransaction = TransactionSynchronizationManager.isActualTransactionActive()
+                ? new TransactionTemplate(transactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_NOT_SUPPORTED))
+                : null;
+        List<Runnable> runnables = new ArrayList<>(count);
+        for (int partition = 0; partition < count; partition++) {
+            Query query = queries.get(partition);
+            Consumer<Query> task = partitionTasks.get(partition);
+            runnables.add(outsideTransaction == null
+                    ? () -> task.accept(query)
+                    : () -> outsideTransaction.executeWithoutResult(status -> task.accept(query)));
+        }
+        try {
+            DataSourceBulkhead.of(dataSource).runAll(runnables);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    private static Map<String, Object>[] withLayer(Map<String, Object>[] contexts, Map<String, Object> layer) {
+        Map<String, Object>[] layered = Arrays.copyOf(contexts, contexts.length + 1);
+        layered[contexts.length] = layer;
+        return layered;
+    }
+
+    private static final class BatchGroup {
+        private final String sql;
+        private final Query query;
+        private final List<Map<String, Object>> rows = new ArrayList<>();
+
+        private BatchGroup(String sql, Query query) {
+            this.sql = sql;
+            this.query = query;
+        }
+
+        private List<int[]> flush(int chunkSize) {
+            List<int[]> results = rows.isEmpty() ? List.of() : query.batchUpdate(rows, chunkSize);
+            rows.clear();
+            return results;
+        }
+    }
+
 }
@@ -0,0 +1,236 @@
+package it.openly.core.data;
+
+import it.openly.core.data.support.BeanRowMapperFactory;
+import it.openly.core.data.support.DataSourceBulkhead;
+import it.openly.core.data.support.Row;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.core.*;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A group of queries executed together, obtained through {@link QueryFactory#createGroup()}. Typical use is loading
+ * the data of a screen, made of several small independent queries:<br/>
+ * <br/>
+ * <code>
+ * QueryGroup group = queryFactory.createGroup();<br/>
+ * QueryGroup.Result&lt;List&lt;Customer&gt;&gt; customers = group.queryForBeans("customers/page", Customer.class, filters);<br/>
+ * QueryGroup.Result&lt;Long&gt; total = group.queryForObject("customers/count", Long.class, filters);<br/>
+ * group.execute();<br/>
+ * </code>
+ * <br/>
+ * When the database supports it (see {@link it.openly.core.data.support.DbProfile#isMultiStatementSupported()}), the
+ * queries are sent as a single multi-statement round trip, reading their results one after the other. Otherwise they
+ * run concurrently on the calling thread and on the {@link DataSourceBulkhead DataSourceBulkhead} of the DataSource
+ * (see {@link DataSourceBulkhead#runAll(List)}) or, when a transaction is active on the calling thread, one after the
+ * other within the transaction.<br/>
+ * Query settings such as the fetch size only apply when the queries are not combined.
+ *
+ * @author filippo.possenti
+ */
+@Slf4j
+public final class QueryGroup {
+    private final QueryFactory queryFactory;
+    private final JdbcOperations jdbcOperations;
+    private final BooleanSupplier multiStatementSupported;
+    private final DataSourceBulkhead bulkhead;
+    private final List<Result<?>> results = new ArrayList<>();
+    private boolean executed;
+
+    QueryGroup(QueryFactory queryFactory, JdbcOperations jdbcOperations, BooleanSupplier multiStatementSupported, DataSourceBulkhead bulkhead) {
+        this.queryFactory = queryFactory;
+        this.jdbcOperations = jdbcOperations;
+        this.multiStatementSupported = multiStatementSupported;
+        this.bulkhead = bulkhead;
+    }
+
+    /**
+     * Adds a query returning a list of {@link java.util.Map Map<String, Object>}.
+     * @see QueryFactory#queryForList(String, Map[])
+     */
+    @SafeVarargs
+    public final Result<List<Map<String, Object>>> queryForList(String namedQuery, Map<String, Object>... contexts) {
+        return add(namedQuery, contexts, new RowMapperResultSetExtractor<>(Row.rowMapper()), Query::queryForList);
+    }
+
+    /**
+     * Adds a query returning a list of beans.
+     * @see QueryFactory#queryForBeans(String, Class, Map[])
+     */
+    @SafeVarargs
+    public final <T> Result<List<T>> queryForBeans(String namedQuery, Class<T> clazz, Map<String, Object>... contexts) {
+        return add(namedQuery, contexts, new RowMapperResultSetExtractor<>(BeanRowMapperFactory.getRowMapper(clazz)), query -> query.queryForBeans(clazz));
+    }
+
+    /**
+     * Adds a query returning a single value.
+     * @see QueryFactory#queryForObject(String, Class, Map[])
+     */
+    @SafeVarargs
+    public final <T> Result<T> queryForObject(String namedQuery, Class<T> clazz, Map<String, Object>... contexts) {
+        return add(namedQuery, contexts, single(new SingleColumnRowMapper<>(clazz)), query -> query.queryForObject(clazz));
+    }
+
+    /**
+     * Adds a query returning a single row as a {@link java.util.Map Map<String, Object>}.
+     * @see QueryFactory#queryForMap(String, Map[])
+     */
+    @SafeVarargs
+    public final Result<Map<String, Object>> queryForMap(String namedQuery, Map<String, Object>... contexts) {
+        return add(namedQuery, contexts, single(new ColumnMapRowMapper()), Query::queryForMap);
+    }
+
+    /**
+     * Adds a query returning a single bean.
+     * @see QueryFactory#queryForBean(String, Class, Map[])
+     */
+    @SafeVarargs
+    public final <T> Result<T> queryForBean(String namedQuery, Class<T> clazz, Map<String, Object>... contexts) {
+        return add(namedQuery, contexts, single(BeanRowMapperFactory.getRowMapper(clazz)), query -> query.queryForBean(clazz));
+    }
+
+    /**
+     * Executes all the queries of the group, making their results available. A group can only be executed once.
+     */
+    public void execute() {
+        if (executed) {
+            throw new IllegalStateException("The query group was already executed.");
+        }
+        executed = true;
+        if (results.size() > 1 && multiStatementSupported.getAsBoolean()) {
+            executeCombined();
+        }
+        else if (results.size() > 1 && !TransactionSynchronizationManager.isActualTransactionActive()) {
+            executeConcurrently();
+        }
+        else {
+            results.forEach(Result::executeAlone);
+        }
+    }
+
+    private <T> Result<T> add(String namedQuery, Map<String, Object>[] contexts, ResultSetExtractor<T> extractor, Function<Query, T> standalone) {
+        if (executed) {
+            throw new IllegalStateException("The query group was already executed.");
+        }
+        Result<T> result = new Result<>(namedQuery, queryFactory.createQuery(namedQuery, contexts), extractor, standalone);
+        results.add(result);
+        return result;
+    }
+
+    private void executeCombined() {
+        StringBuilder sql = new StringBuilder();
+        List<SqlParameter> declaredParameters = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        for (Result<?> result : results) {
+            Query.BoundStatement bound = result.query.bind();
+            if (sql.length() > 0) {
+                sql.append(";\n");
+            }
+            sql.append(stripTerminator(bound.sql()));
+            declaredParameters.addAll(bound.declaredParameters());
+            Collections.addAll(values, bound.values());
+        }
+        log.debug("Executing {} queries in a single round trip.", results.size());
+        PreparedStatementCreator creator = new PreparedStatementCreatorFactory(sql.toString(), declaredParameters).newPreparedStatementCreator(values);
+        jdbcOperations.execute(creator, (PreparedStatement ps) -> {
+            boolean hasResultSet = ps.execute();
+            for (Result<?> result : results) {
+                while (!hasResultSet) {
+                    if (ps.getUpdateCount() == -1) {
+                        throw new InvalidDataAccessApiUsageException("No result was returned for query '" + result.namedQuery + "'.");
+                    }
+                    hasResultSet = ps.getMoreResults();
+                }
+                try (ResultSet rs = ps.getResultSet()) {
+                    result.extract(rs);
+                }
+                hasResultSet = ps.getMoreResults();
+            }
+            return null;
+        });
+    }
+
+    @SneakyThrows
+    private void executeConcurrently() {
+        try {
+            bulkhead.runAll(results.stream().<Runnable>map(result -> result::executeAlone).toList());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    private static String stripTerminator(String sql) {
+        int end = sql.length();
+        while (end > 0 && (Character.isWhitespace(sql.charAt(end - 1)) || sql.charAt(end - 1) == ';')) {
+            end--;
+        }
+        return sql.substring(0, end);
+    }
+
+    private static <T> ResultSetExtractor<T> single(RowMapper<T> rowMapper) {
+        RowMapperResultSetExtractor<T> extractor = new RowMapperResultSetExtractor<>(rowMapper);
+        return rs -> DataAccessUtils.nullableSingleResult(extractor.extractData(rs));
+    }
+
+    /**
+     * The result of one of the queries of a group, available once the group was executed.
+     * @param <T> The type of the result
+     */
+    public static final class Result<T> implements Supplier<T> {
+        private final String namedQuery;
+        private final Query query;
+        private final ResultSetExtractor<T> extractor;
+        private final Function<Query, T> standalone;
+        private volatile boolean available;
+        private volatile T value;
+
+        private Result(String namedQuery, Query query, ResultSetExtractor<T> extractor, Function<Query, T> standalone) {
+            this.namedQuery = namedQuery;
+            this.query = query;
+            this.extractor = extractor;
+            this.standalone = standalone;
+        }
+
+        /**
+         * Returns the result of the query.
+         * @return The result
+         * @throws IllegalStateException If the group wasn't executed yet
+         */
+        @Override
+        public T get() {
+            if (!available) {
+                throw new IllegalStateException("The query group of '" + namedQuery + "' was not executed yet.");
+            }
+            return value;
+        }
+
+        private void extract(@NonNull ResultSet rs) throws SQLException {
+            complete(extractor.extractData(rs));
+        }
+
+        private void executeAlone() {
+            complete(standalone.apply(query));
+        }
+
+        private void complete(T value) {
+            this.value = value;
+            this.available = true;
+        }
+    }
+}
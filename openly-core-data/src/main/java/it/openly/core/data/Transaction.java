@@ -3,28 +3,78 @@ package it.openly.core.data;
 import it.openly.core.exceptions.RollbackOnlyException;
 import lombok.NonNull;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
 
 import javax.sql.DataSource;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * Convenience class to manually manage transactions.<br/>
+ * Transactions are meant to be used in try-with-resources blocks: a transaction that was neither committed nor rolled
+ * back when it's closed is rolled back.<br/>
+ * <br/>
+ * <code>
+ * try (Transaction transaction = queryFactory.getTransaction()) {<br/>
+ * &nbsp;&nbsp;&nbsp;&nbsp;queryFactory.update("orders/insert", order);<br/>
+ * &nbsp;&nbsp;&nbsp;&nbsp;transaction.commit();<br/>
+ * }<br/>
+ * </code>
+ * <br/>
  * Note that transactions dealt with this class may cause problems if transactionality is already
  * being managed by Spring's own facilities.
  *
  * @author filippo.possenti
  */
-public class Transaction {
+public class Transaction implements AutoCloseable {
+	private static final Map<DataSource, Reference<DataSourceTransactionManager>> TRANSACTION_MANAGERS = Collections.synchronizedMap(new WeakHashMap<>());
 
 	private final TransactionStatus txStatus;
-	private final DataSourceTransactionManager transactionManager;
+	private final PlatformTransactionManager transactionManager;
 	private boolean rollbackOnly = false;
 
+	/**
+	 * Begins a transaction on a DataSource, through its {@link #transactionManager(DataSource) shared} transaction
+	 * manager.
+	 * @param dataSource The DataSource
+	 */
 	public Transaction(@NonNull DataSource dataSource) {
-		transactionManager = new DataSourceTransactionManager(dataSource);
-		DefaultTransactionDefinition transactionDefinition = new DefaultTransactionDefinition();
-		txStatus = transactionManager.getTransaction(transactionDefinition);
+		this(transactionManager(dataSource), new DefaultTransactionDefinition());
+	}
+
+	/**
+	 * Begins a transaction through an existing transaction manager.
+	 * @param transactionManager The transaction manager
+	 * @param transactionDefinition The settings of the transaction, such as its isolation level, whether it's
+	 *                              read-only and its timeout. See {@link TransactionSettings TransactionSettings}.
+	 */
+	public Transaction(@NonNull PlatformTransactionManager transactionManager, @NonNull TransactionDefinition transactionDefinition) {
+		this.transactionManager = transactionManager;
+		this.txStatus = transactionManager.getTransaction(transactionDefinition);
+	}
+
+	/**
+	 * Returns the transaction manager of a DataSource, creating it if needed. As the transaction manager references its
+	 * DataSource, it's only weakly referenced, so that neither outlives its users.
+	 * @param dataSource The DataSource
+	 * @return The transaction manager
+	 */
+	static DataSourceTransactionManager transactionManager(@NonNull DataSource dataSource) {
+		synchronized (TRANSACTION_MANAGERS) {
+			Reference<DataSourceTransactionManager> reference = TRANSACTION_MANAGERS.get(dataSource);
+			DataSourceTransactionManager transactionManager = reference != null ? reference.get() : null;
+			if (transactionManager == null) {
+				transactionManager = new DataSourceTransactionManager(dataSource);
+				TRANSACTION_MANAGERS.put(dataSource, new WeakReference<>(transactionManager));
+			}
+			return transactionManager;
+		}
 	}
 
 	/**
@@ -54,4 +104,22 @@ public class Transaction {
 		rollbackOnly = true;
 	}
 
+	/**
+	 * Tells whether the transaction was already committed or rolled back.
+	 * @return True if the transaction is completed
+	 */
+	public boolean isCompleted() {
+		return txStatus.isCompleted();
+	}
+
+	/**
+	 * Rolls back the transaction, unless it was already committed or rolled back.
+	 */
+	@Override
+	public void close() {
+		if (!txStatus.isCompleted()) {
+			rollback();
+		}
+	}
+
 }
@@ -0,0 +1,92 @@
+package it.openly.core.data;
+
+import org.springframework.transaction.TransactionDefinition;
+
+/**
+ * Immutable settings of a transaction, built fluently from the {@link #defaults() defaults}:<br/>
+ * <br/>
+ * <code>
+ * TransactionSettings.defaults().readOnly().isolation(TransactionDefinition.ISOLATION_REPEATABLE_READ).timeout(5)
+ * </code>
+ * <br/>
+ * <br/>
+ * The isolation level and the read-only flag are applied to the JDBC connection of the transaction, the latter
+ * through {@link java.sql.Connection#setReadOnly(boolean) Connection.setReadOnly}, allowing drivers and databases to
+ * optimize read-only work. The timeout in seconds bounds the statements executed within the transaction.
+ *
+ * @author filippo.possenti
+ */
+public final class TransactionSettings implements TransactionDefinition {
+    private static final TransactionSettings DEFAULTS = new TransactionSettings(ISOLATION_DEFAULT, false, TIMEOUT_DEFAULT);
+
+    private final int isolationLevel;
+    private final boolean readOnly;
+    private final int timeout;
+
+    private TransactionSettings(int isolationLevel, boolean readOnly, int timeout) {
+        this.isolationLevel = isolationLevel;
+        this.readOnly = readOnly;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the default settings: the default isolation level of the database, read-write and no timeout.
+     * @return The default settings
+     */
+    public static TransactionSettings defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Returns these settings with the specified isolation level.
+     * @param isolationLevel One of the ISOLATION_ constants of {@link TransactionDefinition TransactionDefinition}, which match the ones of {@link java.sql.Connection Connection}
+     * @return The new settings
+     */
+    public TransactionSettings isolation(int isolationLevel) {
+        if (isolationLevel != ISOLATION_DEFAULT && isolationLevel != ISOLATION_READ_UNCOMMITTED && isolationLevel != ISOLATION_READ_COMMITTED
+                && isolationLevel != ISOLATION_REPEATABLE_READ && isolationLevel != ISOLATION_SERIALIZABLE) {
+            throw new IllegalArgumentException("Unknown isolation level " + isolationLevel + ".");
+        }
+        return new TransactionSettings(isolationLevel, readOnly, timeout);
+    }
+
+    /**
+     * Returns these settings for a read-only transaction.
+     * @return The new settings
+     */
+    public TransactionSettings readOnly() {
+        return new TransactionSettings(isolationLevel, true, timeout);
+    }
+
+    /**
+     * Returns these settings with the specified timeout.
+     * @param timeout The timeout in seconds, or {@link #TIMEOUT_DEFAULT TIMEOUT_DEFAULT} for no timeout
+     * @return The new settings
+     */
+    public TransactionSettings timeout(int timeout) {
+        if (timeout < TIMEOUT_DEFAULT) {
+            throw new IllegalArgumentException("Invalid timeout " + timeout + ".");
+        }
+        return new TransactionSettings(isolationLevel, readOnly, timeout);
+    }
+
+    @Override
+    public int getIsolationLevel() {
+        return isolationLevel;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    @Override
+    public int getTimeout() {
+        return timeout;
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionSettings(isolationLevel=" + isolationLevel + ", readOnly=" + readOnly + ", timeout=" + timeout + ")";
+    }
+}
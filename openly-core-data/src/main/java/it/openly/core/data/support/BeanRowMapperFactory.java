@@ -0,0 +1,278 @@
+package it.openly.core.data.support;
+
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import org.springframework.beans.BeanUtils;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StringUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.*;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.RecordComponent;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Creates {@link RowMapper RowMappers} converting rows into beans, as a faster alternative to spring's
+ * {@link org.springframework.jdbc.core.BeanPropertyRowMapper BeanPropertyRowMapper}.<br/>
+ * Each class is introspected only once, its setters being turned into direct invocations through
+ * {@link LambdaMetafactory LambdaMetafactory}. The binding between the columns of a result and the properties of the
+ * class is then computed once for each column layout and reused for every row and every following query with the
+ * same layout.<br/>
+ * Columns are matched to properties with the same rules of BeanPropertyRowMapper: "FIRST_NAME", "first_name" and
+ * "firstname" all match the "firstName" property, while unmatched columns are ignored. Values are converted through
+ * the shared {@link DefaultConversionService DefaultConversionService} when the column type doesn't match the property
+ * type, and null values leave primitive properties to their default.<br/>
+ * Besides classes having a no-arguments constructor and setters, records and classes having a single constructor with
+ * discoverable parameter names (see {@link BeanUtils#getParameterNames(Constructor) BeanUtils.getParameterNames}) are
+ * supported, their constructor arguments being matched to the columns by name.
+ *
+ * @author filippo.possenti
+ */
+public final class BeanRowMapperFactory {
+    private static final int MAX_LAYOUTS_PER_CLASS = 64;
+    private static final ConversionService CONVERSION_SERVICE = DefaultConversionService.getSharedInstance();
+    private static final ClassValue<BeanType<?>> BEAN_TYPES = new ClassValue<>() {
+        @Override
+        protected BeanType<?> computeValue(Class<?> type) {
+            return new BeanType<>(type);
+        }
+    };
+
+    private BeanRowMapperFactory() {
+    }
+
+    /**
+     * Returns a RowMapper converting rows into beans of the specified class. The RowMapper binds itself to the column
+     * layout of the first row it maps, and is therefore meant to be used for a single result.
+     * @param clazz The bean's class
+     * @param <T> The type
+     * @return The RowMapper
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> RowMapper<T> getRowMapper(@NonNull Class<T> clazz) {
+        return new GeneratedRowMapper<>((BeanType<T>) BEAN_TYPES.get(clazz));
+    }
+
+    private static final class GeneratedRowMapper<T> implements RowMapper<T> {
+        private final BeanType<T> beanType;
+        private Binding<T> binding;
+
+        private GeneratedRowMapper(BeanType<T> beanType) {
+            this.beanType = beanType;
+        }
+
+        @Override
+        public T mapRow(ResultSet rs, int rowNum) throws SQLException {
+            if (binding == null) {
+                binding = beanType.bindingFor(rs.getMetaData());
+            }
+            return binding.map(rs);
+        }
+    }
+
+    /**
+     * The result of introspecting a class: how to instantiate it and how to set each of its properties.
+     */
+    private static final class BeanType<T> {
+        private final Class<T> type;
+        private final MethodHandle constructor;
+        private final String[] parameterNames;
+        private final Class<?>[] parameterTypes;
+        private final Map<String, Property> properties = new HashMap<>();
+        private final BoundedCache<String, Binding<T>> bindings = new BoundedCache<>(MAX_LAYOUTS_PER_CLASS);
+
+        @SneakyThrows
+        private BeanType(Class<T> type) {
+            this.type = type;
+            MethodHandles.Lookup lookup = lookupFor(type);
+            Constructor<?> ctor;
+            if (type.isRecord()) {
+                RecordComponent[] components = type.getRecordComponents();
+                parameterNames = Arrays.stream(components).map(RecordComponent::getName).toArray(String[]::new);
+                parameterTypes = Arrays.stream(components).map(RecordComponent::getType).toArray(Class<?>[]::new);
+                ctor = type.getDeclaredConstructor(parameterTypes);
+            }
+            else {
+                ctor = BeanUtils.getResolvableConstructor(type);
+                parameterNames = ctor.getParameterCount() == 0 ? new String[0] : BeanUtils.getParameterNames(ctor);
+                parameterTypes = ctor.getParameterTypes();
+            }
+            ctor.trySetAccessible();
+            this.constructor = lookup.unreflectConstructor(ctor)
+                    .asSpreader(Object[].class, parameterTypes.length)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+            Set<String> constructorKeys = new HashSet<>();
+            for (String parameterName : parameterNames) {
+                constructorKeys.add(lowerCaseName(parameterName));
+                constructorKeys.add(underscoreName(parameterName));
+            }
+            for (PropertyDescriptor pd : BeanUtils.getPropertyDescriptors(type)) {
+                Method writeMethod = pd.getWriteMethod();
+                if (writeMethod != null && !constructorKeys.contains(lowerCaseName(pd.getName()))) {
+                    Property property = new Property(pd.getPropertyType(), setter(lookup, writeMethod, pd.getPropertyType()));
+                    properties.put(lowerCaseName(pd.getName()), property);
+                    properties.put(underscoreName(pd.getName()), property);
+                }
+            }
+        }
+
+        private Binding<T> bindingFor(ResultSetMetaData metaData) throws SQLException {
+            int columnCount = metaData.getColumnCount();
+            String[] columns = new String[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                columns[i] = lowerCaseName(StringUtils.delete(JdbcUtils.lookupColumnName(metaData, i + 1), " "));
+            }
+            return bindings.computeIfAbsent(String.join("\0", columns), layout -> bind(columns));
+        }
+
+        private Binding<T> bind(String[] columns) {
+            int[] parameterColumns = new int[parameterNames.length];
+            for (int i = 0; i < parameterNames.length; i++) {
+                parameterColumns[i] = indexOf(columns, lowerCaseName(parameterNames[i]), underscoreName(parameterNames[i]));
+            }
+            List<Integer> propertyColumns = new ArrayList<>();
+            List<Property> boundProperties = new ArrayList<>();
+            for (int i = 0; i < columns.length; i++) {
+                Property property = properties.get(columns[i]);
+                if (property != null) {
+                    propertyColumns.add(i + 1);
+                    boundProperties.add(property);
+                }
+            }
+            return new Binding<>(this, parameterColumns, propertyColumns.stream().mapToInt(Integer::intValue).toArray(), boundProperties.toArray(new Property[0]));
+        }
+
+        private static int indexOf(String[] columns, String... names) {
+            for (int i = 0; i < columns.length; i++) {
+                for (String name : names) {
+                    if (columns[i].equals(name)) {
+                        return i + 1;
+                    }
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * The binding of a column layout to the constructor parameters and the properties of a class.
+     */
+    private static final class Binding<T> {
+        private final BeanType<T> beanType;
+        private final int[] parameterColumns;
+        private final Object[] parameterDefaults;
+        private final int[] propertyColumns;
+        private final Property[] properties;
+
+        private Binding(BeanType<T> beanType, int[] parameterColumns, int[] propertyColumns, Property[] properties) {
+            this.beanType = beanType;
+            this.parameterColumns = parameterColumns;
+            this.propertyColumns = propertyColumns;
+            this.properties = properties;
+            this.parameterDefaults = new Object[parameterColumns.length];
+            for (int i = 0; i < parameterColumns.length; i++) {
+                Class<?> parameterType = beanType.parameterTypes[i];
+                parameterDefaults[i] = parameterType.isPrimitive() ? Array.get(Array.newInstance(parameterType, 1), 0) : null;
+            }
+        }
+
+        @SneakyThrows
+        private T map(ResultSet rs) {
+            Object[] arguments = new Object[parameterColumns.length];
+            for (int i = 0; i < parameterColumns.length; i++) {
+                Object value = parameterColumns[i] > 0 ? value(rs, parameterColumns[i], beanType.parameterTypes[i]) : null;
+                arguments[i] = value != null ? value : parameterDefaults[i];
+            }
+            Object bean = beanType.constructor.invokeExact(arguments);
+            for (int i = 0; i < propertyColumns.length; i++) {
+                Property property = properties[i];
+                Object value = value(rs, propertyColumns[i], property.type);
+                if (value != null || !property.type.isPrimitive()) {
+                    property.setter.accept(bean, value);
+                }
+            }
+            return beanType.type.cast(bean);
+        }
+
+        private static Object value(ResultSet rs, int column, Class<?> type) throws SQLException {
+            Object value = JdbcUtils.getResultSetValue(rs, column, type);
+            if (value != null && !ClassUtils.isAssignableValue(type, value)) {
+                value = CONVERSION_SERVICE.convert(value, type);
+            }
+            return value;
+        }
+    }
+
+    private record Property(Class<?> type, BiConsumer<Object, Object> setter) {
+    }
+
+    private static MethodHandles.Lookup lookupFor(Class<?> type) {
+        try {
+            return MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+        }
+        catch (IllegalAccessException | SecurityException e) {
+            return MethodHandles.publicLookup();
+        }
+    }
+
+    /**
+     * Turns a setter into a {@link BiConsumer BiConsumer} generated by {@link LambdaMetafactory LambdaMetafactory},
+     * falling back to a plain {@link MethodHandle MethodHandle} invocation when the lookup doesn't allow that.
+     */
+    @SneakyThrows
+    @SuppressWarnings("unchecked")
+    private static BiConsumer<Object, Object> setter(MethodHandles.Lookup lookup, Method method, Class<?> propertyType) {
+        method.trySetAccessible();
+        MethodHandle handle = lookup.unreflect(method);
+        try {
+            CallSite callSite = LambdaMetafactory.metafactory(lookup, "accept",
+                    MethodType.methodType(BiConsumer.class),
+                    MethodType.methodType(void.class, Object.class, Object.class),
+                    handle,
+                    MethodType.methodType(void.class, method.getDeclaringClass(), ClassUtils.resolvePrimitiveIfNecessary(propertyType)));
+            return (BiConsumer<Object, Object>) callSite.getTarget().invoke();
+        }
+        catch (LambdaConversionException | IllegalAccessError e) {
+            MethodHandle generic = handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+            return (bean, value) -> invoke(generic, bean, value);
+        }
+    }
+
+    @SneakyThrows
+    private static void invoke(MethodHandle setter, Object bean, Object value) {
+        setter.invokeExact(bean, value);
+    }
+
+    private static String lowerCaseName(String name) {
+        return name.toLowerCase(Locale.US);
+    }
+
+    private static String underscoreName(String name) {
+        if (!StringUtils.hasLength(name)) {
+            return "";
+        }
+        StringBuilder result = new StringBuilder();
+        result.append(Character.toLowerCase(name.charAt(0)));
+        for (int i = 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c)) {
+                result.append('_').append(Character.toLowerCase(c));
+            }
+            else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,55 @@
+package it.openly.core.data.support;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A thread-safe cache holding up to a maximum number of entries.<br/>
+ * Lookups are lock-free. When the limit is exceeded, arbitrary entries are evicted: this is meant for caching derived
+ * data whose working set is expected to fit, the limit acting as a safety net against unbounded growth.
+ *
+ * @author filippo.possenti
+ */
+class BoundedCache<K, V> {
+    private final Map<K, V> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+
+    BoundedCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("The maximum number of entries must be positive.");
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    V get(K key) {
+        return entries.get(key);
+    }
+
+    void put(K key, V value) {
+        entries.put(key, value);
+        evictIfNeeded();
+    }
+
+    V computeIfAbsent(K key, Function<? super K, ? extends V> loader) {
+        V value = entries.get(key);
+        if (value == null) {
+            value = entries.computeIfAbsent(key, loader);
+            evictIfNeeded();
+        }
+        return value;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void evictIfNeeded() {
+        Iterator<K> keys = entries.keySet().iterator();
+        while (entries.size() > maxEntries && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+}
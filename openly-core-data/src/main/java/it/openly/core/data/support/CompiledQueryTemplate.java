@@ -0,0 +1,487 @@
+package it.openly.core.data.support;
+
+import it.openly.core.data.Query;
+import lombok.Getter;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
+
+import java.util.*;
+
+/**
+ * The compiled form of a template meant for the {@link SimpleQueryTemplateProcessor SimpleQueryTemplateProcessor}.<br/>
+ * The template text is parsed only once into a sequence of lines, each one made of plain text segments and directives
+ * (conditional blocks, negations, value matches, injections and named parameters). Rendering is then a single linear
+ * pass over such plan, writing into one {@link StringBuilder StringBuilder}.<br/>
+ * As the resulting text only depends on the shape of the context (which keys are present, which values are null,
+ * which values match a literal, the sizes of the arrays and the injected values), rendered texts are cached by such
+ * shape: repeated requests with the same shape skip text processing entirely and share the same SQL string, along with
+ * its named parameters already parsed by {@link NamedParameterUtils NamedParameterUtils}.
+ *
+ * @author filippo.possenti
+ */
+final class CompiledQueryTemplate {
+    private static final String COMMENT_START = "-- ";
+    private static final String COMMENT_END = " --";
+    private static final String NEGATIVE_PREFIX = "!";
+    private static final String INJECT_PREFIX = "=";
+    private static final String NULL_SUFFIX = " is null";
+    private static final String PRAGMA_PREFIX = "PRAGMA:";
+    private static final char NAMED_PARAMETER_START = ':';
+    private static final String PARAMETER_SEPARATORS = "\"':&,;()|=+-*%/\\<>^]";
+
+    static final String PRAGMA_ENABLE_INJECT = "ENABLE_INJECT";
+    static final String PRAGMA_IN_LIST_PADDING = "IN_LIST_PADDING";
+    private static final List<String> QUERY_SETTING_PRAGMAS = List.of(Query.PRAGMA_FETCH_SIZE, Query.PRAGMA_MAX_ROWS, Query.PRAGMA_QUERY_TIMEOUT);
+
+    private static final int NO_PADDING = -1;
+
+    private static final int MAX_REPLACEMENTS = 10;
+
+    private final Segment[][] lines;
+    private final boolean removeEmptyLines;
+    private final BoundedCache<String, RenderedQuery> renderedShapes;
+
+    @Getter
+    private final Map<String, String> pragmas;
+
+    /**
+     * The problems found while parsing the template, such as blocks that are not terminated.
+     */
+    @Getter
+    private final List<String> problems;
+
+    private CompiledQueryTemplate(Segment[][] lines, Map<String, String> pragmas, List<String> problems, boolean removeEmptyLines, int maxShapes) {
+        this.lines = lines;
+        this.pragmas = pragmas;
+        this.problems = problems;
+        this.removeEmptyLines = removeEmptyLines;
+        this.renderedShapes = new BoundedCache<>(maxShapes);
+    }
+
+    /**
+     * Parses a template into its compiled form.
+     * @param templateText The template text
+     * @param removeEmptyLines Whether lines that end up being blank are to be omitted when rendering.
+     * @param maxShapes The maximum number of rendered texts kept for the different shapes of the context.
+     * @return The compiled template
+     */
+    static CompiledQueryTemplate compile(String templateText, boolean removeEmptyLines, int maxShapes) {
+        Compiler compiler = new Compiler(templateText.split("\n"));
+        Segment[][] lines = compiler.compile();
+        return new CompiledQueryTemplate(lines, Collections.unmodifiableMap(compiler.pragmas), List.copyOf(compiler.problems), removeEmptyLines, maxShapes);
+    }
+
+    /**
+     * The outcome of rendering a template: the SQL text and its parsed named parameters.
+     */
+    record RenderedQuery(String sql, ParsedSql parsedSql) {
+    }
+
+    /**
+     * Renders the template against the given context.
+     * @param context The variables driving the rendering. Keys generated by array expansion are added to it.
+     * @return The resulting text, along with its parsed named parameters
+     */
+    RenderedQuery render(Map<String, Object> context) {
+        RenderState state = new RenderState(context);
+        String shape = computeShape(state);
+        RenderedQuery rendered = renderedShapes.get(shape);
+        if (rendered == null) {
+            String sql = renderText(state);
+            rendered = new RenderedQuery(sql, NamedParameterUtils.parseSqlStatement(sql));
+            renderedShapes.put(shape, rendered);
+        }
+        return rendered;
+    }
+
+    /**
+     * Number of distinct shapes currently cached for this template.
+     */
+    int cachedShapes() {
+        return renderedShapes.size();
+    }
+
+    private String computeShape(RenderState state) {
+        StringBuilder shape = new StringBuilder(64);
+        for (Segment[] line : lines) {
+            state.remainingInjections = MAX_REPLACEMENTS;
+            state.injectionBlocked = false;
+            for (Segment segment : line) {
+                segment.probe(state, shape);
+            }
+        }
+        return shape.toString();
+    }
+
+    private String renderText(RenderState state) {
+        StringBuilder sb = new StringBuilder(256);
+        boolean firstLine = true;
+        for (Segment[] line : lines) {
+            int lineStart = sb.length();
+            if (!firstLine) {
+                sb.append(removeEmptyLines ? System.lineSeparator() : "\n");
+            }
+            int contentStart = sb.length();
+            state.remainingInjections = MAX_REPLACEMENTS;
+            state.injectionBlocked = false;
+            state.sb = sb;
+            for (Segment segment : line) {
+                segment.render(state);
+            }
+            if (removeEmptyLines) {
+                if (isBlank(sb, contentStart)) {
+                    sb.setLength(lineStart);
+                    continue;
+                }
+                if (sb.charAt(sb.length() - 1) == '\r') {
+                    sb.setLength(sb.length() - 1);
+                }
+            }
+            firstLine = false;
+        }
+        return sb.toString();
+    }
+
+    private static boolean isBlank(StringBuilder sb, int from) {
+        for (int i = from; i < sb.length(); i++) {
+            if (sb.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rounds the size of an expanded array up to the next power of two, when it exceeds the padding threshold.
+     */
+    static int paddedSize(int size, int inListPadding) {
+        if (inListPadding < 0 || size <= inListPadding || size <= 1) {
+            return size;
+        }
+        int padded = Integer.highestOneBit(size);
+        return padded == size ? size : padded << 1;
+    }
+
+    private static boolean isParameterSeparator(char c) {
+        return Character.isWhitespace(c) || PARAMETER_SEPARATORS.indexOf(c) >= 0;
+    }
+
+    private static List<?> getArrayExpansionSourceCollection(Object value) {
+        if (value instanceof Object[] array) {
+            return Arrays.asList(array);
+        }
+        else if (value instanceof List<?> list) {
+            return list;
+        }
+        else if (value instanceof Collection<?> collection) {
+            return new ArrayList<>(collection);
+        }
+        return null;
+    }
+
+    /**
+     * Collects the pragmas declared within a text, such as -- PRAGMA:FETCH_SIZE=100 --. Pragmas without a value are
+     * collected with an empty value.
+     * @param text The text
+     * @param pragmas The Map receiving the pragmas
+     * @return The pragmas Map
+     */
+    static Map<String, String> collectPragmas(String text, Map<String, String> pragmas) {
+        int start = text.indexOf(COMMENT_START + PRAGMA_PREFIX);
+        while (start >= 0) {
+            int end = text.indexOf(COMMENT_END, start + COMMENT_START.length());
+            if (end < 0) {
+                break;
+            }
+            String pragma = text.substring(start + COMMENT_START.length() + PRAGMA_PREFIX.length(), end).trim();
+            int eq = pragma.indexOf('=');
+            if (eq < 0) {
+                pragmas.put(pragma, "");
+            } else {
+                pragmas.put(pragma.substring(0, eq).trim(), pragma.substring(eq + 1).trim());
+            }
+            start = text.indexOf(COMMENT_START + PRAGMA_PREFIX, end + COMMENT_END.length());
+        }
+        return pragmas;
+    }
+
+    /**
+     * Turns the lines of a template into segments, collecting pragmas and problems along the way.
+     */
+    private static final class Compiler {
+        final String[] textLines;
+        final Map<String, String> pragmas = new HashMap<>();
+        final List<String> problems = new ArrayList<>();
+        boolean enableInject;
+        int inListPadding = NO_PADDING;
+        int lineNumber;
+
+        Compiler(String[] textLines) {
+            this.textLines = textLines;
+        }
+
+        Segment[][] compile() {
+            for (String textLine : textLines) {
+                collectPragmas(textLine, pragmas);
+            }
+            for (String setting : QUERY_SETTING_PRAGMAS) {
+                checkNonNegative(setting, pragmas.get(setting));
+            }
+            enableInject = pragmas.containsKey(PRAGMA_ENABLE_INJECT);
+            String padding = pragmas.get(PRAGMA_IN_LIST_PADDING);
+            if (padding != null) {
+                inListPadding = parseInListPadding(padding);
+            }
+            Segment[][] lines = new Segment[textLines.length][];
+            for (int i = 0; i < textLines.length; i++) {
+                lineNumber = i + 1;
+                lines[i] = compileLine(textLines[i]);
+            }
+            return lines;
+        }
+
+        private void checkNonNegative(String pragma, String value) {
+            if (value != null && !value.matches("\\d+")) {
+                problems.add(String.format("Invalid value '%s' for PRAGMA:%s, a non-negative integer is expected.", value, pragma));
+            }
+        }
+
+        private int parseInListPadding(String value) {
+            if (value.isEmpty()) {
+                return 0;
+            }
+            try {
+                return Integer.parseInt(value);
+            }
+            catch (NumberFormatException e) {
+                problems.add(String.format("Invalid value '%s' for PRAGMA:%s, padding is disabled.", value, PRAGMA_IN_LIST_PADDING));
+                return NO_PADDING;
+            }
+        }
+
+        private Segment[] compileLine(String line) {
+            List<Segment> segments = new ArrayList<>();
+            int pos = 0;
+            while (pos < line.length()) {
+                int start = line.indexOf(COMMENT_START, pos);
+                int end = start < 0 ? -1 : line.indexOf(COMMENT_END, start + COMMENT_START.length());
+                if (end < 0) {
+                    checkUnterminated(line, pos);
+                    compileText(line.substring(pos), segments);
+                    break;
+                }
+                compileText(line.substring(pos, start), segments);
+                int markerEnd = end + COMMENT_END.length();
+                segments.add(compileMarker(line.substring(start, markerEnd), line.substring(start + COMMENT_START.length(), end)));
+                pos = markerEnd;
+            }
+            return segments.toArray(new Segment[0]);
+        }
+
+        private void checkUnterminated(String line, int pos) {
+            int start = line.indexOf(COMMENT_START, pos);
+            while (start >= 0) {
+                String rest = line.substring(start + COMMENT_START.length());
+                if (rest.startsWith(NEGATIVE_PREFIX) || rest.startsWith(INJECT_PREFIX) || rest.startsWith(PRAGMA_PREFIX)) {
+                    problems.add(String.format("Line %d: block '%s' is not terminated by '%s'.", lineNumber, line.substring(start).trim(), COMMENT_END.trim()));
+                }
+                start = line.indexOf(COMMENT_START, start + COMMENT_START.length());
+            }
+        }
+
+        private Segment compileMarker(String marker, String body) {
+            if (body.startsWith(PRAGMA_PREFIX)) {
+                return new Text(marker);
+            }
+            if (body.startsWith(NEGATIVE_PREFIX)) {
+                return new Condition(marker, ConditionType.ABSENT, checkKey(marker, body.substring(NEGATIVE_PREFIX.length()).trim()), null);
+            }
+            if (body.startsWith(INJECT_PREFIX)) {
+                if (!enableInject) {
+                    problems.add(String.format("Line %d: block '%s' is ignored as the template lacks the PRAGMA:%s block.", lineNumber, marker, PRAGMA_ENABLE_INJECT));
+                    return new Text(marker);
+                }
+                return new Injection(marker, checkKey(marker, body.substring(INJECT_PREFIX.length()).trim()));
+            }
+            if (body.endsWith(NULL_SUFFIX)) {
+                return new Condition(marker, ConditionType.NULL, checkKey(marker, body.substring(0, body.length() - NULL_SUFFIX.length())), null);
+            }
+            int colon = body.indexOf(NAMED_PARAMETER_START);
+            if (colon >= 0) {
+                return new Condition(marker, ConditionType.VALUE, checkKey(marker, body.substring(0, colon)), body.substring(colon + 1));
+            }
+            return new Condition(marker, ConditionType.PRESENT, checkKey(marker, body), null);
+        }
+
+        private String checkKey(String marker, String key) {
+            if (key.isBlank()) {
+                problems.add(String.format("Line %d: block '%s' does not specify any key.", lineNumber, marker));
+            }
+            return key;
+        }
+
+        private void compileText(String text, List<Segment> segments) {
+            int pos = 0;
+            int i = 0;
+            while (i < text.length()) {
+                if (text.charAt(i) != NAMED_PARAMETER_START) {
+                    i++;
+                    continue;
+                }
+                if (i + 1 < text.length() && text.charAt(i + 1) == NAMED_PARAMETER_START) {
+                    i += 2;
+                    continue;
+                }
+                int nameEnd = i + 1;
+                while (nameEnd < text.length() && !isParameterSeparator(text.charAt(nameEnd))) {
+                    nameEnd++;
+                }
+                if (nameEnd > i + 1) {
+                    if (i > pos) {
+                        segments.add(new Text(text.substring(pos, i)));
+                    }
+                    segments.add(new Parameter(text.substring(i + 1, nameEnd), inListPadding));
+                    pos = nameEnd;
+                }
+                i = nameEnd;
+            }
+            if (pos < text.length()) {
+                segments.add(new Text(text.substring(pos)));
+            }
+        }
+    }
+
+    private static final class RenderState {
+        final Map<String, Object> context;
+        StringBuilder sb;
+        int remainingInjections;
+        boolean injectionBlocked;
+
+        RenderState(Map<String, Object> context) {
+            this.context = context;
+        }
+    }
+
+    private interface Segment {
+        /**
+         * Appends to the shape whatever information drives the rendering of this segment.
+         */
+        default void probe(RenderState state, StringBuilder shape) {
+        }
+
+        void render(RenderState state);
+    }
+
+    private enum ConditionType { PRESENT, ABSENT, NULL, VALUE }
+
+    private record Text(String text) implements Segment {
+        @Override
+        public void render(RenderState state) {
+            state.sb.append(text);
+        }
+    }
+
+    /**
+     * A comment block that is removed when its condition holds, enabling whatever follows it on the same line.
+     */
+    private record Condition(String marker, ConditionType type, String key, String value) implements Segment {
+        @Override
+        public void probe(RenderState state, StringBuilder shape) {
+            shape.append(holds(state.context) ? '1' : '0');
+        }
+
+        @Override
+        public void render(RenderState state) {
+            if (!holds(state.context)) {
+                state.sb.append(marker);
+            }
+        }
+
+        private boolean holds(Map<String, Object> context) {
+            return switch (type) {
+                case PRESENT -> context.containsKey(key);
+                case ABSENT -> !context.containsKey(key);
+                case NULL -> context.containsKey(key) && context.get(key) == null;
+                case VALUE -> {
+                    Object actual = context.get(key);
+                    yield actual != null && value.equals(actual.toString());
+                }
+            };
+        }
+    }
+
+    /**
+     * A comment block that is replaced with the value of the corresponding key. At most {@link #MAX_REPLACEMENTS}
+     * injections happen on the same line, and none after the first one whose key is missing.
+     */
+    private record Injection(String marker, String key) implements Segment {
+        @Override
+        public void probe(RenderState state, StringBuilder shape) {
+            if (state.injectionBlocked || state.remainingInjections <= 0) {
+                shape.append('-');
+            }
+            else if (state.context.containsKey(key)) {
+                state.remainingInjections--;
+                shape.append('=').append(state.context.get(key)).append('\0');
+            }
+            else {
+                state.injectionBlocked = true;
+                shape.append('-');
+            }
+        }
+
+        @Override
+        public void render(RenderState state) {
+            if (state.injectionBlocked || state.remainingInjections <= 0) {
+                state.sb.append(marker);
+            }
+            else if (state.context.containsKey(key)) {
+                state.remainingInjections--;
+                state.sb.append(state.context.get(key));
+            }
+            else {
+                state.injectionBlocked = true;
+                state.sb.append(marker);
+            }
+        }
+    }
+
+    /**
+     * A named parameter. When the corresponding value is an array or a collection the parameter is expanded into one
+     * parameter per element and the matching keys are added to the context while probing. When padding is enabled, the
+     * number of parameters is rounded up and the last element is repeated to fill the gap.
+     */
+    private record Parameter(String name, int inListPadding) implements Segment {
+        @Override
+        public void probe(RenderState state, StringBuilder shape) {
+            List<?> values = getArrayExpansionSourceCollection(state.context.get(name));
+            if (values == null) {
+                shape.append('-');
+                return;
+            }
+            int size = values.size();
+            int count = paddedSize(size, inListPadding);
+            for (int i = 0; i < count; i++) {
+                state.context.put(name + "_" + i, values.get(Math.min(i, size - 1)));
+            }
+            shape.append(count).append(',');
+        }
+
+        @Override
+        public void render(RenderState state) {
+            List<?> values = getArrayExpansionSourceCollection(state.context.get(name));
+            if (values == null) {
+                state.sb.append(NAMED_PARAMETER_START).append(name);
+                return;
+            }
+            int count = paddedSize(values.size(), inListPadding);
+            for (int i = 0; i < count; i++) {
+                String indexedKey = name + "_" + i;
+                if (i > 0) {
+                    state.sb.append(", ");
+                }
+                state.sb.append(NAMED_PARAMETER_START).append(indexedKey);
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package it.openly.core.data.support;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.util.ReflectionUtils;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Limits the number of statements running concurrently on a {@link DataSource DataSource} on behalf of asynchronous
+ * callers. Work submitted beyond the limit is queued as a task, rather than as a thread blocked waiting for a
+ * connection.<br/>
+ * There is one bulkhead for each DataSource, shared by all the objects using it. Unless specified otherwise, the limit
+ * is the maximum size of the connection pool, read from the most common pool implementations (HikariCP, Commons DBCP,
+ * Tomcat JDBC, c3p0), unwrapping spring's {@link DelegatingDataSource DelegatingDataSource} proxies.
+ * When the size can't be detected, {@link #DEFAULT_MAX_CONCURRENCY DEFAULT_MAX_CONCURRENCY} is used.
+ *
+ * @author filippo.possenti
+ */
+@Slf4j
+public final class DataSourceBulkhead {
+    public static final int DEFAULT_MAX_CONCURRENCY = 10;
+    private static final String[] POOL_SIZE_GETTERS = {"getMaximumPoolSize", "getMaxTotal", "getMaxActive", "getMaxPoolSize"};
+    private static final long KEEP_ALIVE_SECONDS = 60;
+    private static final AtomicInteger BULKHEAD_COUNT = new AtomicInteger();
+    private static final Map<DataSource, DataSourceBulkhead> BULKHEADS = Collections.synchronizedMap(new WeakHashMap<>());
+    private static final ThreadLocal<DataSourceBulkhead> CURRENT = new ThreadLocal<>();
+
+    @Getter
+    private final int maxConcurrency;
+    private final ThreadPoolExecutor executor;
+
+    private DataSourceBulkhead(int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("The maximum concurrency must be positive.");
+        }
+        this.maxConcurrency = maxConcurrency;
+        String namePrefix = "db-bulkhead-" + BULKHEAD_COUNT.incrementAndGet() + "-";
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(() -> {
+                CURRENT.set(this);
+                runnable.run();
+            }, namePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the bulkhead of the specified DataSource, creating it with the size of its connection pool if needed.
+     * @param dataSource The DataSource
+     * @return The bulkhead
+     */
+    public static DataSourceBulkhead of(@NonNull DataSource dataSource) {
+        return BULKHEADS.computeIfAbsent(dataSource, ds -> new DataSourceBulkhead(detectMaxConcurrency(ds)));
+    }
+
+    /**
+     * Returns the bulkhead of the specified DataSource, creating it with the specified limit if needed. A bulkhead that
+     * already exists keeps its limit.
+     * @param dataSource The DataSource
+     * @param maxConcurrency The maximum number of statements running concurrently
+     * @return The bulkhead
+     */
+    public static DataSourceBulkhead of(@NonNull DataSource dataSource, int maxConcurrency) {
+        return BULKHEADS.computeIfAbsent(dataSource, ds -> new DataSourceBulkhead(maxConcurrency));
+    }
+
+    /**
+     * The executor running the work submitted to the bulkhead. Its threads are daemon threads, released after a minute
+     * of inactivity.
+     * @return The executor
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Tells whether the calling thread is one of the threads of the bulkhead.
+     * @return true when called by work running on the bulkhead
+     */
+    public boolean isCurrentThread() {
+        return CURRENT.get() == this;
+    }
+
+    /**
+     * Runs the specified tasks concurrently and waits for all of them to complete, running no more than
+     * {@link #getMaxConcurrency() maxConcurrency} of them at the same time. The calling thread runs tasks too, and the
+     * threads of the bulkhead only pick the tasks that were not started yet once they get a slot: the call makes
+     * progress even when the bulkhead is saturated, rather than waiting for slots held by its own callers. When called
+     * from a thread of the bulkhead, all the tasks run on it, one after the other.<br/>
+     * Once a task fails, the tasks that were not started yet are skipped. The first failure is rethrown once the
+     * running tasks completed, the following ones being added to it as suppressed exceptions.
+     * @param tasks The tasks
+     * @throws InterruptedException If the calling thread is interrupted, in which case the tasks that were not started
+     * yet are skipped
+     */
+    @SneakyThrows
+    public void runAll(@NonNull List<? extends Runnable> tasks) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        TaskBatch batch = new TaskBatch(tasks);
+        if (!isCurrentThread()) {
+            for (int i = 1; i < Math.min(tasks.size(), maxConcurrency); i++) {
+                executor.execute(batch);
+            }
+        }
+        batch.run();
+        try {
+            batch.done.await();
+        }
+        catch (InterruptedException e) {
+            batch.pending.clear();
+            throw e;
+        }
+        Throwable failure = batch.failure.get();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * The number of tasks waiting for a slot of the bulkhead.
+     * @return The number of queued tasks
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    static int detectMaxConcurrency(DataSource dataSource) {
+        DataSource target = dataSource;
+        while (target instanceof DelegatingDataSource delegating && delegating.getTargetDataSource() != null) {
+            target = delegating.getTargetDataSource();
+        }
+        for (String getter : POOL_SIZE_GETTERS) {
+            Method method = ReflectionUtils.findMethod(target.getClass(), getter);
+            if (method != null && method.getParameterCount() == 0) {
+                try {
+                    Object value = method.invoke(target);
+                    if (value instanceof Number size && size.intValue() > 0) {
+                        log.debug("Limiting asynchronous statements on {} to {}.", target, size);
+                        return size.intValue();
+                    }
+                }
+                catch (ReflectiveOperationException | RuntimeException e) {
+                    log.debug("Unable to read the pool size of {} through {}.", target, getter, e);
+                }
+            }
+        }
+        log.debug("Unable to detect the pool size of {}: limiting asynchronous statements to {}.", target, DEFAULT_MAX_CONCURRENCY);
+        return DEFAULT_MAX_CONCURRENCY;
+    }
+
+
+    private static final class TaskBatch implements Runnable {
+        private final Queue<Runnable> pending;
+        private final CountDownLatch done;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        private TaskBatch(List<? extends Runnable> tasks) {
+            this.pending = new ConcurrentLinkedQueue<>(tasks);
+            this.done = new CountDownLatch(tasks.size());
+        }
+
+        @Override
+        public void run() {
+            Runnable task;
+            while ((task = pending.poll()) != null) {
+                try {
+                    if (failure.get() == null) {
+                        task.run();
+                    }
+                }
+                catch (Throwable t) {
+                    if (!failure.compareAndSet(null, t) && failure.get() != t) {
+                        failure.get().addSuppressed(t);
+                    }
+                }
+                finally {
+                    done.countDown();
+                }
+            }
+        }
+    }
+}
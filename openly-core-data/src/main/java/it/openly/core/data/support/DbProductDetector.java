@@ -9,22 +9,50 @@ import lombok.extern.slf4j.Slf4j;
 import javax.sql.DataSource;
 import java.io.InputStream;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 /**
  * Provides facilities to detect the database product that is backing a specific {@link javax.sql.DataSource DataSource}.<br/>
  * A default list of database products is provided within the library. Alternatively, a custom list can be specified
- * using the appropriate constructor.
+ * using the appropriate constructor.<br/>
+ * Detection happens once for each DataSource, even when requested concurrently, and produces a {@link DbProfile DbProfile}
+ * describing the capabilities of the database. Detection can also be started in background, so that the first query
+ * doesn't have to borrow a connection to read the database metadata.
  *
  * @author filippo.possenti
  */
 @Slf4j
 public class DbProductDetector {
     private static final String DEFAULT_PROPERTIES_PATH = "it/openly/core/data/database-types.properties";
+    private static final String GENERIC_DB_TYPE = "generic";
+    private static final int GENERIC_MAX_PARAMETER_COUNT = 2000;
+    private static final Map<String, Integer> MAX_PARAMETER_COUNTS = Map.of(
+            "oracle", 65535,
+            "mssql", 2100,
+            "postgresql", 32767,
+            "mysql", 65535,
+            "hsql", Integer.MAX_VALUE);
+    /**
+     * Database types whose drivers accept several statements with bind parameters in a single prepared statement.
+     * MySQL only does when the connection enables allowMultiQueries, which can't be assumed.
+     */
+    private static final Set<String> MULTI_STATEMENT_DB_TYPES = Set.of("postgresql", "mssql");
+    private static final Executor BACKGROUND_EXECUTOR = task -> {
+        Thread thread = new Thread(task, "db-product-detector");
+        thread.setDaemon(true);
+        thread.start();
+    };
 
-    private final Map<DataSource, String> dataSourceDbTypesCache;
+    private final Map<DataSource, CompletableFuture<DbProfile>> dataSourceProfilesCache = new ConcurrentHashMap<>();
 
     @Getter
     private final Map<String, String> databaseTypes;
@@ -39,7 +67,16 @@ public class DbProductDetector {
      */
     public DbProductDetector(Properties databaseTypesProps) {
         this.databaseTypes = loadDatabaseProducts(databaseTypesProps);
-        this.dataSourceDbTypesCache = new HashMap<>();
+    }
+
+    /**
+     * Creates an instance of the object, immediately starting the detection of the specified DataSources in background.
+     * @param databaseTypesProps The {@link java.util.Properties Properties} object containing the list of database products
+     * @param dataSources The {@link javax.sql.DataSource DataSources} to detect eagerly
+     */
+    public DbProductDetector(Properties databaseTypesProps, @NonNull Collection<DataSource> dataSources) {
+        this(databaseTypesProps);
+        dataSources.forEach(this::detectInBackground);
     }
 
     /**
@@ -47,8 +84,16 @@ public class DbProductDetector {
      * library. If this is not suitable, use the other available constructor.
      */
     public DbProductDetector() {
-        this.databaseTypes = loadDatabaseProducts(loadDefaultProperties());
-        this.dataSourceDbTypesCache = new HashMap<>();
+        this(loadDefaultProperties());
+    }
+
+    /**
+     * Creates an instance of the object using the embedded list of database products, immediately starting the
+     * detection of the specified DataSources in background.
+     * @param dataSources The {@link javax.sql.DataSource DataSources} to detect eagerly
+     */
+    public DbProductDetector(@NonNull Collection<DataSource> dataSources) {
+        this(loadDefaultProperties(), dataSources);
     }
 
     /**
@@ -56,32 +101,91 @@ public class DbProductDetector {
      * @param ds The  {@link javax.sql.DataSource DataSource} for which the database product is to be detected
      * @return The detected database product. Returns "generic" if the product is not known to the library.
      */
-    @SneakyThrows
     public String detectDbProduct(@NonNull DataSource ds) {
-        String dbType = dataSourceDbTypesCache.get(ds);
-        if(dbType == null) {
-            Map<String, String> dbTypes = getDatabaseTypes();
-            try(Connection conn = ds.getConnection()) {
-                String dbProduct = conn.getMetaData().getDatabaseProductName();
-                dbType = dbTypes.get(dbProduct);
-                if(dbType == null) {
-                    dbType = "generic";
-                }
+        return detectProfile(ds).getDbType();
+    }
+
+    /**
+     * Detects the capabilities of the database product for the specified DataSource. If a detection is already in
+     * progress, waits for its completion rather than starting a new one.
+     * @param ds The  {@link javax.sql.DataSource DataSource} for which the database product is to be detected
+     * @return The profile of the database product
+     */
+    @SneakyThrows
+    public DbProfile detectProfile(@NonNull DataSource ds) {
+        try {
+            return detect(ds, Runnable::run).join();
+        }
+        catch (CompletionException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Starts the detection of the database product for the specified DataSource on a background thread, unless it was
+     * already detected or a detection is in progress.
+     * @param ds The  {@link javax.sql.DataSource DataSource} for which the database product is to be detected
+     * @return A future completed with the profile of the database product
+     */
+    public CompletableFuture<DbProfile> detectInBackground(@NonNull DataSource ds) {
+        return detect(ds, BACKGROUND_EXECUTOR);
+    }
+
+    private CompletableFuture<DbProfile> detect(DataSource ds, Executor executor) {
+        CompletableFuture<DbProfile> profile = new CompletableFuture<>();
+        CompletableFuture<DbProfile> existing = dataSourceProfilesCache.putIfAbsent(ds, profile);
+        if (existing != null) {
+            return existing;
+        }
+        executor.execute(() -> {
+            try {
+                profile.complete(inspect(ds));
+            }
+            catch (Exception e) {
+                // failures are not cached, so that the detection is attempted again on the next call
+                dataSourceProfilesCache.remove(ds, profile);
+                profile.completeExceptionally(e);
             }
-            dataSourceDbTypesCache.put(ds, dbType);
+        });
+        return profile;
+    }
+
+    @SneakyThrows
+    private DbProfile inspect(DataSource ds) {
+        try(Connection conn = ds.getConnection()) {
+            DatabaseMetaData metaData = conn.getMetaData();
+            String dbProduct = metaData.getDatabaseProductName();
+            String dbType = getDatabaseTypes().getOrDefault(dbProduct, GENERIC_DB_TYPE);
+            int majorVersion = metaData.getDatabaseMajorVersion();
+            DbProfile profile = new DbProfile(dbType, dbProduct, majorVersion, metaData.supportsBatchUpdates(),
+                    MAX_PARAMETER_COUNTS.getOrDefault(dbType, GENERIC_MAX_PARAMETER_COUNT), pagingSyntax(dbType, majorVersion),
+                    MULTI_STATEMENT_DB_TYPES.contains(dbType) && metaData.supportsMultipleResultSets());
+            log.info("Detected database of type '{}': {}.", dbType, profile);
+            return profile;
+        }
+    }
+
+    private static DbProfile.PagingSyntax pagingSyntax(String dbType, int majorVersion) {
+        switch (dbType) {
+            case "postgresql":
+            case "mysql":
+            case "hsql":
+                return DbProfile.PagingSyntax.LIMIT_OFFSET;
+            case "oracle":
+                return majorVersion >= 12 ? DbProfile.PagingSyntax.OFFSET_FETCH : DbProfile.PagingSyntax.ROWNUM;
+            default:
+                return DbProfile.PagingSyntax.OFFSET_FETCH;
         }
-        log.info("Reporting detected database of type '{}'.", dbType);
-        return dbType;
     }
 
-    private Map<String, String> loadDatabaseProducts(Properties props) {
+    private static Map<String, String> loadDatabaseProducts(Properties props) {
         Map<String, String> results = new HashMap<>();
         props.forEach((key, value) -> results.put((String)value, (String)key));
         return results;
     }
 
     @SneakyThrows
-    private Properties loadDefaultProperties() {
+    private static Properties loadDefaultProperties() {
         Properties props = new Properties();
         try(InputStream fileData = QueryFactory.class.getClassLoader().getResourceAsStream(DEFAULT_PROPERTIES_PATH)) {
             props.load(fileData);
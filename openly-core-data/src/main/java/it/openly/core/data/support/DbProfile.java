@@ -0,0 +1,55 @@
+package it.openly.core.data.support;
+
+import lombok.Getter;
+
+/**
+ * Describes the capabilities of the database product backing a {@link javax.sql.DataSource DataSource}, as detected by
+ * {@link DbProductDetector DbProductDetector}.<br/>
+ * Batch support comes from the JDBC driver metadata. The maximum number of bind parameters, the paging syntax and the
+ * support for multi-statement execution are not exposed by JDBC and are therefore derived from the database type,
+ * falling back to conservative values for products that are not known to the library.
+ *
+ * @author filippo.possenti
+ */
+@Getter
+public class DbProfile {
+    /**
+     * The syntax used by a database product to limit the rows returned by a query.
+     */
+    public enum PagingSyntax {
+        /** <code>LIMIT n OFFSET m</code> */
+        LIMIT_OFFSET,
+        /** <code>OFFSET m ROWS FETCH NEXT n ROWS ONLY</code>, as per SQL:2008 */
+        OFFSET_FETCH,
+        /** Filtering on the <code>ROWNUM</code> pseudo-column */
+        ROWNUM
+    }
+
+    private final String dbType;
+    private final String productName;
+    private final int majorVersion;
+    private final boolean batchSupported;
+    private final int maxParameterCount;
+    private final PagingSyntax pagingSyntax;
+    /**
+     * Whether several statements separated by semicolons, with bind parameters, can be sent in a single round trip
+     * and their results read one after the other.
+     */
+    private final boolean multiStatementSupported;
+
+    DbProfile(String dbType, String productName, int majorVersion, boolean batchSupported, int maxParameterCount, PagingSyntax pagingSyntax, boolean multiStatementSupported) {
+        this.dbType = dbType;
+        this.productName = productName;
+        this.majorVersion = majorVersion;
+        this.batchSupported = batchSupported;
+        this.maxParameterCount = maxParameterCount;
+        this.pagingSyntax = pagingSyntax;
+        this.multiStatementSupported = multiStatementSupported;
+    }
+
+    @Override
+    public String toString() {
+        return "DbProfile[" + dbType + ", " + productName + " " + majorVersion + ", batch=" + batchSupported
+                + ", maxParameters=" + maxParameterCount + ", paging=" + pagingSyntax + ", multiStatement=" + multiStatementSupported + "]";
+    }
+}
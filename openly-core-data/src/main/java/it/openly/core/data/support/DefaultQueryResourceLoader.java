@@ -7,19 +7,30 @@ import lombok.NonNull;
 import org.apache.commons.io.FilenameUtils;
 
 import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This class allows loading queries from resources.<br/>
  * The path is composed based on a base path, combined with the database product as returned by the {@link DbProductDetector DbProductDetector} class.
- * When there is no database-specific query, the class will combine the base path with the string "sql" and will try to load the query from there.
+ * When there is no database-specific query, the class will combine the base path with the string "sql" and will try to load the query from there.<br/>
+ * The text of each query is cached once loaded, for each database product. During development, the
+ * {@link #watch(Path) watch} method allows to discard the cached texts of the queries that change on the file-system.
  *
  * @author filippo.possenti
  */
-public class DefaultQueryResourceLoader implements IQueryResourceLoader {
+public class DefaultQueryResourceLoader implements IQueryResourceLoader, Closeable {
+    private static final String GENERIC_DB_TYPE = "sql";
 
     private final IResourceResolver resourceResolver;
     private final DbProductDetector dbProductDetector;
     private final String queriesBasePath;
+    private final Map<QueryKey, String> queryTexts = new ConcurrentHashMap<>();
+    private final List<QueryDirectoryWatcher> watchers = new CopyOnWriteArrayList<>();
 
     /**
      * Creates an instance of the class, specifying all parameters that drive the resolution of the resource to be loaded.
@@ -47,7 +58,16 @@ public class DefaultQueryResourceLoader implements IQueryResourceLoader {
     }
 
     /**
-     * Loads the query using the configured dependencies.
+     * The {@link DbProductDetector DbProductDetector} in charge of detecting the database product.
+     * @return The detector
+     */
+    public DbProductDetector getDbProductDetector() {
+        return dbProductDetector;
+    }
+
+    /**
+     * Loads the query using the configured dependencies. The text is only resolved the first time it's requested for
+     * each database product, subsequent calls returning the cached text.
      * @param dataSource The {@link javax.sql.DataSource DataSource} instance for which the query is to be loaded
      * @param namedQuery The name of the query
      * @return A string representing the text that composes the query, unmodified.
@@ -55,10 +75,78 @@ public class DefaultQueryResourceLoader implements IQueryResourceLoader {
     @Override
     public String loadQuery(@NonNull DataSource dataSource, @NonNull String namedQuery) {
         String detectedDbType = dbProductDetector.detectDbProduct(dataSource);
+        return queryTexts.computeIfAbsent(new QueryKey(detectedDbType, namedQuery), key -> resolveQuery(key.dbType(), key.namedQuery()));
+    }
+
+    private String resolveQuery(String detectedDbType, String namedQuery) {
         String namedQueryPath = FilenameUtils.concat(FilenameUtils.concat(queriesBasePath, detectedDbType), namedQuery);
         if(!resourceResolver.hasResource(namedQueryPath)) {
-            namedQueryPath = FilenameUtils.concat(FilenameUtils.concat(queriesBasePath, "sql"), namedQuery);
+            namedQueryPath = FilenameUtils.concat(FilenameUtils.concat(queriesBasePath, GENERIC_DB_TYPE), namedQuery);
         }
         return resourceResolver.resolveStringResource(namedQueryPath);
     }
+
+    /**
+     * Discards all the cached query texts, so that they are resolved again on their next use.
+     */
+    public void clearCache() {
+        queryTexts.clear();
+    }
+
+    /**
+     * Starts watching the specified directory, discarding the cached text of the queries whose files change. When the
+     * resources are resolved through a {@link DefaultResourceResolver DefaultResourceResolver}, its index is discarded
+     * as well, so that added and removed queries are seen too.
+     * The directory is expected to be the file-system counterpart of the base path, containing one subdirectory for each
+     * database product. As the discarded texts are resolved again through the resource resolver, it must be the directory
+     * the resources are actually loaded from (for example the "target/classes/queries" output directory, which the IDE
+     * updates when the sources change) rather than the source one. Meant for development purposes.
+     * @param queriesDirectory The directory containing the queries.
+     */
+    public void watch(@NonNull Path queriesDirectory) {
+        watchers.add(new QueryDirectoryWatcher(queriesDirectory, this::invalidate));
+    }
+
+    /**
+     * Stops watching all the directories specified through the {@link #watch(Path) watch} method.
+     */
+    @Override
+    public void close() throws IOException {
+        for (QueryDirectoryWatcher watcher : watchers) {
+            watcher.close();
+        }
+        watchers.clear();
+    }
+
+    private void invalidate(String changedPath) {
+        if (resourceResolver instanceof DefaultResourceResolver defaultResourceResolver) {
+            defaultResourceResolver.clearIndex();
+        }
+        int separator = changedPath == null ? -1 : changedPath.indexOf('/');
+        if (separator < 0) {
+            clearCache();
+            return;
+        }
+        String namedQuery = changedPath.substring(separator + 1);
+        queryTexts.keySet().removeIf(key -> {
+            String name = FilenameUtils.separatorsToUnix(key.namedQuery());
+            return name.equals(namedQuery) || name.startsWith(namedQuery + "/");
+        });
+    }
+
+    /**
+     * Lists the queries available for the database product of the specified DataSource, including the generic ones.
+     * @param dataSource The {@link javax.sql.DataSource DataSource} instance for which the queries are to be listed
+     * @return The names of the queries, sorted alphabetically.
+     */
+    @Override
+    public List<String> listQueries(@NonNull DataSource dataSource) {
+        String detectedDbType = dbProductDetector.detectDbProduct(dataSource);
+        Set<String> namedQueries = new TreeSet<>(resourceResolver.listResources(FilenameUtils.concat(queriesBasePath, detectedDbType)));
+        namedQueries.addAll(resourceResolver.listResources(FilenameUtils.concat(queriesBasePath, GENERIC_DB_TYPE)));
+        return new ArrayList<>(namedQueries);
+    }
+
+    private record QueryKey(String dbType, String namedQuery) {
+    }
 }
@@ -0,0 +1,115 @@
+package it.openly.core.data.support;
+
+import java.util.*;
+
+/**
+ * A read-through view over a number of context {@link java.util.Map Maps}, allowing to drive a query with several
+ * Maps without merging them.<br/>
+ * Lookups scan the layers from the last to the first, so that later layers take precedence over earlier ones. Values
+ * written into the view, such as the keys generated by array expansion, are kept in a small overlay taking precedence
+ * over all layers: the underlying Maps are never modified. Null values are supported.<br/>
+ * Iterating over the view requires merging the layers, and is therefore best avoided on hot paths.
+ *
+ * @author filippo.possenti
+ */
+public class LayeredContext extends AbstractMap<String, Object> {
+    private final Map<String, ?>[] layers;
+    private Map<String, Object> overlay;
+
+    /**
+     * Creates a view over the specified Maps. Null Maps are ignored.
+     * @param layers The Maps, in increasing order of precedence.
+     */
+    @SafeVarargs
+    public LayeredContext(Map<String, ?>... layers) {
+        this.layers = layers;
+    }
+
+    /**
+     * Returns the specified context as a LayeredContext, wrapping it unless it already is one.
+     * @param context The context
+     * @return A LayeredContext that can be written without affecting the specified context.
+     */
+    public static LayeredContext of(Map<String, ?> context) {
+        return context instanceof LayeredContext layeredContext ? layeredContext : new LayeredContext(context);
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (overlay != null) {
+            Object value = overlay.get(key);
+            if (value != null || overlay.containsKey(key)) {
+                return value;
+            }
+        }
+        for (int i = layers.length - 1; i >= 0; i--) {
+            Map<String, ?> layer = layers[i];
+            if (layer != null) {
+                Object value = layer.get(key);
+                if (value != null || layer.containsKey(key)) {
+                    return value;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (overlay != null && overlay.containsKey(key)) {
+            return true;
+        }
+        for (Map<String, ?> layer : layers) {
+            if (layer != null && layer.containsKey(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        Object previous = get(key);
+        if (overlay == null) {
+            overlay = new HashMap<>(8);
+        }
+        overlay.put(key, value);
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return merge().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        if (overlay != null && !overlay.isEmpty()) {
+            return false;
+        }
+        for (Map<String, ?> layer : layers) {
+            if (layer != null && !layer.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return Collections.unmodifiableMap(merge()).entrySet();
+    }
+
+    private Map<String, Object> merge() {
+        Map<String, Object> merged = new LinkedHashMap<>();
+        for (Map<String, ?> layer : layers) {
+            if (layer != null) {
+                merged.putAll(layer);
+            }
+        }
+        if (overlay != null) {
+            merged.putAll(overlay);
+        }
+        return merged;
+    }
+}
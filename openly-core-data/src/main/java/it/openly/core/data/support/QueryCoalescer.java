@@ -0,0 +1,73 @@
+package it.openly.core.data.support;
+
+import lombok.NonNull;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical read queries executed concurrently: while a query is running, other threads executing the same
+ * query with the same parameters wait for its result rather than sending it to the database again. Unlike a
+ * {@link QueryResultCache QueryResultCache}, results are not kept once the query completes, and therefore are never
+ * stale.<br/>
+ * Failures are reported to all the waiting threads. Results are shared among them and must be treated as read-only.
+ *
+ * @author filippo.possenti
+ */
+public final class QueryCoalescer {
+    private final Map<Object, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Returns the result of the query identified by the specified key, either waiting for the execution already in
+     * flight or executing it on the calling thread.
+     * @param key The key, identifying the query, the values of its parameters and the form of the result
+     * @param loader Loads the result from the database
+     * @param <T> The result type
+     * @return The result
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(@NonNull Object key, @NonNull Supplier<T> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            try {
+                return (T) running.join();
+            }
+            catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                if (e.getCause() instanceof Error cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+        try {
+            T value = loader.get();
+            future.complete(value);
+            return value;
+        }
+        catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Returns the number of executions that waited for another one rather than querying the database.
+     * @return The number of coalesced executions
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+}
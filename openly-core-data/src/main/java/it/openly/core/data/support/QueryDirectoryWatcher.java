@@ -0,0 +1,91 @@
+package it.openly.core.data.support;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches a directory and all its subdirectories, notifying the relative path of every file that is created, modified
+ * or deleted. A null path is notified when events were lost and any file may have changed.<br/>
+ * Notifications happen on a dedicated daemon thread, until the watcher is closed.
+ *
+ * @author filippo.possenti
+ */
+@Slf4j
+class QueryDirectoryWatcher implements Closeable {
+    private final Path root;
+    private final Consumer<String> onChange;
+    private final WatchService watchService;
+
+    @SneakyThrows
+    QueryDirectoryWatcher(Path root, Consumer<String> onChange) {
+        this.root = root.toAbsolutePath().normalize();
+        this.onChange = onChange;
+        this.watchService = this.root.getFileSystem().newWatchService();
+        registerAll(this.root);
+        Thread thread = new Thread(this::run, "query-directory-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void registerAll(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            Iterator<Path> directories = paths.filter(Files::isDirectory).iterator();
+            while (directories.hasNext()) {
+                directories.next().register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    handleEvent(directory, event);
+                }
+                key.reset();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ClosedWatchServiceException e) {
+            log.debug("Stopped watching '{}'.", root);
+        }
+    }
+
+    private void handleEvent(Path directory, WatchEvent<?> event) {
+        if (event.kind() == OVERFLOW) {
+            onChange.accept(null);
+            return;
+        }
+        Path changed = directory.resolve((Path) event.context());
+        if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed)) {
+            try {
+                registerAll(changed);
+            }
+            catch (IOException e) {
+                log.warn("Unable to watch directory '{}'.", changed, e);
+            }
+        }
+        String relativePath = FilenameUtils.separatorsToUnix(root.relativize(changed).toString());
+        log.debug("Detected change of '{}' in '{}'.", relativePath, root);
+        onChange.accept(relativePath);
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
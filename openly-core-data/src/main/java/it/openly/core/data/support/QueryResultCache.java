@@ -0,0 +1,183 @@
+package it.openly.core.data.support;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Caches the results of read queries, keyed by their SQL and the values of their parameters and tagged with the
+ * tables they read, so that they can be invalidated when those tables are written.<br/>
+ * The cache is bounded both by number of entries and by total weight, the weight of a result being its number of
+ * rows. Entries expire after a fixed time to live and, when a bound is exceeded, the least recently used entries are
+ * evicted first.<br/>
+ * A result being loaded while one of its tables is invalidated is returned to its caller but not cached, so that an
+ * invalidation can't be undone by a slow read.<br/>
+ * Cached results are shared among callers and must be treated as read-only.
+ *
+ * @author filippo.possenti
+ */
+@Slf4j
+public class QueryResultCache {
+    private final int maxEntries;
+    private final long maxWeight;
+    private final long ttlNanos;
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<Object>> keysByTable = new HashMap<>();
+    private final Map<String, Long> invalidationsByTable = new HashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long stamp;
+    private long weight;
+
+    /**
+     * Creates a cache.
+     * @param maxEntries The maximum number of results kept
+     * @param maxWeight The maximum number of rows kept, over all results. Results having more rows are never cached.
+     * @param ttl How long results are kept after being loaded
+     */
+    public QueryResultCache(int maxEntries, long maxWeight, @NonNull Duration ttl) {
+        if (maxEntries <= 0 || maxWeight <= 0) {
+            throw new IllegalArgumentException("The maximum number of entries and the maximum weight must be positive.");
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("The time to live must be positive.");
+        }
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    /**
+     * Returns the cached result for the specified key, loading and caching it if it's missing or expired.
+     * @param key The key, identifying the query, the values of its parameters and the form of the result
+     * @param tables The tables read by the query, lower-cased
+     * @param loader Loads the result from the database
+     * @param <T> The result type
+     * @return The result
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(@NonNull Object key, @NonNull Set<String> tables, @NonNull Supplier<T> loader) {
+        long loadStamp;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt - System.nanoTime() > 0) {
+                hits.incrementAndGet();
+                return (T) entry.value;
+            }
+            if (entry != null) {
+                remove(key, entry);
+            }
+            loadStamp = stamp;
+        }
+        misses.incrementAndGet();
+        T value = loader.get();
+        put(key, tables, value, loadStamp);
+        return value;
+    }
+
+    /**
+     * Removes all the results read from any of the specified tables.
+     * @param tables The tables, lower-cased
+     */
+    public synchronized void invalidate(@NonNull Collection<String> tables) {
+        stamp++;
+        for (String table : tables) {
+            invalidationsByTable.put(table, stamp);
+            Set<Object> keys = keysByTable.remove(table);
+            if (keys != null) {
+                for (Object key : keys) {
+                    Entry entry = entries.get(key);
+                    if (entry != null) {
+                        remove(key, entry);
+                    }
+                }
+                log.debug("Invalidated {} cached results of table '{}'.", keys.size(), table);
+            }
+        }
+    }
+
+    /**
+     * Removes all the results.
+     */
+    public synchronized void clear() {
+        stamp++;
+        for (String table : keysByTable.keySet()) {
+            invalidationsByTable.put(table, stamp);
+        }
+        entries.clear();
+        keysByTable.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long weight() {
+        return weight;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private synchronized void put(Object key, Set<String> tables, Object value, long loadStamp) {
+        long entryWeight = weightOf(value);
+        if (entryWeight > maxWeight) {
+            return;
+        }
+        for (String table : tables) {
+            if (invalidationsByTable.getOrDefault(table, Long.MIN_VALUE) > loadStamp) {
+                return;
+            }
+        }
+        Entry previous = entries.get(key);
+        if (previous != null) {
+            remove(key, previous);
+        }
+        entries.put(key, new Entry(value, entryWeight, tables, System.nanoTime() + ttlNanos));
+        weight += entryWeight;
+        for (String table : tables) {
+            keysByTable.computeIfAbsent(table, t -> new HashSet<>()).add(key);
+        }
+        Iterator<Map.Entry<Object, Entry>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || weight > maxWeight) && eldest.hasNext()) {
+            Map.Entry<Object, Entry> evicted = eldest.next();
+            eldest.remove();
+            unlink(evicted.getKey(), evicted.getValue());
+        }
+    }
+
+    private void remove(Object key, Entry entry) {
+        entries.remove(key);
+        unlink(key, entry);
+    }
+
+    private void unlink(Object key, Entry entry) {
+        weight -= entry.weight;
+        for (String table : entry.tables) {
+            Set<Object> keys = keysByTable.get(table);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysByTable.remove(table);
+                }
+            }
+        }
+    }
+
+    private static long weightOf(Object value) {
+        return value instanceof Collection<?> collection ? Math.max(1, collection.size()) : 1;
+    }
+
+    private record Entry(Object value, long weight, Set<String> tables, long expiresAt) {
+    }
+}
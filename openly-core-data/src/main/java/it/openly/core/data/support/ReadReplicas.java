@@ -0,0 +1,122 @@
+package it.openly.core.data.support;
+
+import lombok.NonNull;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * The replicas of a primary database, serving the read queries of a {@link it.openly.core.data.QueryFactory QueryFactory}
+ * so that the primary is left with writes and with the reads that must see the latest data.<br/>
+ * Each read is routed to one of the replicas according to the {@link Selection Selection} strategy. The number of
+ * outstanding requests of each replica is tracked in both cases, a stream counting as outstanding until it's closed.
+ *
+ * @author filippo.possenti
+ */
+public final class ReadReplicas {
+    /**
+     * How a replica is chosen for each read.
+     */
+    public enum Selection {
+        /**
+         * The replicas are used in turn.
+         */
+        ROUND_ROBIN,
+        /**
+         * The replica having the fewest reads in progress is used, the replicas being scanned from a rotating
+         * position so that ties are spread evenly.
+         */
+        LEAST_OUTSTANDING
+    }
+
+    private final NamedParameterJdbcTemplate[] templates;
+    private final Selection selection;
+    private final AtomicIntegerArray outstanding;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Creates the replica set.
+     * @param replicas The DataSources of the replicas
+     * @param selection How a replica is chosen for each read
+     */
+    public ReadReplicas(@NonNull List<DataSource> replicas, @NonNull Selection selection) {
+        if (replicas.isEmpty()) {
+            throw new IllegalArgumentException("At least one replica is required.");
+        }
+        this.templates = replicas.stream().map(NamedParameterJdbcTemplate::new).toArray(NamedParameterJdbcTemplate[]::new);
+        this.selection = selection;
+        this.outstanding = new AtomicIntegerArray(templates.length);
+    }
+
+    /**
+     * Executes a read on one of the replicas.
+     * @param read The read, receiving the template of the chosen replica
+     * @param <T> The result type
+     * @return The result of the read
+     */
+    public <T> T read(@NonNull Function<NamedParameterJdbcTemplate, T> read) {
+        int replica = select();
+        try {
+            return read.apply(templates[replica]);
+        }
+        finally {
+            outstanding.decrementAndGet(replica);
+        }
+    }
+
+    /**
+     * Opens a stream on one of the replicas, the read being outstanding until the stream is closed.
+     * @param read The read, receiving the template of the chosen replica
+     * @param <T> The type of the stream elements
+     * @return The stream
+     */
+    public <T> Stream<T> stream(@NonNull Function<NamedParameterJdbcTemplate, Stream<T>> read) {
+        int replica = select();
+        try {
+            return read.apply(templates[replica]).onClose(() -> outstanding.decrementAndGet(replica));
+        }
+        catch (RuntimeException | Error e) {
+            outstanding.decrementAndGet(replica);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of reads in progress on each replica.
+     * @return The number of outstanding reads, in the order the replicas were supplied
+     */
+    public int[] getOutstandingRequests() {
+        int[] counts = new int[templates.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = outstanding.get(i);
+        }
+        return counts;
+    }
+
+    public int size() {
+        return templates.length;
+    }
+
+    private int select() {
+        int start = Math.floorMod(next.getAndIncrement(), templates.length);
+        int chosen = start;
+        if (selection == Selection.LEAST_OUTSTANDING) {
+            int fewest = Integer.MAX_VALUE;
+            for (int i = 0; i < templates.length; i++) {
+                int replica = (start + i) % templates.length;
+                int count = outstanding.get(replica);
+                if (count < fewest) {
+                    fewest = count;
+                    chosen = replica;
+                }
+            }
+        }
+        outstanding.incrementAndGet(chosen);
+        return chosen;
+    }
+}
@@ -0,0 +1,403 @@
+package it.openly.core.data.support;
+
+import it.openly.core.data.ExportFormat;
+import lombok.NonNull;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.Base64;
+
+/**
+ * Writes the rows of a ResultSet to an {@link OutputStream OutputStream} in one of the {@link ExportFormat export formats},
+ * as they're read: no row is kept in memory, and no Map or other object is built for it.<br/>
+ * Values are encoded as UTF-8 into a reused buffer, handed over to the stream in chunks of 64KB, so that streams doing
+ * work on each write, such as the ObservableOutputStream of openly-core-io reporting progress or its
+ * OutputStreamWithDigest computing a checksum, do it once per chunk.
+ * Integral numbers are written without creating objects for them.<br/>
+ * Numbers and booleans are written as JSON numbers and booleans, dates and times in their ISO-8601 form and binary
+ * values in Base64. The stream is flushed, but not closed.
+ *
+ * @author filippo.possenti
+ */
+public final class ResultSetExporter implements ResultSetExtractor<Long> {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    private final OutputStream out;
+    private final ExportFormat format;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final byte[] digits = new byte[20];
+    private int count;
+
+    public ResultSetExporter(@NonNull OutputStream out, @NonNull ExportFormat format) {
+        this.out = out;
+        this.format = format;
+    }
+
+    /**
+     * Writes the rows of the ResultSet.
+     * @param rs The ResultSet
+     * @return The number of rows written
+     * @throws UncheckedIOException If the stream can't be written
+     */
+    @Override
+    public Long extractData(ResultSet rs) throws SQLException {
+        try {
+            return export(rs);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long export(ResultSet rs) throws SQLException, IOException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        Kind[] kinds = new Kind[columnCount];
+        byte[][] keys = new byte[columnCount][];
+        for (int i = 0; i < columnCount; i++) {
+            String label = JdbcUtils.lookupColumnName(metaData, i + 1);
+            kinds[i] = Kind.of(metaData.getColumnType(i + 1));
+            keys[i] = (format == ExportFormat.CSV ? csvField(label) : jsonString(label) + ":").getBytes(StandardCharsets.UTF_8);
+        }
+        if (format == ExportFormat.CSV) {
+            for (int i = 0; i < columnCount; i++) {
+                if (i > 0) {
+                    write(',');
+                }
+                write(keys[i]);
+            }
+            write(CRLF);
+        }
+        else if (format == ExportFormat.JSON) {
+            write('[');
+        }
+        long rows = 0;
+        while (rs.next()) {
+            if (format == ExportFormat.CSV) {
+                for (int i = 0; i < columnCount; i++) {
+                    if (i > 0) {
+                        write(',');
+                    }
+                    writeValue(rs, i + 1, kinds[i], false);
+                }
+                write(CRLF);
+            }
+            else {
+                if (format == ExportFormat.JSON && rows > 0) {
+                    write(',');
+                }
+                write('{');
+                for (int i = 0; i < columnCount; i++) {
+                    if (i > 0) {
+                        write(',');
+                    }
+                    write(keys[i]);
+                    writeValue(rs, i + 1, kinds[i], true);
+                }
+                write('}');
+                if (format == ExportFormat.NDJSON) {
+                    write('\n');
+                }
+            }
+            rows++;
+        }
+        if (format == ExportFormat.JSON) {
+            write(']');
+        }
+        flushBuffer();
+        out.flush();
+        return rows;
+    }
+
+    private void writeValue(ResultSet rs, int column, Kind kind, boolean json) throws SQLException, IOException {
+        switch (kind) {
+            case INTEGRAL -> {
+                long value = rs.getLong(column);
+                if (rs.wasNull()) {
+                    writeNull(json);
+                }
+                else {
+                    writeLong(value);
+                }
+            }
+            case DECIMAL -> {
+                BigDecimal value = rs.getBigDecimal(column);
+                if (value == null) {
+                    writeNull(json);
+                }
+                else {
+                    writeText(value.toPlainString(), false);
+                }
+            }
+            case FLOATING -> {
+                double value = rs.getDouble(column);
+                if (rs.wasNull()) {
+                    writeNull(json);
+                }
+                else {
+                    writeText(Double.toString(value), json && !Double.isFinite(value));
+                }
+            }
+            case BOOLEAN -> {
+                boolean value = rs.getBoolean(column);
+                if (rs.wasNull()) {
+                    writeNull(json);
+                }
+                else {
+                    write(value ? TRUE : FALSE);
+                }
+            }
+            case DATE -> {
+                Date value = rs.getDate(column);
+                writeNullableText(value == null ? null : value.toLocalDate().toString(), json);
+            }
+            case TIME -> {
+                Time value = rs.getTime(column);
+                writeNullableText(value == null ? null : value.toLocalTime().toString(), json);
+            }
+            case TIMESTAMP -> {
+                Timestamp value = rs.getTimestamp(column);
+                writeNullableText(value == null ? null : value.toLocalDateTime().toString(), json);
+            }
+            case BINARY -> {
+                byte[] value = rs.getBytes(column);
+                writeNullableText(value == null ? null : Base64.getEncoder().encodeToString(value), json);
+            }
+            default -> writeNullableText(rs.getString(column), json);
+        }
+    }
+
+    private void writeNull(boolean json) throws IOException {
+        if (json) {
+            write(NULL);
+        }
+    }
+
+    private void writeNullableText(String value, boolean json) throws IOException {
+        if (value == null) {
+            writeNull(json);
+        }
+        else if (json) {
+            writeText(value, true);
+        }
+        else {
+            writeCsvField(value);
+        }
+    }
+
+    /**
+     * Writes a text, as a JSON string when quoted, escaping it.
+     */
+    private void writeText(String value, boolean quoted) throws IOException {
+        if (quoted) {
+            write('"');
+        }
+        int i = 0;
+        while (i < value.length()) {
+            char c = value.charAt(i);
+            if (quoted && (c == '"' || c == '\\')) {
+                write('\\');
+                write((byte) c);
+                i++;
+            }
+            else if (quoted && c < 0x20) {
+                writeControl(c);
+                i++;
+            }
+            else {
+                i += writeChar(value, i);
+            }
+        }
+        if (quoted) {
+            write('"');
+        }
+    }
+
+    private void writeCsvField(String value) throws IOException {
+        boolean quoted = needsCsvQuotes(value);
+        if (quoted) {
+            write('"');
+        }
+        int i = 0;
+        while (i < value.length()) {
+            if (value.charAt(i) == '"') {
+                write('"');
+            }
+            i += writeChar(value, i);
+        }
+        if (quoted) {
+            write('"');
+        }
+    }
+
+    private void writeControl(char c) throws IOException {
+        write('\\');
+        switch (c) {
+            case '\b' -> write('b');
+            case '\f' -> write('f');
+            case '\n' -> write('n');
+            case '\r' -> write('r');
+            case '\t' -> write('t');
+            default -> {
+                write('u');
+                write('0');
+                write('0');
+                write(HEX[c >> 4]);
+                write(HEX[c & 0xF]);
+            }
+        }
+    }
+
+    /**
+     * Writes a character as UTF-8, along with the following one when they're a surrogate pair. Unpaired surrogates are
+     * replaced by a question mark.
+     * @return The number of characters written
+     */
+    private int writeChar(String value, int index) throws IOException {
+        char c = value.charAt(index);
+        ensureCapacity(4);
+        if (c < 0x80) {
+            buffer[count++] = (byte) c;
+        }
+        else if (c < 0x800) {
+            buffer[count++] = (byte) (0xC0 | (c >> 6));
+            buffer[count++] = (byte) (0x80 | (c & 0x3F));
+        }
+        else if (Character.isSurrogate(c)) {
+            int codePoint = Character.isHighSurrogate(c) && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1))
+                    ? Character.toCodePoint(c, value.charAt(index + 1)) : -1;
+            if (codePoint < 0) {
+                buffer[count++] = '?';
+            }
+            else {
+                buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+                return 2;
+            }
+        }
+        else {
+            buffer[count++] = (byte) (0xE0 | (c >> 12));
+            buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[count++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return 1;
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeText(Long.toString(value), false);
+            return;
+        }
+        ensureCapacity(digits.length + 1);
+        if (value < 0) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int length = 0;
+        do {
+            digits[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (length > 0) {
+            buffer[count++] = digits[--length];
+        }
+    }
+
+    private void write(char c) throws IOException {
+        write((byte) c);
+    }
+
+    private void write(byte b) throws IOException {
+        ensureCapacity(1);
+        buffer[count++] = b;
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length) {
+            flushBuffer();
+            out.write(bytes);
+            return;
+        }
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void ensureCapacity(int length) throws IOException {
+        if (count + length > buffer.length) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private static boolean needsCsvQuotes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String csvField(String value) {
+        return needsCsvQuotes(value) ? "\"" + value.replace("\"", "\"\"") + "\"" : value;
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * How the values of a column are read and written.
+     */
+    private enum Kind {
+        INTEGRAL, DECIMAL, FLOATING, BOOLEAN, DATE, TIME, TIMESTAMP, BINARY, TEXT;
+
+        private static Kind of(int sqlType) {
+            return switch (sqlType) {
+                case Types.TINYINT, Types.SMALLINT, Types.INTEGER, Types.BIGINT -> INTEGRAL;
+                case Types.DECIMAL, Types.NUMERIC -> DECIMAL;
+                case Types.REAL, Types.FLOAT, Types.DOUBLE -> FLOATING;
+                case Types.BIT, Types.BOOLEAN -> BOOLEAN;
+                case Types.DATE -> DATE;
+                case Types.TIME -> TIME;
+                case Types.TIMESTAMP -> TIMESTAMP;
+                case Types.BINARY, Types.VARBINARY, Types.LONGVARBINARY, Types.BLOB -> BINARY;
+                default -> TEXT;
+            };
+        }
+    }
+}
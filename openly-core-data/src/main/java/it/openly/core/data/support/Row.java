@@ -0,0 +1,324 @@
+package it.openly.core.data.support;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * A compact representation of a row, as an alternative to the {@link LinkedCaseInsensitiveMap LinkedCaseInsensitiveMap}
+ * produced by spring's {@link org.springframework.jdbc.core.ColumnMapRowMapper ColumnMapRowMapper}.<br/>
+ * All the rows of a result share the same immutable index of the column names, each row only holding an array with
+ * its values. Keys are case-insensitive and keep the order of the columns, as with ColumnMapRowMapper.<br/>
+ * Values of existing columns can be replaced in place. Adding or removing keys is supported too, but turns the row
+ * into a regular LinkedCaseInsensitiveMap, losing the compact representation.
+ *
+ * @author filippo.possenti
+ */
+public final class Row extends AbstractMap<String, Object> implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final Columns columns;
+    private final Object[] values;
+    private LinkedCaseInsensitiveMap<Object> detached;
+
+    private Row(Columns columns, Object[] values) {
+        this.columns = columns;
+        this.values = values;
+    }
+
+    /**
+     * Returns a RowMapper producing compact rows. The RowMapper indexes the columns of the first row it maps, and is
+     * therefore meant to be used for a single result.
+     * @return The RowMapper
+     */
+    public static RowMapper<Map<String, Object>> rowMapper() {
+        return new RowMapper<>() {
+            private Columns columns;
+
+            @Override
+            public Map<String, Object> mapRow(ResultSet rs, int rowNum) throws SQLException {
+                if (columns == null) {
+                    columns = new Columns(rs.getMetaData());
+                }
+                int[] sources = columns.sources;
+                Object[] values = new Object[sources.length];
+                for (int i = 0; i < sources.length; i++) {
+                    values[i] = JdbcUtils.getResultSetValue(rs, sources[i]);
+                }
+                return new Row(columns, values);
+            }
+        };
+    }
+
+    /**
+     * Returns a copy of the row, sharing the index of the column names with it. Changes to either row don't affect the
+     * other one.
+     * @return The copy
+     */
+    public Row copy() {
+        Row copy = new Row(columns, values.clone());
+        if (detached != null) {
+            copy.detached = detached.clone();
+        }
+        return copy;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (detached != null) {
+            return detached.get(key);
+        }
+        int index = columns.indexOf(key);
+        return index < 0 ? null : values[index];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return detached != null ? detached.containsKey(key) : columns.indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        if (detached == null) {
+            int index = columns.indexOf(key);
+            if (index >= 0) {
+                Object previous = values[index];
+                values[index] = value;
+                return previous;
+            }
+        }
+        return detach().put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return containsKey(key) ? detach().remove(key) : null;
+    }
+
+    @Override
+    public void clear() {
+        detach().clear();
+    }
+
+    @Override
+    public int size() {
+        return detached != null ? detached.size() : values.length;
+    }
+
+    /**
+     * Returns the keys of the row which, like the row itself, are case-insensitive.
+     */
+    @Override
+    public Set<String> keySet() {
+        if (detached != null) {
+            return detached.keySet();
+        }
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<String> iterator() {
+                Iterator<Entry<String, Object>> entries = entrySet().iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        return entries.next().getKey();
+                    }
+
+                    @Override
+                    public void remove() {
+                        entries.remove();
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                if (!containsKey(o)) {
+                    return false;
+                }
+                Row.this.remove(o);
+                return true;
+            }
+
+            @Override
+            public int size() {
+                return Row.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        if (detached != null) {
+            return detached.entrySet();
+        }
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                if (detached != null) {
+                    return detached.entrySet().iterator();
+                }
+                return new Iterator<>() {
+                    private int next;
+                    private Iterator<Entry<String, Object>> delegate;
+
+                    @Override
+                    public boolean hasNext() {
+                        return delegate != null ? delegate.hasNext() : next < values.length;
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (delegate != null) {
+                            return delegate.next();
+                        }
+                        if (next >= values.length) {
+                            throw new NoSuchElementException();
+                        }
+                        return new ColumnEntry(next++);
+                    }
+
+                    /**
+                     * Detaches the row, continuing the iteration on the detached map from the current position.
+                     */
+                    @Override
+                    public void remove() {
+                        if (delegate == null) {
+                            if (next == 0) {
+                                throw new IllegalStateException();
+                            }
+                            delegate = detach().entrySet().iterator();
+                            for (int i = 0; i < next; i++) {
+                                delegate.next();
+                            }
+                        }
+                        delegate.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return Row.this.size();
+            }
+        };
+    }
+
+    private LinkedCaseInsensitiveMap<Object> detach() {
+        if (detached == null) {
+            LinkedCaseInsensitiveMap<Object> map = new LinkedCaseInsensitiveMap<>(values.length + 4);
+            for (int i = 0; i < values.length; i++) {
+                map.put(columns.names[i], values[i]);
+            }
+            detached = map;
+        }
+        return detached;
+    }
+
+    private final class ColumnEntry implements Entry<String, Object> {
+        private final int index;
+
+        private ColumnEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return columns.names[index];
+        }
+
+        @Override
+        public Object getValue() {
+            return detached != null ? detached.get(getKey()) : values[index];
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            if (detached != null) {
+                return detached.put(getKey(), value);
+            }
+            Object previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry<?, ?> e && Objects.equals(getKey(), e.getKey()) && Objects.equals(getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    /**
+     * The column index shared by all the rows of a result. When several columns have the same name, as with
+     * ColumnMapRowMapper the last one wins.
+     */
+    private static final class Columns implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final Locale locale = Locale.getDefault();
+        private final String[] names;
+        private final int[] sources;
+        private final Map<String, Integer> positions = new HashMap<>();
+        private final Map<String, Integer> caseInsensitivePositions = new HashMap<>();
+
+        private Columns(ResultSetMetaData metaData) throws SQLException {
+            int columnCount = metaData.getColumnCount();
+            List<String> distinctNames = new ArrayList<>(columnCount);
+            List<Integer> distinctSources = new ArrayList<>(columnCount);
+            for (int column = 1; column <= columnCount; column++) {
+                String name = JdbcUtils.lookupColumnName(metaData, column);
+                Integer position = caseInsensitivePositions.get(name.toLowerCase(locale));
+                if (position != null) {
+                    distinctSources.set(position, column);
+                }
+                else {
+                    caseInsensitivePositions.put(name.toLowerCase(locale), distinctNames.size());
+                    positions.put(name, distinctNames.size());
+                    distinctNames.add(name);
+                    distinctSources.add(column);
+                }
+            }
+            this.names = distinctNames.toArray(new String[0]);
+            this.sources = distinctSources.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        private int indexOf(Object key) {
+            if (!(key instanceof String name)) {
+                return -1;
+            }
+            Integer position = positions.get(name);
+            if (position == null) {
+                position = caseInsensitivePositions.get(name.toLowerCase(locale));
+            }
+            return position == null ? -1 : position;
+        }
+    }
+}
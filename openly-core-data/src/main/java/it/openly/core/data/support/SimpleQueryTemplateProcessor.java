@@ -3,12 +3,9 @@ package it.openly.core.data.support;
 import it.openly.core.data.ITemplateProcessor;
 import it.openly.core.data.ProcessedTemplate;
 import lombok.NonNull;
-import lombok.SneakyThrows;
 
-import java.io.BufferedReader;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.util.*;
+import java.util.List;
+import java.util.Map;
 
 /**
  * A simple Sql Template Processor implementing some very basic and yet flexible processing.
@@ -66,28 +63,62 @@ import java.util.*;
  * :key5<br/>
  * When the query is passed a Map that contains a key "key5" and its value is an array or a list, the variable is
  * replaced with one key for each value contained in the array/list, concatenated through a comma. The corresponding
- * keys are automatically added to the resulting context.<br/>
- * For example, if the array contained two elements, the replaced value would be ":key5_0, key5_1".<br/>
+ * keys are automatically added to the resulting context, a {@link LayeredContext LayeredContext} overlay that leaves
+ * the supplied Map untouched.<br/>
+ * For example, if the array contained two elements, the replaced value would be ":key5_0, :key5_1".<br/>
+ * <br/>
+ * <b>Array padding</b><br/>
+ * -- PRAGMA:IN_LIST_PADDING=16 --<br/>
+ * As every array size produces a different query, with its own parsing and execution plan on the database side, the
+ * query may opt-in for padding: arrays having more elements than the specified threshold are expanded to the next
+ * power of two, repeating the last value. Omitting the threshold (-- PRAGMA:IN_LIST_PADDING --) pads all arrays.<br/>
+ * <br/>
+ * <b>Query settings</b><br/>
+ * -- PRAGMA:FETCH_SIZE=500 -- -- PRAGMA:MAX_ROWS=1000 -- -- PRAGMA:QUERY_TIMEOUT=30 --<br/>
+ * The fetch size, the maximum number of rows and the timeout in seconds the query is executed with when it's created
+ * by a {@link it.openly.core.data.QueryFactory QueryFactory}.<br/>
+ * <br/>
+ * <b>Result caching</b><br/>
+ * -- PRAGMA:READS=customers,orders -- -- PRAGMA:WRITES=orders --<br/>
+ * The tables read and written by the query, used by the {@link QueryResultCache QueryResultCache} of a
+ * {@link it.openly.core.data.QueryFactory QueryFactory} to cache its results and to invalidate them.<br/>
+ * <br/>
+ * <b>Read routing</b><br/>
+ * -- PRAGMA:READ_FROM_PRIMARY --<br/>
+ * Keeps the query on the primary database even when the {@link it.openly.core.data.QueryFactory QueryFactory} has
+ * {@link ReadReplicas ReadReplicas}, for reads that must see the latest data.<br/>
  *
  * @author filippo.possenti
  */
 public class SimpleQueryTemplateProcessor implements ITemplateProcessor {
-    private static final String COMMENT_START = "-- ";
-    private static final String COMMENT_START_NEGATIVE = "-- !";
-    private static final String COMMENT_START_INJECT = "-- =";
-    private static final String COMMENT_END = " --";
-    private static final String NAMED_PARAMETER_START = ":";
-
-    private static final int MAX_REPLACEMENTS = 10;
+    private static final int DEFAULT_MAX_COMPILED_TEMPLATES = 1000;
+    private static final int DEFAULT_MAX_SHAPES_PER_TEMPLATE = 64;
 
     private final boolean removeEmptyLines;
+    private final int maxShapesPerTemplate;
+    private final BoundedCache<String, CompiledQueryTemplate> compiledTemplates;
 
-    public SimpleQueryTemplateProcessor(boolean removeEmptyLines) {
+    /**
+     * Creates an instance of the class, keeping up to the specified number of compiled templates and, for each of
+     * them, up to the specified number of rendered texts.
+     * @param removeEmptyLines Whether lines that end up being blank are to be removed from the resulting text.
+     * @param maxCompiledTemplates The maximum number of compiled templates kept in memory.
+     * @param maxShapesPerTemplate The maximum number of rendered texts kept for each template, one for each distinct shape of the context.
+     */
+    public SimpleQueryTemplateProcessor(boolean removeEmptyLines, int maxCompiledTemplates, int maxShapesPerTemplate) {
         this.removeEmptyLines = removeEmptyLines;
+        this.maxShapesPerTemplate = maxShapesPerTemplate;
+        this.compiledTemplates = new BoundedCache<>(maxCompiledTemplates);
+    }
+
+    public SimpleQueryTemplateProcessor(boolean removeEmptyLines) {
+        this(removeEmptyLines, DEFAULT_MAX_COMPILED_TEMPLATES, DEFAULT_MAX_SHAPES_PER_TEMPLATE);
     }
 
     /**
-     * Processes a template
+     * Processes a template. The template is parsed only the first time it's encountered, subsequent calls reusing
+     * its compiled form. Contexts having the same shape (same keys, same null values, same matched values, same array
+     * sizes) also share the same resulting text, which is produced and parsed for named parameters only once.
      * @param templateText The template text
      * @param context A {@link java.util.Map Map} object containing the variables that will drive the template's processing
      * @return The processed text
@@ -95,145 +126,27 @@ public class SimpleQueryTemplateProcessor implements ITemplateProcessor {
     @Override
     public final ProcessedTemplate processTemplate(@NonNull String templateText, Map<String, Object> context) {
         ProcessedTemplate processedTemplate = new ProcessedTemplate();
-        context = new HashMap<>(context);
-        String[] queryLines = templateText.split("\n");
-        boolean enableInject = templateText.contains("-- PRAGMA:ENABLE_INJECT --");
-        for(int i = 0; i <queryLines.length; i++) {
-            queryLines[i] = replaceTokenFromAllContexts(enableInject, queryLines[i], context);
-        }
-        String sql = String.join("\n", queryLines);
-        if (removeEmptyLines) {
-            sql = removeEmptyLines(sql);
-        }
-        processedTemplate.setSql(sql);
+        context = LayeredContext.of(context);
+        CompiledQueryTemplate compiledTemplate = compile(templateText);
+        CompiledQueryTemplate.RenderedQuery rendered = compiledTemplate.render(context);
+        processedTemplate.setSql(rendered.sql());
+        processedTemplate.setParsedSql(rendered.parsedSql());
+        processedTemplate.setPragmas(compiledTemplate.getPragmas());
         processedTemplate.setContext(context);
         return processedTemplate;
     }
 
-    private String replaceTokenFromAllContexts(boolean enableInject, String line, Map<String, Object> context) {
-        final TokenDeactivator td = new TokenDeactivator(line);
-        context.forEach(td::evaluate);
-        td.evaluateNegative(context);
-        td.evaluateArrayExpansion(context);
-        if(enableInject) {
-            td.evaluateInjection(context);
-        }
-        return td.getResult();
-    }
-
-    @SneakyThrows
-    private String removeEmptyLines(String instr) {
-        BufferedReader rdr = new BufferedReader(new StringReader(instr));
-        StringWriter wtr = new StringWriter();
-        String line;
-        boolean line1 = true;
-        while ((line = rdr.readLine()) != null) {
-            String l = line.trim();
-            if (!"".equals(l)) {
-                if(!line1) {
-                    wtr.write(System.lineSeparator());
-                }
-                line1 = false;
-                wtr.write(line);
-            }
-        }
-        return wtr.toString();
+    /**
+     * Compiles the template ahead of its processing.
+     * @param templateText The template text
+     * @return The list of problems found in the template, such as blocks that are not terminated.
+     */
+    @Override
+    public List<String> prepareTemplate(@NonNull String templateText) {
+        return compile(templateText).getProblems();
     }
 
-    private static class TokenDeactivator {
-        private String result;
-        TokenDeactivator(String result) {
-            this.result = result;
-        }
-
-        void evaluateNegative(Map<String, Object> context) {
-            int start = result.indexOf(COMMENT_START_NEGATIVE);
-            if(start < 0) {
-                return;
-            }
-            int end = result.indexOf(COMMENT_END, start + COMMENT_START_NEGATIVE.length());
-            String key = result.substring(start + COMMENT_START_NEGATIVE.length(), end).trim();
-            if(!context.containsKey(key)) {
-                result = result.substring(0, start) + result.substring(end + COMMENT_END.length());
-            }
-        }
-
-        void evaluateInjection(Map<String, Object> context) {
-            int remaining = MAX_REPLACEMENTS;
-            while(--remaining >= 0) {
-                int start = result.indexOf(COMMENT_START_INJECT);
-                if (start < 0) {
-                    return;
-                }
-                int end = result.indexOf(COMMENT_END, start + COMMENT_START_INJECT.length());
-                String key = result.substring(start + COMMENT_START_INJECT.length(), end).trim();
-                if (context.containsKey(key)) {
-                    result = result.substring(0, start) + context.get(key) + result.substring(end + COMMENT_END.length());
-                }
-            }
-        }
-
-        void evaluateArrayExpansion(Map<String, Object> context) {
-            if(!result.contains(NAMED_PARAMETER_START)) {
-                return;
-            }
-            Map<String, Object> ctx = new HashMap<>();
-            context.forEach((key, value) -> {
-                if(result.contains(NAMED_PARAMETER_START + key)) {
-                    getArrayExpansionSourceCollection(value).ifPresent(list -> applyArrayExpansionReplacement(ctx, key, list));
-                }
-            });
-            context.putAll(ctx);
-        }
-
-        private void applyArrayExpansionReplacement(Map<String, Object> ctx, String key, List<?> list) {
-            StringBuilder replacement = new StringBuilder();
-            int count = list.size();
-            for(int i = 0; i < count; i++) {
-                String indexedKey = key + "_" + i;
-                ctx.put(indexedKey, list.get(i));
-                if(i > 0) {
-                    replacement.append(", ");
-                }
-                replacement.append(NAMED_PARAMETER_START);
-                replacement.append(indexedKey);
-            }
-
-            result = result.replace(NAMED_PARAMETER_START + key, replacement.toString());
-        }
-
-        void evaluate(String key, Object value) {
-            if(value != null) {
-                result = result.replace(COMMENT_START + key + NAMED_PARAMETER_START + value + COMMENT_END, "");
-            }
-            else {
-                result = result.replace(COMMENT_START + key + " is null" + COMMENT_END, "");
-            }
-            result = result.replace(COMMENT_START + key + COMMENT_END, "");
-        }
-
-        String getResult() {
-            return result;
-        }
-
-        private Optional<List<?>> getArrayExpansionSourceCollection(Object value) {
-            if(value == null) {
-                return Optional.empty();
-            }
-            else if(value.getClass().isArray()) {
-                return Optional.of(Arrays.asList((Object[]) value));
-            }
-            else if(value instanceof List<?> list) {
-                return Optional.of(list);
-            }
-            else if(value instanceof Collection<?> collection) {
-                return Optional.of(collection.stream().toList());
-            }
-            else {
-                return Optional.of(List.of(value));
-            }
-        }
-
-
+    CompiledQueryTemplate compile(String templateText) {
+        return compiledTemplates.computeIfAbsent(templateText, text -> CompiledQueryTemplate.compile(text, removeEmptyLines, maxShapesPerTemplate));
     }
 }
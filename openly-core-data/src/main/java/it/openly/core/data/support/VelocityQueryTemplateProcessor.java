@@ -2,29 +2,63 @@ package it.openly.core.data.support;
 
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import it.openly.core.data.ITemplateProcessor;
 import it.openly.core.data.ProcessedTemplate;
 import lombok.NonNull;
 import lombok.SneakyThrows;
+import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.exception.ParseErrorException;
+import org.apache.velocity.exception.TemplateInitException;
+import org.apache.velocity.runtime.RuntimeInstance;
+import org.apache.velocity.runtime.parser.ParseException;
 
 /**
- * ITemplateProcessor implementation backed by Velocity
+ * ITemplateProcessor implementation backed by Velocity.<br/>
+ * When backed by a {@link RuntimeInstance RuntimeInstance} (the default), each template text is parsed only once and
+ * the parsed {@link Template Template} is kept in a bounded cache, so that only the merge step runs for each query.
+ * When backed by a {@link VelocityEngine VelocityEngine} the template is evaluated, and therefore parsed, on each call.<br/>
+ * Pragmas such as -- PRAGMA:FETCH_SIZE=500 -- are collected from the resulting text, so that they can be emitted
+ * conditionally.
  *
  * @author filippo.possenti
  */
 public class VelocityQueryTemplateProcessor implements ITemplateProcessor {
+	private static final int DEFAULT_MAX_CACHED_TEMPLATES = 1000;
+	private static final String TEMPLATE_NAME = "template";
+
 	private final VelocityEngine velocityEngine;
+	private final RuntimeInstance runtimeInstance;
+	private final BoundedCache<String, Template> parsedTemplates;
 
 	public VelocityQueryTemplateProcessor(VelocityEngine velocityEngine) {
 		this.velocityEngine = velocityEngine;
+		this.runtimeInstance = null;
+		this.parsedTemplates = null;
+	}
+
+	/**
+	 * Creates an instance of the class that caches parsed templates.
+	 * @param runtimeInstance The Velocity runtime used to parse and merge the templates.
+	 * @param maxCachedTemplates The maximum number of parsed templates kept in memory.
+	 */
+	public VelocityQueryTemplateProcessor(@NonNull RuntimeInstance runtimeInstance, int maxCachedTemplates) {
+		this.velocityEngine = null;
+		this.runtimeInstance = runtimeInstance;
+		this.parsedTemplates = new BoundedCache<>(maxCachedTemplates);
 	}
-	
+
+	public VelocityQueryTemplateProcessor(RuntimeInstance runtimeInstance) {
+		this(runtimeInstance, DEFAULT_MAX_CACHED_TEMPLATES);
+	}
+
 	public VelocityQueryTemplateProcessor() {
-		this(new VelocityEngine());
+		this(new RuntimeInstance());
 	}
 
 	/**
@@ -37,13 +71,53 @@ public class VelocityQueryTemplateProcessor implements ITemplateProcessor {
 	@SneakyThrows
 	public ProcessedTemplate processTemplate(@NonNull String templateText, Map<String, Object> context) {
 		ProcessedTemplate processedTemplate = new ProcessedTemplate();
-		try(StringWriter writer = new StringWriter();
-			StringReader reader = new StringReader(templateText)
-		) {
-			velocityEngine.evaluate(new VelocityContext(context), writer, "template", reader);
+		try(StringWriter writer = new StringWriter()) {
+			if (velocityEngine != null) {
+				try (StringReader reader = new StringReader(templateText)) {
+					velocityEngine.evaluate(new VelocityContext(context), writer, TEMPLATE_NAME, reader);
+				}
+			}
+			else {
+				parsedTemplates.computeIfAbsent(templateText, this::parse).merge(new VelocityContext(context), writer);
+			}
 			processedTemplate.setSql(writer.toString());
+			processedTemplate.setPragmas(CompiledQueryTemplate.collectPragmas(processedTemplate.getSql(), new HashMap<>()));
 			processedTemplate.setContext(context);
 			return processedTemplate;
 		}
 	}
+
+	/**
+	 * Parses the template ahead of its processing. Templates can only be parsed in advance when the instance is
+	 * backed by a {@link RuntimeInstance RuntimeInstance}.
+	 * @param templateText The template text
+	 * @return The list of problems found in the template
+	 */
+	@Override
+	public List<String> prepareTemplate(@NonNull String templateText) {
+		if (parsedTemplates == null) {
+			return List.of();
+		}
+		try {
+			parsedTemplates.computeIfAbsent(templateText, this::parse);
+			return List.of();
+		}
+		catch (ParseErrorException | TemplateInitException e) {
+			return List.of(e.getMessage());
+		}
+	}
+
+	private Template parse(String templateText) {
+		Template template = new Template();
+		template.setRuntimeServices(runtimeInstance);
+		template.setName(TEMPLATE_NAME);
+		try (StringReader reader = new StringReader(templateText)) {
+			template.setData(runtimeInstance.parse(reader, template));
+		}
+		catch (ParseException e) {
+			throw new ParseErrorException(e, TEMPLATE_NAME);
+		}
+		template.initDocument();
+		return template;
+	}
 }
@@ -1,6 +1,11 @@
 package it.openly.core.data;
 
 import com.zaxxer.hikari.HikariDataSource;
+import it.openly.core.data.support.DataSourceBulkhead;
+import it.openly.core.data.support.QueryResultCache;
+import it.openly.core.data.support.ReadReplicas;
+import it.openly.core.data.support.VelocityQueryTemplateProcessor;
+import it.openly.core.io.OutputStreamWithDigest;
 import it.openly.core.test.TestUtils;
 import it.openly.core.test.pojos.CoolPerson;
 import lombok.SneakyThrows;
@@ -12,19 +17,53 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.jdbc.IncorrectResultSetColumnCountException;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.ParameterMetaData;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
 
 
 @ExtendWith(MockitoExtension.class)
@@ -134,6 +173,75 @@ class QueryFactoryTest {
         assertEquals(expectedResults, actualResults);
     }
 
+    @Test
+    @DisplayName("queryForLongArray, queryForIntArray, queryForDoubleArray: read a single column into primitive arrays")
+    void testQueryForPrimitiveArrays() {
+        // given
+        long[] expectedIds = people.stream().mapToLong(m -> ((Number) m.get("IDX")).longValue()).toArray();
+
+        // when
+        long[] ids = queryFactory.createQueryFromTemplate("select idx from \"cool_people\" order by idx").queryForLongArray();
+        int[] intIds = queryFactory.createQueryFromTemplate("select idx from \"cool_people\" order by idx").queryForIntArray();
+        double[] doubleIds = queryFactory.createQueryFromTemplate("select idx from \"cool_people\" order by idx").queryForDoubleArray();
+        long[] none = queryFactory.createQueryFromTemplate("select idx from \"cool_people\" where 1 = 0").queryForLongArray();
+        Map<String, Object> does = TestUtils.map("LAST_NAME", "Doe");
+        long[] counts = queryFactory.queryForLongArray("count.sql", does);
+        int[] intCounts = queryFactory.queryForIntArray("count.sql", does);
+        double[] doubleCounts = queryFactory.queryForDoubleArray("count.sql", does);
+
+        // then
+        assertArrayEquals(expectedIds, ids);
+        assertArrayEquals(Arrays.stream(expectedIds).mapToInt(id -> (int) id).toArray(), intIds);
+        assertArrayEquals(Arrays.stream(expectedIds).asDoubleStream().toArray(), doubleIds);
+        assertEquals(0, none.length);
+        assertArrayEquals(new long[] {2}, counts);
+        assertArrayEquals(new int[] {2}, intCounts);
+        assertArrayEquals(new double[] {2}, doubleCounts);
+    }
+
+    @Test
+    @DisplayName("queryForLongStream, queryForIntStream, queryForDoubleStream: stream a single column lazily")
+    void testQueryForPrimitiveStreams() {
+        // given
+        long[] expectedIds = people.stream().mapToLong(m -> ((Number) m.get("IDX")).longValue()).toArray();
+        Map<String, Object> does = TestUtils.map("LAST_NAME", "Doe");
+
+        // when
+        long[] ids;
+        long count;
+        int intCount;
+        double doubleCount;
+        try (LongStream stream = queryFactory.createQueryFromTemplate("select idx from \"cool_people\" order by idx").queryForLongStream()) {
+            ids = stream.toArray();
+        }
+        try (LongStream stream = queryFactory.queryForLongStream("count.sql", does)) {
+            count = stream.sum();
+        }
+        try (IntStream stream = queryFactory.queryForIntStream("count.sql", does)) {
+            intCount = stream.sum();
+        }
+        try (DoubleStream stream = queryFactory.queryForDoubleStream("count.sql", does)) {
+            doubleCount = stream.sum();
+        }
+
+        // then
+        assertArrayEquals(expectedIds, ids);
+        assertEquals(2, count);
+        assertEquals(2, intCount);
+        assertEquals(2, doubleCount);
+    }
+
+    @Test
+    @DisplayName("queryForLongArray: rejects results having more than one column")
+    void testQueryForPrimitiveArrayRejectsMultipleColumns() {
+        // given
+        Query query = queryFactory.createQueryFromTemplate("select idx, rating from \"cool_people\"");
+
+        // when
+        // then
+        assertThrows(IncorrectResultSetColumnCountException.class, query::queryForLongArray);
+    }
+
     @Test
     @DisplayName("queryForMap: applies correct filter and returns a Map with correct values")
     void testQueryForMap() {
@@ -273,4 +381,736 @@ class QueryFactoryTest {
         assertEquals(rating, ((Number)actualValue.get("RATING")).doubleValue());
     }
 
+    @Test
+    @DisplayName("stream: applies correct filter and streams beans of the desired type")
+    void testStream() {
+        // given
+        String lastName = "Doe";
+        List<Object> expectedResults = people.stream().filter(m -> m.get("LAST_NAME").equals(lastName)).map(m -> m.get("FIRST_NAME")).collect(Collectors.toList());
+
+        // when
+        List<Object> actualResults;
+        try (Stream<CoolPerson> results = queryFactory.stream("list.sql", CoolPerson.class, TestUtils.map("LAST_NAME", lastName))) {
+            actualResults = results.map(CoolPerson::getFirstName).collect(Collectors.toList());
+        }
+        List<Object> actualRows;
+        try (Stream<Map<String, Object>> rows = queryFactory.stream("list.sql", TestUtils.map("LAST_NAME", lastName))) {
+            actualRows = rows.map(row -> row.get("FIRST_NAME")).collect(Collectors.toList());
+        }
+
+        // then
+        assertEquals(expectedResults, actualResults);
+        assertEquals(expectedResults, actualRows);
+    }
+
+    @Test
+    @DisplayName("createQueryFromTemplate: applies the query settings declared through pragmas")
+    void testQuerySettingPragmas() {
+        // given
+        String template = "-- PRAGMA:MAX_ROWS=2 -- -- PRAGMA:FETCH_SIZE=1 -- -- PRAGMA:QUERY_TIMEOUT=10 --\nselect * from \"cool_people\" order by idx";
+
+        // when
+        List<Map<String, Object>> limited = queryFactory.createQueryFromTemplate(template).queryForList();
+        List<Map<String, Object>> overridden = queryFactory.createQueryFromTemplate(template).maxRows(3).queryForList();
+
+        // then
+        assertEquals(2, limited.size());
+        assertEquals(3, overridden.size());
+        assertThrows(IllegalArgumentException.class, () -> queryFactory.createQueryFromTemplate("-- PRAGMA:MAX_ROWS=many --\nselect * from \"cool_people\""));
+        assertThrows(IllegalArgumentException.class, () -> queryFactory.createQueryFromTemplate("-- PRAGMA:FETCH_SIZE=-5 --\nselect * from \"cool_people\""));
+    }
+
+    @Test
+    @DisplayName("prepareQueries: prepares all the available queries and reports the ones having problems")
+    void testPrepareQueries() {
+        // given
+        String invalidQuery = "invalid.sql";
+
+        // when
+        Map<String, List<String>> problems = queryFactory.prepareQueries();
+
+        // then
+        assertEquals(Set.of(invalidQuery), problems.keySet());
+        assertEquals(1, problems.get(invalidQuery).size());
+        assertTrue(problems.get(invalidQuery).get(0).contains("not terminated"));
+    }
+
+    @Test
+    @DisplayName("prepareQueries: reports the queries declaring values their execution would be rejected for")
+    void testPrepareQueriesInvalidPragmas() {
+        // given
+        Map<String, String> templates = Map.of(
+                "negative.sql", "-- PRAGMA:FETCH_SIZE=-5 --\nselect * from \"cool_people\"",
+                "valid.sql", "-- PRAGMA:FETCH_SIZE=5 --\nselect * from \"cool_people\"");
+        IQueryResourceLoader loader = new IQueryResourceLoader() {
+            @Override
+            public String loadQuery(DataSource dataSource, String namedQuery) {
+                return templates.get(namedQuery);
+            }
+
+            @Override
+            public List<String> listQueries(DataSource dataSource) {
+                return List.copyOf(templates.keySet());
+            }
+        };
+        QueryFactory velocityQueryFactory = new QueryFactory(dataSource, new VelocityQueryTemplateProcessor(), loader);
+
+        // when
+        Map<String, List<String>> problems = velocityQueryFactory.prepareQueries();
+
+        // then
+        assertEquals(Map.of("negative.sql", List.of("Invalid value '-5' for PRAGMA:FETCH_SIZE, a non-negative integer is expected.")), problems);
+        assertThrows(IllegalArgumentException.class, () -> velocityQueryFactory.createQuery("negative.sql"));
+    }
+
+    @Test
+    @DisplayName("createQueryFromTemplate: later contexts take precedence and null values are supported")
+    void testCreateQueryFromTemplateWithLayeredContexts() {
+        // given
+        String template = "select count(*) from \"cool_people\" where last_name = :LAST_NAME\n-- RATING is null -- and 1 = 0";
+        Map<String, Object> defaults = TestUtils.map("LAST_NAME", "Doherty");
+        Map<String, Object> filter = TestUtils.map("LAST_NAME", "Doe");
+        Map<String, Object> nullRating = TestUtils.map("RATING", null);
+
+        // when
+        int overridden = queryFactory.createQueryFromTemplate(template, defaults, filter).queryForInt();
+        int withNullRating = queryFactory.createQueryFromTemplate(template, defaults, filter, nullRating).queryForInt();
+
+        // then
+        assertEquals(2, overridden);
+        assertEquals(0, withNullRating);
+        assertEquals(Map.of("LAST_NAME", "Doe"), filter);
+    }
+
+    @Test
+    @DisplayName("batchUpdate: groups the rows by resulting statement and sends them in chunks")
+    void testBatchUpdate() {
+        // given
+        queryFactory.createQueryFromTemplate("create table batch_people (idx integer, first_name varchar(100))").execute();
+        String template = "insert into batch_people (idx, first_name)\n-- FIRST_NAME -- values (:IDX, :FIRST_NAME)\n-- !FIRST_NAME -- values (:IDX, 'unnamed')";
+        List<Map<String, Object>> rows = List.of(
+                TestUtils.map("IDX", 1, "FIRST_NAME", "John"),
+                TestUtils.map("IDX", 2, "FIRST_NAME", "Jane"),
+                TestUtils.map("IDX", 3),
+                TestUtils.map("IDX", 4, "FIRST_NAME", "Mary"),
+                TestUtils.map("IDX", 5, "FIRST_NAME", "Mark"),
+                TestUtils.map("IDX", 6),
+                TestUtils.map("IDX", 7, "FIRST_NAME", "Anne"));
+
+        // when
+        List<int[]> results = queryFactory.batchUpdateFromTemplate(template, rows.stream(), 2);
+
+        // then
+        assertEquals(List.of(2, 1, 2, 1, 1), results.stream().map(chunk -> chunk.length).collect(Collectors.toList()));
+        assertEquals(7, queryFactory.createQueryFromTemplate("select count(*) from batch_people").queryForInt());
+        assertEquals(2, queryFactory.createQueryFromTemplate("select count(*) from batch_people where first_name = 'unnamed'").queryForInt());
+        assertEquals("Anne", queryFactory.createQueryFromTemplate("select first_name from batch_people where idx = 7").queryForObject(String.class));
+        assertEquals(1, queryFactory.batchUpdate("update.sql", List.of(TestUtils.map("IDX", 2, "RATING", 6.15))).get(0)[0]);
+        assertThrows(IllegalArgumentException.class, () -> queryFactory.batchUpdateFromTemplate(template, rows.stream(), 0));
+    }
+
+    @Test
+    @DisplayName("batchUpdateFromTemplate: rows are executed in the order they're supplied in, even when the SQL changes")
+    void testBatchUpdateOrder() {
+        // given
+        queryFactory.createQueryFromTemplate("create table batch_log (idx integer, state varchar(10))").execute();
+        String template = "-- !STATE -- insert into batch_log (idx, state) values (:IDX, 'new')\n-- STATE -- update batch_log set state = :STATE where idx = :IDX";
+        List<Map<String, Object>> rows = List.of(
+                TestUtils.map("IDX", 1),
+                TestUtils.map("IDX", 1, "STATE", "updated"),
+                TestUtils.map("IDX", 2),
+                TestUtils.map("IDX", 3),
+                TestUtils.map("IDX", 3, "STATE", "updated"));
+
+        // when
+        List<int[]> results = queryFactory.batchUpdateFromTemplate(template, rows.stream(), 10);
+
+        // then
+        assertEquals(List.of(1, 1, 2, 1), results.stream().map(chunk -> chunk.length).collect(Collectors.toList()));
+        assertEquals(List.of("updated", "new", "updated"), queryFactory.createQueryFromTemplate("select state from batch_log order by idx").queryForList().stream().map(row -> row.get("STATE")).collect(Collectors.toList()));
+    }
+
+    @Test
+    @DisplayName("batchUpdate: the pragmas of the statement are applied, invalidating the cached results of the written tables")
+    void testBatchUpdateInvalidatesCache() {
+        // given
+        QueryResultCache cache = new QueryResultCache(100, 1000, Duration.ofMinutes(1));
+        queryFactory.setResultCache(cache);
+        String read = "-- PRAGMA:READS=cool_people --\nselect first_name from \"cool_people\" where idx = :IDX";
+        String before = queryFactory.createQueryFromTemplate(read, TestUtils.map("IDX", 4)).queryForObject(String.class);
+
+        // when
+        queryFactory.batchUpdate("rename.sql", List.of(TestUtils.map("IDX", 4, "FIRST_NAME", "Louise")));
+        String after = queryFactory.createQueryFromTemplate(read, TestUtils.map("IDX", 4)).queryForObject(String.class);
+        queryFactory.batchUpdate("rename.sql", List.of(TestUtils.map("IDX", 4, "FIRST_NAME", before)));
+
+        // then
+        assertEquals("Louise", after);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    @DisplayName("iterate: partitions by key are iterated concurrently, delivering every row once")
+    void testIteratePartitionedByKey() {
+        // given
+        Set<Object> expectedIds = people.stream().map(m -> m.get("IDX")).collect(Collectors.toSet());
+        Queue<Object> actualIds = new ConcurrentLinkedQueue<>();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+
+        // when
+        queryFactory.iterate("partitioned.sql", Partitioning.byKey(3), row -> {
+            actualIds.add(row.get("IDX"));
+            threads.add(Thread.currentThread().getName());
+        });
+
+        // then
+        assertEquals(expectedIds.size(), actualIds.size());
+        assertEquals(expectedIds, Set.copyOf(actualIds));
+        String caller = Thread.currentThread().getName();
+        assertTrue(threads.stream().allMatch(name -> name.equals(caller) || name.startsWith("db-bulkhead-")));
+    }
+
+    @Test
+    @DisplayName("iterate: partitions run outside of the caller's transaction, and inline when called from the bulkhead")
+    @SneakyThrows
+    void testIteratePartitionedOnBulkhead() {
+        // given
+        DataSource singleSlot = new DelegatingDataSource(dataSource);
+        DataSourceBulkhead bulkhead = DataSourceBulkhead.of(singleSlot, 1);
+        QueryFactory singleSlotQueryFactory = new QueryFactory(singleSlot);
+        Set<Boolean> inTransaction = ConcurrentHashMap.newKeySet();
+        Queue<Object> actualIds = new ConcurrentLinkedQueue<>();
+
+        // when
+        singleSlotQueryFactory.inTransaction(qf -> {
+            qf.iterate("partitioned.sql", Partitioning.byKey(3), row -> inTransaction.add(TransactionSynchronizationManager.isActualTransactionActive()));
+            return null;
+        });
+        CompletableFuture<Boolean> onBulkhead = CompletableFuture.supplyAsync(() -> {
+            singleSlotQueryFactory.iterate("partitioned.sql", Partitioning.byKey(3), actualIds::add);
+            return bulkhead.isCurrentThread();
+        }, bulkhead.getExecutor());
+
+        // then
+        assertEquals(Set.of(false), inTransaction);
+        assertTrue(onBulkhead.get(10, TimeUnit.SECONDS));
+        assertEquals(people.size(), actualIds.size());
+    }
+
+    @Test
+    @DisplayName("iterateByPartition: ranges are split evenly and each partition gets its own callback")
+    void testIteratePartitionedByRange() {
+        // given
+        Map<Integer, List<Integer>> partitions = new ConcurrentHashMap<>();
+
+        // when
+        queryFactory.iterateByPartition("partitioned.sql", CoolPerson.class, Partitioning.byRange(1, 5, 3), partition -> {
+            List<Integer> ids = new ArrayList<>();
+            partitions.put(partition, ids);
+            return person -> ids.add(person.getIdx());
+        });
+
+        // then
+        assertEquals(Map.of(0, List.of(1, 2), 1, List.of(3), 2, List.of(4)), partitions);
+    }
+
+    @Test
+    @DisplayName("iterate: the failure of a partition is rethrown to the caller")
+    void testIteratePartitionedFailure() {
+        // given
+        Partitioning partitioning = Partitioning.byKey(2);
+
+        // when
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> queryFactory.iterate("partitioned.sql", partitioning, row -> {
+            throw new IllegalStateException("Failed on " + row.get("IDX"));
+        }));
+
+        // then
+        assertTrue(e.getMessage().startsWith("Failed on "));
+    }
+
+    @Test
+    @DisplayName("iterate: beans of every partition are delivered to the same callback")
+    void testIteratePartitionedBeans() {
+        // given
+        Set<Integer> expectedIds = people.stream().map(m -> (Integer) m.get("IDX")).collect(Collectors.toSet());
+        Queue<Integer> actualIds = new ConcurrentLinkedQueue<>();
+
+        // when
+        queryFactory.iterate("partitioned.sql", CoolPerson.class, Partitioning.byKey(2), person -> actualIds.add(person.getIdx()));
+
+        // then
+        assertEquals(expectedIds.size(), actualIds.size());
+        assertEquals(expectedIds, Set.copyOf(actualIds));
+    }
+
+    @Test
+    @DisplayName("iterate: an interrupted caller stops waiting for the partitions")
+    void testIteratePartitionedInterrupted() {
+        // given
+        Partitioning partitioning = Partitioning.byKey(2);
+        Thread.currentThread().interrupt();
+
+        // when
+        // then
+        try {
+            assertThrows(InterruptedException.class, () -> queryFactory.iterate("partitioned.sql", partitioning, row -> {}));
+        }
+        finally {
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+    @Test
+    @DisplayName("Partitioning: rejects invalid counts and ranges, and describes itself")
+    void testPartitioning() {
+        // given
+        Partitioning byKey = Partitioning.byKey(3);
+        Partitioning byRange = Partitioning.byRange(1, 5, 2);
+
+        // when
+        // then
+        assertEquals("Partitioning[3 by key]", byKey.toString());
+        assertEquals("Partitioning[2 in 1..5]", byRange.toString());
+        assertThrows(IllegalArgumentException.class, () -> Partitioning.byKey(0));
+        assertThrows(IllegalArgumentException.class, () -> Partitioning.byRange(5, 5, 2));
+        assertThrows(IllegalArgumentException.class, () -> Partitioning.byRange(Long.MIN_VALUE, Long.MAX_VALUE, 2));
+        assertEquals(Long.MAX_VALUE - 1, Partitioning.byRange(-1, Long.MAX_VALUE - 1, 2).context(1).get(Partitioning.PARTITION_TO));
+    }
+
+    @Test
+    @DisplayName("async: runs independent queries concurrently and completes with their results")
+    void testAsync() {
+        // given
+        String lastName = "Doe";
+        List<Map<String, Object>> expectedList = queryFactory.queryForList("list.sql", TestUtils.map("LAST_NAME", lastName));
+        AsyncQueryFactory async = queryFactory.async();
+
+        // when
+        CompletableFuture<List<Map<String, Object>>> list = async.queryForList("list.sql", TestUtils.map("LAST_NAME", lastName));
+        CompletableFuture<Long> count = async.queryForLong("count.sql", TestUtils.map("LAST_NAME", lastName));
+        CompletableFuture<List<CoolPerson>> beans = async.queryForBeans("list.sql", CoolPerson.class, TestUtils.map("LAST_NAME", lastName));
+        CompletableFuture<Map<String, Object>> missing = async.queryForMap("get.sql", TestUtils.map("IDX", -1));
+
+        // then
+        assertEquals(expectedList, list.join());
+        assertEquals(expectedList.size(), count.join());
+        assertEquals(expectedList.size(), beans.join().size());
+        CompletionException e = assertThrows(CompletionException.class, missing::join);
+        assertTrue(e.getCause() instanceof EmptyResultDataAccessException);
+    }
+
+    @Test
+    @DisplayName("async: single values, beans, updates, iterations and executions complete like their synchronous counterparts")
+    void testAsyncSingleValuesAndWrites() {
+        // given
+        AsyncQueryFactory async = queryFactory.async();
+        Map<String, Object> jane = TestUtils.map("IDX", 2, "RATING", 6.15);
+        Queue<Object> iterated = new ConcurrentLinkedQueue<>();
+
+        // when
+        CompletableFuture<Integer> count = async.queryForInt("count.sql", TestUtils.map("LAST_NAME", "Doe"));
+        CompletableFuture<long[]> ids = async.queryForLongArray("count.sql", TestUtils.map("LAST_NAME", "Doe"));
+        CompletableFuture<String> firstName = async.queryForObject("getfield.sql", String.class, jane);
+        CompletableFuture<CoolPerson> bean = async.queryForBean("get.sql", CoolPerson.class, jane);
+        CompletableFuture<Integer> updated = async.update("update.sql", jane);
+        CompletableFuture<List<int[]>> batch = async.batchUpdate("update.sql", List.of(jane));
+        CompletableFuture<Void> iteration = async.iterate("list.sql", row -> iterated.add(row.get("IDX")), TestUtils.map("LAST_NAME", "Doe"));
+        CompletableFuture<Void> execution = async.execute("update.sql", jane);
+
+        // then
+        assertEquals(2, count.join());
+        assertArrayEquals(new long[] {2}, ids.join());
+        assertEquals("Jane", firstName.join());
+        assertEquals("Jane", bean.join().getFirstName());
+        assertEquals(1, updated.join());
+        assertEquals(1, batch.join().get(0)[0]);
+        iteration.join();
+        execution.join();
+        assertEquals(List.of(1, 2), List.copyOf(iterated));
+    }
+
+    @Test
+    @DisplayName("setResultCache: caches the results of templates declaring their reads, invalidated by templates declaring their writes")
+    void testResultCache() {
+        // given
+        QueryResultCache cache = new QueryResultCache(100, 1000, Duration.ofMinutes(1));
+        queryFactory.setResultCache(cache);
+        String read = "-- PRAGMA:READS=cool_people --\nselect first_name from \"cool_people\" where idx = :IDX";
+        String readAll = "-- PRAGMA:READS=cool_people, other_people --\nselect * from \"cool_people\" order by idx";
+        String readBean = "-- PRAGMA:READS=cool_people --\nselect * from \"cool_people\" where idx = :IDX";
+        String write = "-- PRAGMA:WRITES=Cool_People --\nupdate \"cool_people\" set first_name = :FIRST_NAME where idx = :IDX";
+
+        // when
+        String first = queryFactory.createQueryFromTemplate(read, TestUtils.map("IDX", 4)).queryForObject(String.class);
+        String second = queryFactory.createQueryFromTemplate(read, TestUtils.map("IDX", 4)).queryForObject(String.class);
+        List<Map<String, Object>> rows = queryFactory.createQueryFromTemplate(readAll).queryForList();
+        rows.get(0).put("FIRST_NAME", "Changed");
+        rows.remove(1);
+        List<Map<String, Object>> cachedRows = queryFactory.createQueryFromTemplate(readAll).queryForList();
+        CoolPerson bean = queryFactory.createQueryFromTemplate(readBean, TestUtils.map("IDX", 2)).queryForBean(CoolPerson.class);
+        bean.setFirstName("Changed");
+        List<CoolPerson> cachedBeans = queryFactory.createQueryFromTemplate(readBean, TestUtils.map("IDX", 2)).queryForBeans(CoolPerson.class);
+        CoolPerson cachedBean = queryFactory.createQueryFromTemplate(readBean, TestUtils.map("IDX", 2)).queryForBean(CoolPerson.class);
+        queryFactory.createQueryFromTemplate(write, TestUtils.map("IDX", 4, "FIRST_NAME", "Marcus")).update();
+        String afterUpdate = queryFactory.createQueryFromTemplate(read, TestUtils.map("IDX", 4)).queryForObject(String.class);
+        queryFactory.createQueryFromTemplate(write, TestUtils.map("IDX", 4, "FIRST_NAME", "Mark")).update();
+
+        // then
+        assertEquals("Mark", first);
+        assertEquals("Mark", second);
+        assertEquals("Marcus", afterUpdate);
+        assertEquals(3, cache.getHitCount());
+        assertEquals(5, cache.getMissCount());
+        assertEquals(people.size() - 1, rows.size());
+        assertEquals(people.size(), cachedRows.size());
+        assertEquals("John", cachedRows.get(0).get("first_name"));
+        assertEquals("Jane", cachedBeans.get(0).getFirstName());
+        assertEquals("Jane", cachedBean.getFirstName());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    @DisplayName("setResultCache: writes in a transaction invalidate the cached results again once it completes")
+    void testResultCacheInTransaction() {
+        // given
+        QueryResultCache cache = new QueryResultCache(100, 1000, Duration.ofMinutes(1));
+        queryFactory.setResultCache(cache);
+        String read = "-- PRAGMA:READS=cool_people --\nselect first_name from \"cool_people\" where idx = :IDX";
+        String write = "-- PRAGMA:WRITES=cool_people --\nupdate \"cool_people\" set first_name = :FIRST_NAME where idx = :IDX";
+
+        // when
+        String inTransaction;
+        Transaction transaction = queryFactory.getTransaction();
+        try {
+            queryFactory.createQueryFromTemplate(write, TestUtils.map("IDX", 3, "FIRST_NAME", "Maria")).update();
+            inTransaction = queryFactory.createQueryFromTemplate(read, TestUtils.map("IDX", 3)).queryForObject(String.class);
+            transaction.commit();
+        }
+        catch (RuntimeException e) {
+            transaction.rollback();
+            throw e;
+        }
+        int cachedAfterCommit = cache.size();
+        String afterCommit = queryFactory.createQueryFromTemplate(read, TestUtils.map("IDX", 3)).queryForObject(String.class);
+        queryFactory.createQueryFromTemplate(write, TestUtils.map("IDX", 3, "FIRST_NAME", "Mary")).update();
+
+        // then
+        assertSame(cache, queryFactory.getResultCache());
+        assertEquals("Maria", inTransaction);
+        assertEquals(0, cachedAfterCommit);
+        assertEquals("Maria", afterCommit);
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    @DisplayName("setCoalescing: coalesced queries return the same results, as modifiable copies")
+    void testCoalescing() {
+        // given
+        queryFactory.setCoalescing(true);
+
+        // when
+        List<Map<String, Object>> rows = queryFactory.queryForList("list.sql", TestUtils.map("LAST_NAME", "Doe"));
+        Map<String, Object> row = queryFactory.queryForMap("get.sql", TestUtils.map("IDX", 1));
+        List<CoolPerson> beans = queryFactory.queryForBeans("list.sql", CoolPerson.class, TestUtils.map("LAST_NAME", "Doe"));
+        long count = queryFactory.queryForLong("count.sql", TestUtils.map("LAST_NAME", "Doe"));
+
+        // then
+        assertEquals(2, rows.size());
+        assertEquals(1, row.get("IDX"));
+        assertEquals(2, beans.size());
+        assertEquals(2, count);
+        rows.get(0).put("IDX", 0);
+        row.put("EXTRA", true);
+        beans.clear();
+        assertEquals(0, rows.get(0).get("idx"));
+        assertEquals(true, row.get("extra"));
+        assertTrue(beans.isEmpty());
+        assertEquals(0, queryFactory.getCoalescer().getCoalescedCount());
+    }
+
+    @Test
+    @DisplayName("setReadReplicas: reads outside of transactions run on the replicas, cached reads and everything else on the primary")
+    void testReadReplicas() {
+        try (HikariDataSource replica = new HikariDataSource()) {
+            // given
+            replica.setJdbcUrl("jdbc:hsqldb:mem:QueryFactoryTest_replica");
+            replica.setUsername("sa");
+            replica.setPassword("");
+            JdbcTemplate replicaTemplate = new JdbcTemplate(replica);
+            replicaTemplate.execute("create table \"cool_people\" (idx integer, first_name varchar(100), last_name varchar(100))");
+            replicaTemplate.update("insert into \"cool_people\" (idx, first_name, last_name) values (1, 'Replicated John', 'Replica')");
+            queryFactory.setReadReplicas(new ReadReplicas(List.of(replica), ReadReplicas.Selection.LEAST_OUTSTANDING));
+            queryFactory.setResultCache(new QueryResultCache(100, 1000, Duration.ofMinutes(1)));
+            String fresh = "-- PRAGMA:READ_FROM_PRIMARY --\nselect first_name from \"cool_people\" where idx = :IDX";
+            String cached = "-- PRAGMA:READS=cool_people --\nselect first_name from \"cool_people\" where idx = :IDX";
+
+            // when
+            String fromReplica = queryFactory.queryForObject("getfield.sql", String.class, TestUtils.map("IDX", 1));
+            long streamedFromReplica;
+            try (Stream<Map<String, Object>> rows = queryFactory.createQuery("list.sql", TestUtils.map("LAST_NAME", "Doe")).stream()) {
+                streamedFromReplica = rows.count();
+            }
+            String fromPrimary = queryFactory.createQueryFromTemplate(fresh, TestUtils.map("IDX", 1)).queryForObject(String.class);
+            String cachedFromPrimary = queryFactory.createQueryFromTemplate(cached, TestUtils.map("IDX", 1)).queryForObject(String.class);
+            String inTransaction = queryFactory.inTransaction(qf -> qf.queryForObject("getfield.sql", String.class, TestUtils.map("IDX", 1)));
+
+            // then
+            assertEquals("Replicated John", fromReplica);
+            assertEquals(0, streamedFromReplica);
+            assertEquals("John", fromPrimary);
+            assertEquals("John", cachedFromPrimary);
+            assertEquals("John", inTransaction);
+            assertArrayEquals(new int[] {0}, queryFactory.getReadReplicas().getOutstandingRequests());
+        }
+    }
+
+    @Test
+    @DisplayName("exportTo: writes the rows to a stream in chunks, allowing to observe the progress and compute the digest")
+    @SneakyThrows
+    void testExportTo() {
+        // given
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        OutputStreamWithDigest out = new OutputStreamWithDigest(file);
+        LongAdder notifications = new LongAdder();
+        out.attachObserver((target, state) -> notifications.increment());
+
+        // when
+        long rows = queryFactory.exportTo("list.sql", out, ExportFormat.NDJSON, TestUtils.map("LAST_NAME", "Doe"));
+        out.close();
+
+        // then
+        String[] lines = file.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, rows);
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("{\"IDX\":1,\"FIRST_NAME\":\"John\",\"LAST_NAME\":\"Doe\",\"SUBSCRIPTION_DATE\":\"2019-08-19\""));
+        assertEquals(1, notifications.sum());
+        assertEquals(file.size(), out.getPosition());
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(file.toByteArray()), out.getDigestValue());
+    }
+
+    @Test
+    @DisplayName("createGroup: runs the queries of the group and returns each result in its mapped form")
+    void testQueryGroup() {
+        // given
+        String lastName = "Doe";
+        QueryGroup group = queryFactory.createGroup();
+        QueryGroup.Result<List<Map<String, Object>>> list = group.queryForList("list.sql", TestUtils.map("LAST_NAME", lastName));
+        QueryGroup.Result<List<CoolPerson>> beans = group.queryForBeans("list.sql", CoolPerson.class, TestUtils.map("LAST_NAME", lastName));
+        QueryGroup.Result<Long> count = group.queryForObject("count.sql", Long.class, TestUtils.map("LAST_NAME", lastName));
+        QueryGroup.Result<CoolPerson> person = group.queryForBean("get.sql", CoolPerson.class, TestUtils.map("IDX", 3));
+
+        // when
+        assertThrows(IllegalStateException.class, list::get);
+        group.execute();
+
+        // then
+        assertEquals(queryFactory.queryForList("list.sql", TestUtils.map("LAST_NAME", lastName)), list.get());
+        assertEquals(list.get().size(), beans.get().size());
+        assertEquals(list.get().size(), count.get());
+        assertEquals("Mary", person.get().getFirstName());
+        assertThrows(IllegalStateException.class, group::execute);
+        assertThrows(IllegalStateException.class, () -> group.queryForList("list.sql"));
+    }
+
+    @Test
+    @DisplayName("QueryGroup: the failure of a query run concurrently is rethrown to the caller")
+    void testQueryGroupFailure() {
+        // given
+        QueryGroup group = queryFactory.createGroup();
+        group.queryForList("list.sql", TestUtils.map("LAST_NAME", "Doe"));
+        group.queryForMap("get.sql", TestUtils.map("IDX", -1));
+
+        // when
+        // then
+        assertThrows(EmptyResultDataAccessException.class, group::execute);
+    }
+
+    @Test
+    @DisplayName("QueryGroup: groups executed by a task of a saturated bulkhead run on its thread rather than waiting for a slot")
+    @SneakyThrows
+    void testQueryGroupOnBulkhead() {
+        // given
+        DataSource singleSlot = new DelegatingDataSource(dataSource);
+        DataSourceBulkhead bulkhead = DataSourceBulkhead.of(singleSlot, 1);
+        QueryFactory singleSlotQueryFactory = new QueryFactory(singleSlot);
+
+        // when
+        CompletableFuture<Long> count = CompletableFuture.supplyAsync(() -> {
+            QueryGroup group = singleSlotQueryFactory.createGroup();
+            QueryGroup.Result<List<Map<String, Object>>> list = group.queryForList("list.sql", TestUtils.map("LAST_NAME", "Doe"));
+            QueryGroup.Result<Long> total = group.queryForObject("count.sql", Long.class, TestUtils.map("LAST_NAME", "Doe"));
+            group.execute();
+            return list.get().size() + total.get();
+        }, bulkhead.getExecutor());
+
+        // then
+        assertEquals(4, count.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("QueryGroup: combines the queries in a single multi-statement round trip when supported")
+    @SneakyThrows
+    void testQueryGroupCombined() {
+        // given
+        DataSource combiningDataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        ResultSet countResult = mock(ResultSet.class);
+        ResultSet personResult = mock(ResultSet.class);
+        ResultSetMetaData countMetaData = mock(ResultSetMetaData.class);
+        ResultSetMetaData personMetaData = mock(ResultSetMetaData.class);
+        when(combiningDataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenReturn(ps);
+        when(ps.execute()).thenReturn(true);
+        when(ps.getResultSet()).thenReturn(countResult, personResult);
+        when(ps.getMoreResults()).thenReturn(true, false);
+        when(countResult.next()).thenReturn(true, false);
+        when(countResult.getMetaData()).thenReturn(countMetaData);
+        when(countMetaData.getColumnCount()).thenReturn(1);
+        when(countResult.getLong(1)).thenReturn(2L);
+        when(personResult.next()).thenReturn(true, false);
+        when(personResult.getMetaData()).thenReturn(personMetaData);
+        when(personMetaData.getColumnCount()).thenReturn(1);
+        when(personMetaData.getColumnLabel(1)).thenReturn("FIRST_NAME");
+        when(personResult.getObject(1)).thenReturn("Mark");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(combiningDataSource);
+        QueryGroup group = new QueryGroup(queryFactory, jdbcTemplate, () -> true, DataSourceBulkhead.of(dataSource));
+        QueryGroup.Result<Long> count = group.queryForObject("count.sql", Long.class, TestUtils.map("LAST_NAME", "Doe"));
+        QueryGroup.Result<Map<String, Object>> person = group.queryForMap("get.sql", TestUtils.map("IDX", 4));
+
+        // when
+        group.execute();
+
+        // then
+        verify(connection, times(1)).prepareStatement("select count(*) from \"cool_people\" where last_name = ?;\nselect * from \"cool_people\" where idx = ?");
+        verify(ps).setString(1, "Doe");
+        verify(ps).setObject(2, 4);
+        assertEquals(2L, count.get());
+        assertEquals("Mark", person.get().get("first_name"));
+    }
+
+    @Test
+    @DisplayName("QueryGroup: null parameters are bound in a combined round trip")
+    @SneakyThrows
+    void testQueryGroupCombinedNullParameter() {
+        // given
+        DataSource combiningDataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        ResultSet firstCount = mock(ResultSet.class);
+        ResultSet secondCount = mock(ResultSet.class);
+        ResultSetMetaData countMetaData = mock(ResultSetMetaData.class);
+        ParameterMetaData parameterMetaData = mock(ParameterMetaData.class);
+        when(combiningDataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenReturn(ps);
+        when(ps.getParameterMetaData()).thenReturn(parameterMetaData);
+        when(parameterMetaData.getParameterType(1)).thenReturn(Types.VARCHAR);
+        when(ps.execute()).thenReturn(true);
+        when(ps.getResultSet()).thenReturn(firstCount, secondCount);
+        when(ps.getMoreResults()).thenReturn(true, false);
+        when(firstCount.next()).thenReturn(true, false);
+        when(firstCount.getMetaData()).thenReturn(countMetaData);
+        when(firstCount.getLong(1)).thenReturn(0L);
+        when(secondCount.next()).thenReturn(true, false);
+        when(secondCount.getMetaData()).thenReturn(countMetaData);
+        when(secondCount.getLong(1)).thenReturn(2L);
+        when(countMetaData.getColumnCount()).thenReturn(1);
+        QueryGroup group = new QueryGroup(queryFactory, new JdbcTemplate(combiningDataSource), () -> true, DataSourceBulkhead.of(dataSource));
+        QueryGroup.Result<Long> nobody = group.queryForObject("count.sql", Long.class, TestUtils.map("LAST_NAME", null));
+        QueryGroup.Result<Long> does = group.queryForObject("count.sql", Long.class, TestUtils.map("LAST_NAME", "Doe"));
+
+        // when
+        group.execute();
+
+        // then
+        verify(ps).setNull(1, Types.VARCHAR);
+        verify(ps).setString(2, "Doe");
+        assertEquals(0L, nobody.get());
+        assertEquals(2L, does.get());
+    }
+
+    @Test
+    @DisplayName("QueryGroup: skips update counts in a combined round trip and fails when results are missing")
+    @SneakyThrows
+    void testQueryGroupCombinedMissingResult() {
+        // given
+        DataSource combiningDataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        ResultSet countResult = mock(ResultSet.class);
+        ResultSetMetaData countMetaData = mock(ResultSetMetaData.class);
+        when(combiningDataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenReturn(ps);
+        when(ps.execute()).thenReturn(false);
+        when(ps.getUpdateCount()).thenReturn(1, -1);
+        when(ps.getResultSet()).thenReturn(countResult);
+        when(ps.getMoreResults()).thenReturn(true, false);
+        when(countResult.next()).thenReturn(true, false);
+        when(countResult.getMetaData()).thenReturn(countMetaData);
+        when(countMetaData.getColumnCount()).thenReturn(1);
+        when(countResult.getLong(1)).thenReturn(2L);
+        QueryGroup group = new QueryGroup(queryFactory, new JdbcTemplate(combiningDataSource), () -> true, DataSourceBulkhead.of(dataSource));
+        QueryGroup.Result<Long> count = group.queryForObject("count.sql", Long.class, TestUtils.map("LAST_NAME", "Doe"));
+        group.queryForMap("get.sql", TestUtils.map("IDX", 4));
+
+        // when
+        InvalidDataAccessApiUsageException e = assertThrows(InvalidDataAccessApiUsageException.class, group::execute);
+
+        // then
+        assertEquals(2L, count.get());
+        assertTrue(e.getMessage().contains("get.sql"));
+    }
+
+    @Test
+    @DisplayName("pages: iterates lazily through keyset pages, without returning empty pages")
+    void testPages() {
+        // given
+        List<Object> expectedIds = people.stream().map(m -> m.get("IDX")).collect(Collectors.toList());
+
+        // when
+        List<List<Object>> pagesOfTwo = new ArrayList<>();
+        queryFactory.pages("paged.sql", List.of("idx"), 2).forEachRemaining(page -> pagesOfTwo.add(page.stream().map(row -> row.get("IDX")).collect(Collectors.toList())));
+        List<List<Integer>> pagesOfThree = new ArrayList<>();
+        queryFactory.pages("paged.sql", CoolPerson.class, List.of("idx"), 3).forEachRemaining(page -> pagesOfThree.add(page.stream().map(CoolPerson::getIdx).collect(Collectors.toList())));
+
+        // then
+        assertEquals(List.of(expectedIds.subList(0, 2), expectedIds.subList(2, 4)), pagesOfTwo);
+        assertEquals(List.of(List.of(1, 2, 3), List.of(4)), pagesOfThree);
+    }
+
+    @Test
+    @DisplayName("pages: pages are limited to the page size, and templates not advancing through the key are detected")
+    void testPagesWithoutLimitInTemplate() {
+        // given
+        KeysetPageIterator<Map<String, Object>> pages = queryFactory.pages("list.sql", List.of("IDX"), 1, TestUtils.map("LAST_NAME", "Doe"));
+
+        // when
+        List<Map<String, Object>> first = pages.next();
+
+        // then
+        assertEquals(1, first.size());
+        assertEquals(1, first.get(0).get("IDX"));
+        assertThrows(IllegalStateException.class, pages::next);
+    }
+
+    @Test
+    @DisplayName("pages: invalid arguments, exhausted iterators and null keys are reported")
+    void testPagesErrors() {
+        // given
+        KeysetPageIterator<Map<String, Object>> exhausted = queryFactory.pages("paged.sql", List.of("idx"), 10);
+        exhausted.next();
+        KeysetPageIterator<Integer> nullKeys = new KeysetPageIterator<>(
+                context -> queryFactory.createQueryFromTemplate("select idx, cast(null as integer) as k from \"cool_people\" order by idx", context),
+                () -> (rs, rowNum) -> rs.getInt(1), List.of("K"), 2);
+
+        // when
+        // then
+        assertThrows(NoSuchElementException.class, exhausted::next);
+        assertThrows(IllegalStateException.class, nullKeys::next);
+        assertThrows(IllegalArgumentException.class, () -> queryFactory.pages("paged.sql", List.of(), 10));
+        assertThrows(IllegalArgumentException.class, () -> queryFactory.pages("paged.sql", List.of("idx"), 0));
+    }
+
 }
@@ -1,6 +1,8 @@
 package it.openly.core.data;
 
 import com.zaxxer.hikari.HikariDataSource;
+import it.openly.core.test.pojos.CoolPerson;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import lombok.SneakyThrows;
 import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.BeforeAll;
@@ -12,16 +14,28 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.jdbc.IncorrectResultSetColumnCountException;
 import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
 
 import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.util.*;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 import static it.openly.core.utils.Shortcuts.dt;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
@@ -106,14 +120,14 @@ public class QueryTest {
     }
 
     @Test
-    @DisplayName("queryForList: invokes namedParameterJdbcTemplate.queryForList with correct arguments")
+    @DisplayName("queryForList: invokes namedParameterJdbcTemplate.query with correct arguments and a compact row mapper")
     @SuppressWarnings("unchecked")
     void testQueryForListCallsJdbcTemplateWithCorrectArguments() {
         // given
         String sql = "select 1";
         List<Map<String, Object>> expectedResults = new ArrayList<>();
 
-        when(namedParameterJdbcTemplate.queryForList(eq(sql), anyMap())).thenReturn(expectedResults);
+        when(namedParameterJdbcTemplate.query(eq(sql), anyMap(), any(RowMapper.class))).thenReturn(expectedResults);
 
         // when
         Query query = new Query(namedParameterJdbcTemplate, sql, context);
@@ -122,7 +136,7 @@ public class QueryTest {
         // then
         ArgumentCaptor<String> arg1 = ArgumentCaptor.forClass(String.class);
         ArgumentCaptor<Map<String, Object>> arg2 = ArgumentCaptor.forClass(Map.class);
-        verify(namedParameterJdbcTemplate, times(1)).queryForList(arg1.capture(), arg2.capture());
+        verify(namedParameterJdbcTemplate, times(1)).query(arg1.capture(), arg2.capture(), any(RowMapper.class));
         assertEquals(sql, arg1.getValue());
         checkContextParameters(arg2);
         assertEquals(expectedResults, results);
@@ -265,6 +279,224 @@ public class QueryTest {
         }
     }
 
+    @Test
+    @DisplayName("pre-parsed statements: yield the same results without parsing the statement again")
+    void testPreParsedStatement() {
+        // given
+        String sql = "select * from \"cool_people\" where first_name like :name_like and idx in (:ids) order by idx";
+        Map<String, Object> params = new HashMap<>();
+        params.put("name_like", "%a%");
+        params.put("ids", List.of(2, 3, 4));
+        NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+        Query query = new Query(jdbcTemplate, sql, params, NamedParameterUtils.parseSqlStatement(sql));
+        String countSql = "select count(*) from \"cool_people\" where rating > :rating";
+        Query countQuery = new Query(jdbcTemplate, countSql, Map.of("rating", 5), NamedParameterUtils.parseSqlStatement(countSql));
+
+        // when
+        List<Map<String, Object>> results = query.queryForList();
+        List<Map<String, Object>> iterated = new ArrayList<>();
+        query.iterate(iterated::add);
+        int count = countQuery.queryForInt();
+
+        // then
+        assertEquals(jdbcTemplate.queryForList(sql, params), results);
+        assertEquals(results, iterated);
+        assertEquals(List.of(2, 3, 4), results.stream().map(row -> row.get("IDX")).toList());
+        assertEquals(2, count);
+    }
+
+    @Test
+    @DisplayName("queryForBeans, queryForBean: map the rows to beans")
+    void testQueryForBeans() {
+        // given
+        String sql = "select * from \"cool_people\" where idx >= :idx order by idx";
+        NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+
+        // when
+        List<CoolPerson> people = new Query(jdbcTemplate, sql, Map.of("idx", 3)).queryForBeans(CoolPerson.class);
+        CoolPerson last = new Query(jdbcTemplate, sql, Map.of("idx", 4)).queryForBean(CoolPerson.class);
+
+        // then
+        assertEquals(List.of("Mary", "Mark"), people.stream().map(CoolPerson::getFirstName).toList());
+        assertEquals("Mark", last.getFirstName());
+    }
+
+    @Test
+    @DisplayName("pre-parsed statements: fail when a parameter has no value in the context")
+    void testPreParsedStatementMissingParameter() {
+        // given
+        String sql = "select * from \"cool_people\" where idx = :idx";
+        Query query = new Query(new NamedParameterJdbcTemplate(dataSource), sql, Map.of(), NamedParameterUtils.parseSqlStatement(sql));
+
+        // when
+        // then
+        InvalidDataAccessApiUsageException e = assertThrows(InvalidDataAccessApiUsageException.class, query::queryForList);
+        assertTrue(e.getMessage().contains("idx"));
+    }
+
+    @Test
+    @DisplayName("batchUpdate: executes the statement for each row, in chunks")
+    void testBatchUpdate() {
+        // given
+        NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table batch_ratings (idx integer, rating integer)", PreparedStatement::execute);
+        String sql = "insert into batch_ratings (idx, rating) values (:idx, :rating)";
+        Query query = new Query(jdbcTemplate, sql, Map.of("rating", 1));
+        List<Map<String, Object>> rows = List.of(Map.of("idx", 1), Map.of("idx", 2, "rating", 5), Map.of("idx", 3));
+
+        // when
+        List<int[]> results = query.batchUpdate(rows, 2);
+
+        // then
+        assertEquals(2, results.size());
+        assertArrayEquals(new int[] {1, 1}, results.get(0));
+        assertArrayEquals(new int[] {1}, results.get(1));
+        assertEquals(7, jdbcTemplate.queryForObject("select sum(rating) from batch_ratings", Map.of(), Integer.class));
+        assertThrows(IllegalArgumentException.class, () -> query.batchUpdate(rows, 0));
+    }
+
+    @Test
+    @DisplayName("stream: reads the rows lazily and releases the connection when closed")
+    @SneakyThrows
+    void testStream() {
+        // given
+        String sql = "select * from \"cool_people\" where last_name like :last_name_like order by idx";
+        NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+        Query query = new Query(jdbcTemplate, sql, Map.of("last_name_like", "D%")).fetchSize(2);
+        HikariPoolMXBean pool = ((HikariDataSource) dataSource).getHikariPoolMXBean();
+        List<Object> firstNames = new ArrayList<>();
+        int[] activeConnections = new int[3];
+
+        // when: streaming on a dedicated thread, so that no connection is bound to it by other tests
+        Thread thread = new Thread(() -> {
+            activeConnections[0] = pool.getActiveConnections();
+            try (Stream<Map<String, Object>> rows = query.stream()) {
+                rows.limit(2).map(row -> row.get("FIRST_NAME")).forEach(firstNames::add);
+                activeConnections[1] = pool.getActiveConnections();
+            }
+            activeConnections[2] = pool.getActiveConnections();
+        });
+        thread.start();
+        thread.join();
+
+        // then
+        assertEquals(List.of("John", "Jane"), firstNames);
+        assertEquals(activeConnections[0] + 1, activeConnections[1]);
+        assertEquals(activeConnections[0], activeConnections[2]);
+    }
+
+    @Test
+    @DisplayName("queryForLongStream: reads the values lazily and releases the connection when closed")
+    @SneakyThrows
+    void testQueryForLongStream() {
+        // given
+        NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+        Query query = new Query(jdbcTemplate, "select idx from \"cool_people\" order by idx", null).fetchSize(1);
+        Query wide = new Query(jdbcTemplate, "select idx, first_name from \"cool_people\"", null);
+        HikariPoolMXBean pool = ((HikariDataSource) dataSource).getHikariPoolMXBean();
+        long[] ids = new long[2];
+        int[] activeConnections = new int[3];
+
+        // when: streaming on a dedicated thread, so that no connection is bound to it by other tests
+        Thread thread = new Thread(() -> {
+            activeConnections[0] = pool.getActiveConnections();
+            try (LongStream values = query.queryForLongStream()) {
+                PrimitiveIterator.OfLong iterator = values.iterator();
+                ids[0] = iterator.nextLong();
+                ids[1] = iterator.nextLong();
+                activeConnections[1] = pool.getActiveConnections();
+            }
+            activeConnections[2] = pool.getActiveConnections();
+        });
+        thread.start();
+        thread.join();
+
+        // then
+        assertArrayEquals(new long[] {1, 2}, ids);
+        assertEquals(activeConnections[0] + 1, activeConnections[1]);
+        assertEquals(activeConnections[0], activeConnections[2]);
+        assertThrows(IncorrectResultSetColumnCountException.class, () -> {
+            try (IntStream values = wide.queryForIntStream()) {
+                values.sum();
+            }
+        });
+    }
+
+    @Test
+    @DisplayName("exportTo: writes the rows to the stream and returns their number")
+    void testExportTo() {
+        // given
+        String sql = "select idx, first_name from \"cool_people\" where idx <= :idx order by idx";
+        Query query = new Query(new NamedParameterJdbcTemplate(dataSource), sql, Map.of("idx", 2));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // when
+        long rows = query.exportTo(out, ExportFormat.CSV);
+
+        // then
+        assertEquals(2, rows);
+        assertEquals("IDX,FIRST_NAME\r\n1,John\r\n2,Jane\r\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("maxRows: limits the number of returned rows")
+    void testMaxRows() {
+        // given
+        String sql = "select * from \"cool_people\" where last_name like :last_name_like order by idx";
+        Query query = new Query(new NamedParameterJdbcTemplate(dataSource), sql, Map.of("last_name_like", "D%"));
+
+        // when
+        List<Map<String, Object>> results = query.maxRows(3).fetchSize(2).queryTimeout(5).queryForList();
+
+        // then
+        assertEquals(3, results.size());
+    }
+
+    @Test
+    @DisplayName("batchUpdate: the statement settings are applied to the batches")
+    @SneakyThrows
+    void testBatchUpdateStatementSettings() {
+        // given
+        DataSource batchDataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        when(batchDataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement("update \"cool_people\" set rating = ? where idx = ?")).thenReturn(ps);
+        when(ps.getConnection()).thenReturn(connection);
+        when(connection.getMetaData()).thenReturn(metaData);
+        when(metaData.supportsBatchUpdates()).thenReturn(true);
+        when(ps.executeBatch()).thenReturn(new int[] {1, 1});
+        String sql = "update \"cool_people\" set rating = :rating where idx = :idx";
+        Query query = new Query(new NamedParameterJdbcTemplate(batchDataSource), sql, Map.of()).queryTimeout(7);
+
+        // when
+        List<int[]> results = query.batchUpdate(List.of(Map.of("rating", 5, "idx", 1), Map.of("rating", 6, "idx", 2)), 10);
+
+        // then
+        verify(ps).setQueryTimeout(7);
+        verify(ps, times(2)).addBatch();
+        assertArrayEquals(new int[] {1, 1}, results.get(0));
+    }
+
+    @Test
+    @DisplayName("stream: maps the rows to beans")
+    void testStreamBeans() {
+        // given
+        String sql = "select * from \"cool_people\" where idx > :idx order by idx";
+        Query query = new Query(new NamedParameterJdbcTemplate(dataSource), sql, Map.of("idx", 2));
+
+        // when
+        Optional<CoolPerson> first;
+        try (Stream<CoolPerson> people = query.stream(CoolPerson.class)) {
+            first = people.findFirst();
+        }
+
+        // then
+        assertTrue(first.isPresent());
+        assertEquals("Mary", first.get().getFirstName());
+    }
+
     @Test
     @DisplayName("constructor: the namedParameterJdbcTemplate argument is required")
     void testConstructorRequiresNPJT() {
@@ -12,9 +12,14 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.sql.DataSource;
 import java.nio.charset.Charset;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.util.ArrayList;
 import java.util.List;
@@ -119,6 +124,7 @@ class TransactionTest {
         catch (RollbackOnlyException roe) {
             // empty on purpose
         }
+        transaction.rollback();
         Map<String, Object> actualValue = queryFactory.queryForMap("get.sql", Map.of("IDX", idx));
 
         // then
@@ -139,4 +145,129 @@ class TransactionTest {
 
     }
 
+    @Test
+    @DisplayName("close: rolls back the transaction when it was neither committed nor rolled back")
+    void testClose() {
+        // given
+        int idx = 1;
+        double expectedRating = ((Number)queryFactory.queryForMap("get.sql", Map.of("IDX", idx)).get("RATING")).doubleValue();
+        Transaction committed;
+
+        // when
+        try (Transaction transaction = queryFactory.getTransaction()) {
+            queryFactory.update("update.sql", Map.of("IDX", idx, "RATING", 123.4));
+        }
+        try (Transaction transaction = queryFactory.getTransaction()) {
+            committed = transaction;
+            transaction.commit();
+        }
+        Map<String, Object> actualValue = queryFactory.queryForMap("get.sql", Map.of("IDX", idx));
+
+        // then
+        assertEquals(expectedRating, ((Number)actualValue.get("RATING")).doubleValue());
+        assertTrue(committed.isCompleted());
+        assertFalse(TransactionSynchronizationManager.isActualTransactionActive());
+    }
+
+    @Test
+    @DisplayName("inTransaction: applies the settings to the connection and commits the work")
+    void testInTransaction() {
+        // given
+        int idx = 2;
+        double rating = 42.5;
+        TransactionSettings readOnly = TransactionSettings.defaults().readOnly().isolation(TransactionDefinition.ISOLATION_SERIALIZABLE).timeout(5);
+
+        // when
+        boolean[] connectionReadOnly = new boolean[1];
+        int isolation = queryFactory.inTransaction(readOnly, qf -> {
+            Connection connection = DataSourceUtils.getConnection(dataSource);
+            connectionReadOnly[0] = isReadOnly(connection);
+            return transactionIsolation(connection);
+        });
+        int affectedRows = queryFactory.inTransaction(qf -> qf.update("update.sql", Map.of("IDX", idx, "RATING", rating)));
+        Map<String, Object> actualValue = queryFactory.queryForMap("get.sql", Map.of("IDX", idx));
+
+        // then
+        assertTrue(connectionReadOnly[0]);
+        assertEquals(Connection.TRANSACTION_SERIALIZABLE, isolation);
+        assertEquals(1, affectedRows);
+        assertEquals(rating, ((Number)actualValue.get("RATING")).doubleValue());
+        assertFalse(TransactionSynchronizationManager.isActualTransactionActive());
+    }
+
+    @Test
+    @DisplayName("inTransaction: rolls back the work when it throws an exception")
+    void testInTransactionRollback() {
+        // given
+        int idx = 4;
+        double expectedRating = ((Number)queryFactory.queryForMap("get.sql", Map.of("IDX", idx)).get("RATING")).doubleValue();
+
+        // when
+        assertThrows(IllegalStateException.class, () -> queryFactory.inTransaction(qf -> {
+            qf.update("update.sql", Map.of("IDX", idx, "RATING", 123.4));
+            throw new IllegalStateException("Failing on purpose");
+        }));
+        Map<String, Object> actualValue = queryFactory.queryForMap("get.sql", Map.of("IDX", idx));
+
+        // then
+        assertEquals(expectedRating, ((Number)actualValue.get("RATING")).doubleValue());
+    }
+
+    @Test
+    @DisplayName("constructor: begins a transaction of its own on the DataSource")
+    void testConstructorBeginsTransaction() {
+        // given
+        boolean active;
+        Transaction closed;
+
+        // when
+        try (Transaction transaction = new Transaction(dataSource)) {
+            closed = transaction;
+            active = TransactionSynchronizationManager.isActualTransactionActive();
+        }
+
+        // then
+        assertTrue(active);
+        assertTrue(closed.isCompleted());
+        assertFalse(TransactionSynchronizationManager.isActualTransactionActive());
+    }
+
+    @Test
+    @DisplayName("transactionManager: the transaction manager of a DataSource is created once and shared")
+    void testSharedTransactionManager() {
+        // given
+        DataSourceTransactionManager transactionManager = Transaction.transactionManager(dataSource);
+
+        // when
+        DataSourceTransactionManager again = Transaction.transactionManager(dataSource);
+        DataSourceTransactionManager other = Transaction.transactionManager(new HikariDataSource());
+
+        // then
+        assertSame(transactionManager, again);
+        assertNotSame(transactionManager, other);
+        assertSame(dataSource, transactionManager.getDataSource());
+    }
+
+    @Test
+    @DisplayName("TransactionSettings: unknown isolation levels and negative timeouts are rejected")
+    void testTransactionSettingsValidation() {
+        // given
+        TransactionSettings defaults = TransactionSettings.defaults();
+
+        // when
+        // then
+        assertThrows(IllegalArgumentException.class, () -> defaults.isolation(3));
+        assertThrows(IllegalArgumentException.class, () -> defaults.timeout(-2));
+    }
+
+    @SneakyThrows
+    private static boolean isReadOnly(Connection connection) {
+        return connection.isReadOnly();
+    }
+
+    @SneakyThrows
+    private static int transactionIsolation(Connection connection) {
+        return connection.getTransactionIsolation();
+    }
+
 }
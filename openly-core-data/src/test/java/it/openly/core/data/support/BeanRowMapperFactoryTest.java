@@ -0,0 +1,137 @@
+package it.openly.core.data.support;
+
+import com.zaxxer.hikari.HikariDataSource;
+import it.openly.core.test.pojos.CoolPerson;
+import lombok.Getter;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.beans.ConstructorProperties;
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BeanRowMapperFactoryTest {
+    private static final String PEOPLE = "select * from (values (1, 'John', 'Doe', 5.5), (2, 'Jane', null, null)) as t(idx, first_name, last_name, rating)";
+
+    private static HikariDataSource dataSource;
+    private static JdbcTemplate jdbcTemplate;
+
+    record PersonRecord(int idx, String firstName, String lastName, double rating) {
+    }
+
+    enum Level {
+        LOW, HIGH
+    }
+
+    record RatedRecord(String idx, Level level) {
+    }
+
+    @Getter
+    static class PersonValue {
+        private final long idx;
+        private final String name;
+        private BigDecimal rating;
+
+        @ConstructorProperties({"idx", "firstName"})
+        PersonValue(long idx, String name) {
+            this.idx = idx;
+            this.name = name;
+        }
+
+        public void setRating(BigDecimal rating) {
+            this.rating = rating;
+        }
+    }
+
+    @BeforeAll
+    static void prepareDataSource() {
+        dataSource = new HikariDataSource();
+        dataSource.setDriverClassName("org.hsqldb.jdbc.JDBCDriver");
+        dataSource.setJdbcUrl("jdbc:hsqldb:mem:BeanRowMapperFactoryTest_testdb");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @AfterAll
+    static void closeDataSource() {
+        dataSource.close();
+    }
+
+    @Test
+    @DisplayName("Rows are mapped to beans through their setters")
+    void testBeans() {
+        // Given: a query returning underscored column names
+
+        // When: I map its rows to beans
+        List<CoolPerson> people = jdbcTemplate.query(PEOPLE, BeanRowMapperFactory.getRowMapper(CoolPerson.class));
+
+        // Then: the columns are converted into the bean's properties
+        assertEquals(2, people.size());
+        assertEquals(1, people.get(0).getIdx());
+        assertEquals("John", people.get(0).getFirstName());
+        assertEquals("Doe", people.get(0).getLastName());
+        assertEquals(0, new BigDecimal("5.5").compareTo(people.get(0).getRating()));
+        assertNull(people.get(0).getSubscriptionDate());
+        assertNull(people.get(1).getLastName());
+        assertNull(people.get(1).getRating());
+    }
+
+    @Test
+    @DisplayName("Rows are mapped to records through their canonical constructor")
+    void testRecords() {
+        // Given: a query returning underscored column names
+
+        // When: I map its rows to records
+        List<PersonRecord> people = jdbcTemplate.query(PEOPLE, BeanRowMapperFactory.getRowMapper(PersonRecord.class));
+
+        // Then: the columns are converted into the components, null values leaving primitives to their default
+        assertEquals(List.of(new PersonRecord(1, "John", "Doe", 5.5), new PersonRecord(2, "Jane", null, 0)), people);
+    }
+
+    @Test
+    @DisplayName("Rows are mapped through named constructor parameters and the remaining setters")
+    void testConstructorBinding() {
+        // Given: a class without default constructor, having a setter for a property missing from the constructor
+
+        // When: I map the rows to such class
+        List<PersonValue> people = jdbcTemplate.query(PEOPLE, BeanRowMapperFactory.getRowMapper(PersonValue.class));
+
+        // Then: the constructor and the setter are both used
+        assertEquals(1L, people.get(0).getIdx());
+        assertEquals("John", people.get(0).getName());
+        assertEquals(0, new BigDecimal("5.5").compareTo(people.get(0).getRating()));
+        assertEquals("Jane", people.get(1).getName());
+    }
+
+    @Test
+    @DisplayName("Different column layouts of the same class are bound independently")
+    void testLayouts() {
+        // Given: two queries returning different subsets of columns in different order
+
+        // When: I map both to the same record
+        PersonRecord first = jdbcTemplate.queryForObject("select 'Mary' as first_name, 3 as idx from (values(0))", BeanRowMapperFactory.getRowMapper(PersonRecord.class));
+        PersonRecord second = jdbcTemplate.queryForObject("select 4.5 as rating, 'Mark' as \"FirstName\" from (values(0))", BeanRowMapperFactory.getRowMapper(PersonRecord.class));
+
+        // Then: each result is bound according to its own columns
+        assertEquals(new PersonRecord(3, "Mary", null, 0), first);
+        assertEquals(new PersonRecord(0, "Mark", null, 4.5), second);
+    }
+
+    @Test
+    @DisplayName("Values not assignable to their property are converted")
+    void testConversion() {
+        // Given: a query returning a number for a text component and a text for an enum component
+
+        // When: I map its row to a record
+        RatedRecord rated = jdbcTemplate.queryForObject("select 7 as idx, 'HIGH' as level from (values(0))", BeanRowMapperFactory.getRowMapper(RatedRecord.class));
+
+        // Then: the values are converted
+        assertEquals(new RatedRecord("7", Level.HIGH), rated);
+    }
+}
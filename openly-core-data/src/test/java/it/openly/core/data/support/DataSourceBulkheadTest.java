@@ -0,0 +1,173 @@
+package it.openly.core.data.support;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class DataSourceBulkheadTest {
+
+    @Test
+    @DisplayName("The limit is the maximum size of the connection pool, also behind proxies")
+    void testPoolSizeDetection() {
+        // Given: a pool and a proxy of another pool
+        try (HikariDataSource pool = new HikariDataSource(); HikariDataSource proxiedPool = new HikariDataSource()) {
+            pool.setMaximumPoolSize(3);
+            proxiedPool.setMaximumPoolSize(7);
+            DataSource proxy = new TransactionAwareDataSourceProxy(proxiedPool);
+
+            // When: I get their bulkheads
+            DataSourceBulkhead bulkhead = DataSourceBulkhead.of(pool);
+            DataSourceBulkhead proxyBulkhead = DataSourceBulkhead.of(proxy);
+
+            // Then: the limits match the pool sizes, and the bulkheads are shared
+            assertEquals(3, bulkhead.getMaxConcurrency());
+            assertEquals(7, proxyBulkhead.getMaxConcurrency());
+            assertSame(bulkhead, DataSourceBulkhead.of(pool, 20));
+        }
+    }
+
+    @Test
+    @DisplayName("DataSources of unknown type get the default limit")
+    void testDefaultLimit() {
+        // Given: a DataSource that is not a known pool
+        DataSource dataSource = mock(DataSource.class);
+
+        // When: I get its bulkhead
+        DataSourceBulkhead bulkhead = DataSourceBulkhead.of(dataSource);
+
+        // Then: the default limit is used, while limits that aren't positive are rejected
+        assertEquals(DataSourceBulkhead.DEFAULT_MAX_CONCURRENCY, bulkhead.getMaxConcurrency());
+        DataSource other = mock(DataSource.class);
+        assertThrows(IllegalArgumentException.class, () -> DataSourceBulkhead.of(other, 0));
+    }
+
+    @Test
+    @DisplayName("Work beyond the limit is queued rather than run concurrently")
+    void testLimit() {
+        // Given: a bulkhead allowing two concurrent tasks
+        DataSourceBulkhead bulkhead = DataSourceBulkhead.of(mock(DataSource.class), 2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        // When: I submit more tasks than allowed
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(20);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+            }, bulkhead.getExecutor()));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        // Then: no more than two tasks ran at the same time
+        assertEquals(2, maxRunning.get());
+        assertEquals(0, bulkhead.getQueuedCount());
+    }
+
+
+    @Test
+    @DisplayName("runAll caps the concurrency, runs tasks on the caller too and skips the pending ones after a failure")
+    @SneakyThrows
+    void testRunAll() {
+        // Given: a bulkhead allowing two concurrent tasks, and a saturated one
+        DataSourceBulkhead bulkhead = DataSourceBulkhead.of(mock(DataSource.class), 2);
+        DataSourceBulkhead saturated = DataSourceBulkhead.of(mock(DataSource.class), 1);
+        CountDownLatch release = new CountDownLatch(1);
+        saturated.getExecutor().execute(() -> {
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            tasks.add(() -> {
+                threads.add(Thread.currentThread().getName());
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(20);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+            });
+        }
+        AtomicInteger started = new AtomicInteger();
+        List<Runnable> failing = List.of(() -> {
+            started.incrementAndGet();
+            throw new IllegalStateException("first");
+        }, started::incrementAndGet);
+
+        // When: I run the tasks
+        bulkhead.runAll(tasks);
+        saturated.runAll(List.of(() -> threads.add("saturated")));
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> saturated.runAll(failing));
+        release.countDown();
+
+        // Then: no more than two ran at the same time, the caller took part, and the task after the failure was skipped
+        assertEquals(2, maxRunning.get());
+        assertTrue(threads.contains(Thread.currentThread().getName()));
+        assertTrue(threads.contains("saturated"));
+        assertEquals("first", e.getMessage());
+        assertEquals(1, started.get());
+    }
+
+    @Test
+    @DisplayName("runAll runs the tasks inline when called from a thread of the bulkhead, and stops when interrupted")
+    @SneakyThrows
+    void testRunAllOnBulkhead() {
+        // Given: a bulkhead allowing a single task
+        DataSourceBulkhead bulkhead = DataSourceBulkhead.of(mock(DataSource.class), 1);
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        Runnable task = () -> threads.add(Thread.currentThread().getName());
+
+        // When: a task of the bulkhead runs more tasks on it
+        CompletableFuture<Boolean> nested = CompletableFuture.supplyAsync(() -> {
+            try {
+                bulkhead.runAll(List.of(task, task, task));
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return bulkhead.isCurrentThread();
+        }, bulkhead.getExecutor());
+
+        // Then: they run on its thread rather than waiting for a slot, and interrupted callers don't run them
+        assertTrue(nested.get(10, TimeUnit.SECONDS));
+        assertEquals(3, threads.size());
+        assertEquals(1, Set.copyOf(threads).size());
+        assertFalse(bulkhead.isCurrentThread());
+        Thread.currentThread().interrupt();
+        assertThrows(InterruptedException.class, () -> bulkhead.runAll(List.of(task)));
+        assertFalse(Thread.interrupted());
+        assertEquals(3, threads.size());
+    }
+}
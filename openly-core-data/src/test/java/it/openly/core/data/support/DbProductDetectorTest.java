@@ -3,6 +3,7 @@ package it.openly.core.data.support;
 import it.openly.core.data.QueryFactory;
 import lombok.SneakyThrows;
 import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 
@@ -11,10 +12,18 @@ import javax.sql.DataSource;
 import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class DbProductDetectorTest {
@@ -58,6 +67,98 @@ class DbProductDetectorTest {
         assertEquals(expectedDbType, dbType);
     }
 
+    @Test
+    @SneakyThrows
+    @DisplayName("The capabilities of the database are captured as part of the detection")
+    void testDetectProfile() {
+        // Given: a datasource backed by a database supporting batch updates
+        DataSource ds = mockDataSource("HSQL Database Engine");
+
+        // When: I detect the profile of the database
+        DbProfile profile = new DbProductDetector().detectProfile(ds);
+
+        // Then: the profile describes the database
+        assertEquals("hsql", profile.getDbType());
+        assertEquals("HSQL Database Engine", profile.getProductName());
+        assertEquals(2, profile.getMajorVersion());
+        assertTrue(profile.isBatchSupported());
+        assertEquals(Integer.MAX_VALUE, profile.getMaxParameterCount());
+        assertFalse(profile.isMultiStatementSupported());
+        assertEquals(DbProfile.PagingSyntax.LIMIT_OFFSET, profile.getPagingSyntax());
+    }
+
+    @Test
+    @SneakyThrows
+    @DisplayName("Concurrent detections for the same DataSource only read the metadata once")
+    void testConcurrentDetection() {
+        // Given: a datasource and a detector
+        DataSource ds = mockDataSource("PostgreSQL");
+        DbProductDetector dbProductDetector = new DbProductDetector();
+
+        // When: many threads detect the database product at the same time
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = executor.invokeAll(Collections.nCopies(32, () -> dbProductDetector.detectDbProduct(ds)));
+            for (Future<String> result : results) {
+                assertEquals("postgresql", result.get());
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        // Then: a single connection was used for the detection
+        verify(ds, times(1)).getConnection();
+    }
+
+    @Test
+    @SneakyThrows
+    @DisplayName("DataSources can be detected in background when the detector is created")
+    void testEagerDetection() {
+        // Given: a datasource
+        DataSource ds = mockDataSource("MySQL");
+
+        // When: I create a detector for the datasource and wait for the background detection
+        DbProductDetector dbProductDetector = new DbProductDetector(List.of(ds));
+        DbProfile profile = dbProductDetector.detectInBackground(ds).get();
+
+        // Then: the detection doesn't borrow further connections
+        assertEquals("mysql", profile.getDbType());
+        assertEquals("mysql", dbProductDetector.detectDbProduct(ds));
+        verify(ds, times(1)).getConnection();
+    }
+
+    @Test
+    @SneakyThrows
+    @DisplayName("Failed detections are attempted again on the next call")
+    void testFailedDetectionIsNotCached() {
+        // Given: a datasource that fails to provide the first connection
+        DataSource ds = mockDataSource("Oracle");
+        Connection conn = ds.getConnection();
+        when(ds.getConnection()).thenThrow(new SQLException("unavailable")).thenReturn(conn);
+        DbProductDetector dbProductDetector = new DbProductDetector();
+
+        // When: I detect the database product twice
+        assertThrows(SQLException.class, () -> dbProductDetector.detectDbProduct(ds));
+        String dbType = dbProductDetector.detectDbProduct(ds);
+
+        // Then: the second detection succeeds
+        assertEquals("oracle", dbType);
+    }
+
+    @SneakyThrows
+    private DataSource mockDataSource(String dbProductName) {
+        DataSource ds = mock(DataSource.class);
+        Connection conn = mock(Connection.class);
+        DatabaseMetaData meta = mock(DatabaseMetaData.class);
+        when(ds.getConnection()).thenReturn(conn);
+        when(conn.getMetaData()).thenReturn(meta);
+        when(meta.getDatabaseProductName()).thenReturn(dbProductName);
+        when(meta.getDatabaseMajorVersion()).thenReturn(2);
+        when(meta.supportsBatchUpdates()).thenReturn(true);
+        return ds;
+    }
+
     @SneakyThrows
     private Properties loadCustomProperties(String customPropertiesFile) {
         Properties props = new Properties();
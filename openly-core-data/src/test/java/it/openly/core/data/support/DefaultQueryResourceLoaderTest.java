@@ -1,20 +1,28 @@
 package it.openly.core.data.support;
 
+import it.openly.core.resources.DefaultResourceResolver;
 import it.openly.core.resources.IResourceResolver;
+import lombok.SneakyThrows;
 import org.apache.commons.io.FilenameUtils;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import javax.sql.DataSource;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 @ExtendWith(MockitoExtension.class)
 class DefaultQueryResourceLoaderTest {
@@ -92,4 +100,120 @@ class DefaultQueryResourceLoaderTest {
         assertThrows(NullPointerException.class, () -> defaultQueryResourceLoader.loadQuery(dataSource, null), "Expected an exception to be thrown due to invalid argument but no exception was thrown");
     }
 
+    @Test
+    @DisplayName("Listing of database-specific and generic queries")
+    void testListQueries() {
+        // Given: there are both database-specific and generic queries
+        String basepath = UUID.randomUUID().toString();
+        String dbtype = UUID.randomUUID().toString();
+
+        DefaultQueryResourceLoader defaultQueryResourceLoader = new DefaultQueryResourceLoader(resourceResolver, dbProductDetector, basepath);
+
+        given(dbProductDetector.detectDbProduct(dataSource)).willReturn(dbtype);
+        given(resourceResolver.listResources(FilenameUtils.concat(basepath, dbtype))).willReturn(List.of("b.sql", "c.sql"));
+        given(resourceResolver.listResources(FilenameUtils.concat(basepath, "sql"))).willReturn(List.of("a.sql", "b.sql"));
+
+        // When: I list the queries
+        List<String> actual = defaultQueryResourceLoader.listQueries(dataSource);
+
+        // Then: all queries are listed once, sorted by name
+        assertEquals(List.of("a.sql", "b.sql", "c.sql"), actual);
+    }
+
+    @Test
+    @DisplayName("Loading the same query multiple times resolves its text only once")
+    void testLoadQueryCached() {
+        // Given: there is no custom database query but there is the default one
+        String basepath = UUID.randomUUID().toString();
+        String dbtype = UUID.randomUUID().toString();
+        String queryname = UUID.randomUUID().toString();
+        String expectedQueryText = UUID.randomUUID().toString();
+        String specificPath = FilenameUtils.concat(FilenameUtils.concat(basepath, dbtype), queryname);
+        String genericPath = FilenameUtils.concat(FilenameUtils.concat(basepath, "sql"), queryname);
+
+        DefaultQueryResourceLoader defaultQueryResourceLoader = new DefaultQueryResourceLoader(resourceResolver, dbProductDetector, basepath);
+
+        given(dbProductDetector.detectDbProduct(dataSource)).willReturn(dbtype);
+        given(resourceResolver.hasResource(specificPath)).willReturn(false);
+        given(resourceResolver.resolveStringResource(genericPath)).willReturn(expectedQueryText);
+
+        // When: I load the query multiple times
+        String first = defaultQueryResourceLoader.loadQuery(dataSource, queryname);
+        String second = defaultQueryResourceLoader.loadQuery(dataSource, queryname);
+
+        // Then: the resources are looked up only once
+        assertEquals(expectedQueryText, first);
+        assertEquals(expectedQueryText, second);
+        verify(resourceResolver, times(1)).hasResource(specificPath);
+        verify(resourceResolver, times(1)).resolveStringResource(genericPath);
+
+        // When: I clear the cache and load the query again
+        defaultQueryResourceLoader.clearCache();
+        defaultQueryResourceLoader.loadQuery(dataSource, queryname);
+
+        // Then: the resources are looked up again
+        verify(resourceResolver, times(2)).resolveStringResource(genericPath);
+    }
+
+    @Test
+    @DisplayName("Changing a watched query file discards its cached text")
+    @SneakyThrows
+    void testWatch(@TempDir Path queriesDirectory) {
+        // Given: a watched directory containing generic queries
+        String basepath = UUID.randomUUID().toString();
+        String dbtype = UUID.randomUUID().toString();
+        String queryname = "watched.sql";
+        Path queryFile = Files.createDirectories(queriesDirectory.resolve("sql")).resolve(queryname);
+        Files.writeString(queryFile, "select 1");
+        String genericPath = FilenameUtils.concat(FilenameUtils.concat(basepath, "sql"), queryname);
+
+        given(dbProductDetector.detectDbProduct(dataSource)).willReturn(dbtype);
+        given(resourceResolver.resolveStringResource(genericPath)).willReturn("select 1", "select 2");
+
+        try (DefaultQueryResourceLoader defaultQueryResourceLoader = new DefaultQueryResourceLoader(resourceResolver, dbProductDetector, basepath)) {
+            defaultQueryResourceLoader.watch(queriesDirectory);
+            assertEquals("select 1", defaultQueryResourceLoader.loadQuery(dataSource, queryname));
+
+            // When: the query file changes
+            Files.writeString(queryFile, "select 2");
+
+            // Then: the new text is eventually loaded
+            String actual = defaultQueryResourceLoader.loadQuery(dataSource, queryname);
+            for (int i = 0; i < 100 && !"select 2".equals(actual); i++) {
+                Thread.sleep(100);
+                actual = defaultQueryResourceLoader.loadQuery(dataSource, queryname);
+            }
+            assertEquals("select 2", actual);
+        }
+    }
+
+
+    @Test
+    @DisplayName("Adding a watched query file makes it listed by the default resource resolver")
+    @SneakyThrows
+    void testWatchIndex(@TempDir Path directory) {
+        // Given: a watched directory resolved through an indexing resource resolver
+        Path queriesDirectory = Files.createDirectories(directory.resolve("queries").resolve("sql"));
+        Files.writeString(queriesDirectory.resolve("first.sql"), "select 1");
+        DefaultResourceResolver defaultResourceResolver = new DefaultResourceResolver();
+        defaultResourceResolver.setBasePath(directory.toUri().toString());
+        given(dbProductDetector.detectDbProduct(dataSource)).willReturn("hsql");
+
+        try (DefaultQueryResourceLoader defaultQueryResourceLoader = new DefaultQueryResourceLoader(defaultResourceResolver, dbProductDetector, "queries")) {
+            defaultQueryResourceLoader.watch(directory.resolve("queries"));
+            assertEquals(List.of("first.sql"), defaultQueryResourceLoader.listQueries(dataSource));
+
+            // When: a query file is added
+            Files.writeString(queriesDirectory.resolve("second.sql"), "select 2");
+
+            // Then: it's eventually listed and loaded
+            List<String> actual = defaultQueryResourceLoader.listQueries(dataSource);
+            for (int i = 0; i < 100 && actual.size() < 2; i++) {
+                Thread.sleep(100);
+                actual = defaultQueryResourceLoader.listQueries(dataSource);
+            }
+            assertEquals(List.of("first.sql", "second.sql"), actual);
+            assertEquals("select 2", defaultQueryResourceLoader.loadQuery(dataSource, "second.sql"));
+        }
+    }
 }
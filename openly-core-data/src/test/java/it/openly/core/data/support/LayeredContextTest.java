@@ -0,0 +1,81 @@
+package it.openly.core.data.support;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static it.openly.core.test.TestUtils.map;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LayeredContextTest {
+
+    @Test
+    @DisplayName("Lookups read through the layers, later layers taking precedence")
+    void testLookup() {
+        // Given: a view over layers sharing some keys, one of them with a null value
+        Map<String, Object> first = map("a", 1, "b", 2, "c", 3);
+        Map<String, Object> second = map("b", 20, "c", null);
+
+        // When: I create the view
+        LayeredContext context = new LayeredContext(first, null, second);
+
+        // Then: each key resolves to the value of the last layer defining it
+        assertEquals(1, context.get("a"));
+        assertEquals(20, context.get("b"));
+        assertNull(context.get("c"));
+        assertTrue(context.containsKey("c"));
+        assertFalse(context.containsKey("d"));
+        assertEquals(map("a", 1, "b", 20, "c", null), new HashMap<>(context));
+        assertEquals(3, context.size());
+    }
+
+    @Test
+    @DisplayName("Values written into the view don't affect the layers")
+    void testOverlay() {
+        // Given: a view over a layer
+        Map<String, Object> layer = map("a", 1);
+        LayeredContext context = new LayeredContext(layer);
+
+        // When: I write values into the view
+        Object previous = context.put("a", 10);
+        context.put("b", null);
+
+        // Then: the view returns the written values while the layer is unchanged
+        assertEquals(1, previous);
+        assertEquals(10, context.get("a"));
+        assertTrue(context.containsKey("b"));
+        assertEquals(map("a", 1), layer);
+        assertSame(context, LayeredContext.of(context));
+        assertEquals(map("a", 10, "b", null), new HashMap<>(context));
+    }
+
+    @Test
+    @DisplayName("A view is empty only when the overlay and all of its layers are")
+    void testIsEmpty() {
+        // Given: views over empty, missing and non-empty layers
+        LayeredContext empty = new LayeredContext(map(), null);
+        LayeredContext withValues = new LayeredContext(map(), map("a", 1));
+        LayeredContext written = new LayeredContext(map());
+
+        // When: I write a value into one of them
+        written.put("b", 2);
+
+        // Then: only the view without any value is empty
+        assertTrue(empty.isEmpty());
+        assertFalse(withValues.isEmpty());
+        assertFalse(written.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Removing values from the view is not supported")
+    void testRemove() {
+        // Given: a view over a layer
+        LayeredContext context = new LayeredContext(map("a", 1));
+
+        // When: I try to remove a value
+        // Then: the operation is refused
+        assertThrows(UnsupportedOperationException.class, () -> context.remove("a"));
+    }
+}
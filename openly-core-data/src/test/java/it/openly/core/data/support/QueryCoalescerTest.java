@@ -0,0 +1,103 @@
+package it.openly.core.data.support;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryCoalescerTest {
+
+    @Test
+    @DisplayName("Identical concurrent executions share a single load")
+    void testCoalescing() throws InterruptedException {
+        // Given: a load that blocks until released
+        QueryCoalescer coalescer = new QueryCoalescer();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        CompletableFuture<List<Integer>> first = CompletableFuture.supplyAsync(() -> coalescer.execute("key", () -> {
+            loads.incrementAndGet();
+            await(release);
+            return List.of(1, 2);
+        }), executor);
+        while (loads.get() == 0) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+
+        // When: other threads execute the same query while the load is in flight
+        List<CompletableFuture<List<Integer>>> others = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            others.add(CompletableFuture.supplyAsync(() -> coalescer.execute("key", () -> {
+                loads.incrementAndGet();
+                return List.of();
+            }), executor));
+        }
+        while (coalescer.getCoalescedCount() < 3) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        release.countDown();
+
+        // Then: all of them get the same result from a single load, and later executions load again
+        List<Integer> result = first.join();
+        for (CompletableFuture<List<Integer>> other : others) {
+            assertSame(result, other.join());
+        }
+        assertEquals(1, loads.get());
+        assertEquals(List.of(), coalescer.execute("key", List::of));
+        executor.shutdown();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    @DisplayName("Failures, both exceptions and errors, are reported to all the waiting executions")
+    void testFailure(boolean error) throws InterruptedException {
+        // Given: a load that fails once released
+        QueryCoalescer coalescer = new QueryCoalescer();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Throwable failure = error ? new AssertionError("boom") : new IllegalStateException("boom");
+        CompletableFuture<Object> first = CompletableFuture.supplyAsync(() -> coalescer.execute("key", () -> {
+            started.countDown();
+            await(release);
+            if (failure instanceof Error e) {
+                throw e;
+            }
+            throw (RuntimeException) failure;
+        }), executor);
+        started.await();
+
+        // When: another thread waits for it
+        CompletableFuture<Object> other = CompletableFuture.supplyAsync(() -> coalescer.execute("key", () -> "unexpected"), executor);
+        while (coalescer.getCoalescedCount() < 1) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        release.countDown();
+
+        // Then: both get the failure
+        assertSame(failure, assertThrows(CompletionException.class, first::join).getCause());
+        assertSame(failure, assertThrows(CompletionException.class, other::join).getCause());
+        executor.shutdown();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
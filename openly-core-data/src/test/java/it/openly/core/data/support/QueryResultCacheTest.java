@@ -0,0 +1,100 @@
+package it.openly.core.data.support;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryResultCacheTest {
+
+    @Test
+    @DisplayName("Results are loaded once, and the least recently used ones are evicted beyond the bounds")
+    void testBounds() {
+        // Given: a cache of two entries and five rows
+        QueryResultCache cache = new QueryResultCache(2, 5, Duration.ofMinutes(1));
+
+        // When: I load three results, using the first one again before loading the third
+        cache.get("a", Set.of("t"), () -> List.of(1));
+        cache.get("b", Set.of("t"), () -> List.of(2));
+        cache.get("a", Set.of("t"), () -> fail("Not expected to load again"));
+        cache.get("c", Set.of("t"), () -> List.of(3));
+
+        // Then: the second one was evicted
+        assertEquals(2, cache.size());
+        assertEquals(List.of(1), cache.get("a", Set.of("t"), () -> List.of(0)));
+        assertEquals(List.of(3), cache.get("c", Set.of("t"), () -> List.of(0)));
+        assertEquals(List.of(0), cache.get("b", Set.of("t"), () -> List.of(0)));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+
+        // When: I load results exceeding the weight
+        cache.get("d", Set.of("t"), () -> List.of(1, 2, 3, 4, 5));
+        cache.get("e", Set.of("t"), () -> List.of(1, 2, 3, 4, 5, 6));
+
+        // Then: older results were evicted, and results heavier than the cache were not kept
+        assertEquals(1, cache.size());
+        assertEquals(5, cache.weight());
+    }
+
+    @Test
+    @DisplayName("Results expire after their time to live")
+    void testExpiry() throws InterruptedException {
+        // Given: a cache with a short time to live, holding a result
+        QueryResultCache cache = new QueryResultCache(10, 10, Duration.ofMillis(20));
+        cache.get("a", Set.of("t"), () -> "old");
+
+        // When: the time to live elapses
+        TimeUnit.MILLISECONDS.sleep(50);
+
+        // Then: the result is loaded again
+        assertEquals("new", cache.get("a", Set.of("t"), () -> "new"));
+    }
+
+    @Test
+    @DisplayName("Invalidating a table removes the results read from it, including the ones being loaded")
+    void testInvalidation() {
+        // Given: results read from different tables
+        QueryResultCache cache = new QueryResultCache(10, 10, Duration.ofMinutes(1));
+        cache.get("a", Set.of("t1"), () -> "a");
+        cache.get("b", Set.of("t1", "t2"), () -> "b");
+        cache.get("c", Set.of("t3"), () -> "c");
+
+        // When: I invalidate a table, also while a result is being loaded
+        cache.invalidate(List.of("t2"));
+        String loaded = cache.get("d", Set.of("t3"), () -> {
+            cache.invalidate(List.of("t3"));
+            return "d";
+        });
+
+        // Then: only the results of the untouched tables are kept
+        assertEquals("d", loaded);
+        assertEquals(1, cache.size());
+        assertEquals("a", cache.get("a", Set.of("t1"), () -> "reloaded"));
+        assertEquals("reloaded", cache.get("d", Set.of("t3"), () -> "reloaded"));
+    }
+
+    @Test
+    @DisplayName("Clearing removes all the results, including the ones being loaded, and invalid bounds are rejected")
+    void testClear() {
+        // Given: a cache holding some results
+        QueryResultCache cache = new QueryResultCache(10, 10, Duration.ofMinutes(1));
+        cache.get("a", Set.of("t1"), () -> List.of(1, 2));
+
+        // When: I clear it, also while a result is being loaded
+        cache.get("b", Set.of("t1"), () -> {
+            cache.clear();
+            return "b";
+        });
+
+        // Then: nothing is kept
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+        assertThrows(IllegalArgumentException.class, () -> new QueryResultCache(0, 10, Duration.ofMinutes(1)));
+        assertThrows(IllegalArgumentException.class, () -> new QueryResultCache(10, 10, Duration.ZERO));
+    }
+}
@@ -0,0 +1,84 @@
+package it.openly.core.data.support;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class ReadReplicasTest {
+
+    @Test
+    @DisplayName("Round robin uses the replicas in turn")
+    void testRoundRobin() {
+        // Given: two replicas used in turn
+        DataSource first = mock(DataSource.class);
+        DataSource second = mock(DataSource.class);
+        ReadReplicas replicas = new ReadReplicas(List.of(first, second), ReadReplicas.Selection.ROUND_ROBIN);
+
+        // When: I execute four reads
+        List<DataSource> used = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            used.add(replicas.read(ReadReplicasTest::dataSourceOf));
+        }
+
+        // Then: the replicas alternate
+        assertEquals(List.of(first, second, first, second), used);
+        assertArrayEquals(new int[] {0, 0}, replicas.getOutstandingRequests());
+    }
+
+    @Test
+    @DisplayName("Least outstanding avoids the replicas busy with other reads, streams included")
+    void testLeastOutstanding() {
+        // Given: three replicas, two of which are busy with streams
+        DataSource first = mock(DataSource.class);
+        DataSource second = mock(DataSource.class);
+        DataSource third = mock(DataSource.class);
+        ReadReplicas replicas = new ReadReplicas(List.of(first, second, third), ReadReplicas.Selection.LEAST_OUTSTANDING);
+        Stream<Object> firstStream = replicas.stream(template -> Stream.of(template));
+        Stream<Object> secondStream = replicas.stream(template -> Stream.of(template));
+
+        // When: I execute a read, nested within another read
+        List<DataSource> used = new ArrayList<>();
+        replicas.read(outer -> {
+            used.add(dataSourceOf(outer));
+            used.add(replicas.read(ReadReplicasTest::dataSourceOf));
+            return null;
+        });
+        firstStream.close();
+        secondStream.close();
+
+        // Then: the idle replica is used first, the streams being released when closed
+        assertEquals(third, used.get(0));
+        assertNotEquals(third, used.get(1));
+        assertArrayEquals(new int[] {0, 0, 0}, replicas.getOutstandingRequests());
+    }
+
+    @Test
+    @DisplayName("Streams failing to open release their replica, and at least one replica is required")
+    void testStreamFailure() {
+        // Given: a single replica
+        ReadReplicas replicas = new ReadReplicas(List.of(mock(DataSource.class)), ReadReplicas.Selection.LEAST_OUTSTANDING);
+
+        // When: a stream fails to open
+        assertThrows(IllegalStateException.class, () -> replicas.stream(template -> {
+            throw new IllegalStateException("Failing on purpose");
+        }));
+
+        // Then: the replica isn't left busy
+        assertEquals(1, replicas.size());
+        assertArrayEquals(new int[] {0}, replicas.getOutstandingRequests());
+        assertThrows(IllegalArgumentException.class, () -> new ReadReplicas(List.of(), ReadReplicas.Selection.ROUND_ROBIN));
+    }
+
+    private static DataSource dataSourceOf(NamedParameterJdbcTemplate template) {
+        return ((JdbcTemplate) template.getJdbcOperations()).getDataSource();
+    }
+}
@@ -0,0 +1,140 @@
+package it.openly.core.data.support;
+
+import com.zaxxer.hikari.HikariDataSource;
+import it.openly.core.data.ExportFormat;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultSetExporterTest {
+    private static final String PEOPLE = "select * from (values "
+            + "(1, cast('Doe, John' as varchar(50)), cast('say \"hi\"' as varchar(50)), 5.5, true, date '2020-01-02'), "
+            + "(2, cast('Zoë 🙂' as varchar(50)), null, null, false, null)"
+            + ") as t(idx, name, note, rating, active, since)";
+
+    private static HikariDataSource dataSource;
+    private static JdbcTemplate jdbcTemplate;
+
+    @BeforeAll
+    static void prepareDataSource() {
+        dataSource = new HikariDataSource();
+        dataSource.setDriverClassName("org.hsqldb.jdbc.JDBCDriver");
+        dataSource.setJdbcUrl("jdbc:hsqldb:mem:ResultSetExporterTest_testdb");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @AfterAll
+    static void closeDataSource() {
+        dataSource.close();
+    }
+
+    @Test
+    @DisplayName("CSV has a header line, quotes fields only when needed and leaves nulls empty")
+    void testCsv() {
+        // Given: a stream
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // When: I export the rows as CSV
+        Long rows = jdbcTemplate.query(PEOPLE, new ResultSetExporter(out, ExportFormat.CSV));
+
+        // Then: the rows are written as per RFC 4180
+        assertEquals(2, rows);
+        assertEquals("IDX,NAME,NOTE,RATING,ACTIVE,SINCE\r\n"
+                + "1,\"Doe, John\",\"say \"\"hi\"\"\",5.5,true,2020-01-02\r\n"
+                + "2,Zoë 🙂,,,false,\r\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("JSON and NDJSON write typed values, escaping strings")
+    void testJson() {
+        // Given: streams
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+        ByteArrayOutputStream empty = new ByteArrayOutputStream();
+        String first = "{\"IDX\":1,\"NAME\":\"Doe, John\",\"NOTE\":\"say \\\"hi\\\"\",\"RATING\":5.5,\"ACTIVE\":true,\"SINCE\":\"2020-01-02\"}";
+        String second = "{\"IDX\":2,\"NAME\":\"Zoë 🙂\",\"NOTE\":null,\"RATING\":null,\"ACTIVE\":false,\"SINCE\":null}";
+
+        // When: I export the rows as JSON and NDJSON, and an empty result as JSON
+        jdbcTemplate.query(PEOPLE, new ResultSetExporter(json, ExportFormat.JSON));
+        jdbcTemplate.query(PEOPLE, new ResultSetExporter(ndjson, ExportFormat.NDJSON));
+        jdbcTemplate.query(PEOPLE + " where 1 = 0", new ResultSetExporter(empty, ExportFormat.JSON));
+
+        // Then: the objects are written as an array and one per line
+        assertEquals("[" + first + "," + second + "]", json.toString(StandardCharsets.UTF_8));
+        assertEquals(first + "\n" + second + "\n", ndjson.toString(StandardCharsets.UTF_8));
+        assertEquals("[]", empty.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Times, timestamps, binaries, floating numbers and control characters are written in their textual form")
+    void testTypes() {
+        // Given: a row with values of every kind, and a quoted column label
+        String sql = "select * from (values (cast(-42 as bigint), cast(-9223372036854775808 as bigint), cast(-1.5 as double), "
+                + "cast(null as double), cast(null as boolean), cast(null as integer), time '10:11:12', "
+                + "timestamp '2020-01-02 10:11:12', X'cafe', cast('€' || char(9) || char(10) || char(13) || char(8) || char(12) || char(1) as varchar(20)))"
+                + ") as t(\"A,\"\"B\", MIN, DBL, NODBL, NOBOOL, NOINT, TM, TS, BIN, CTRL)";
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+
+        // When: I export the row as NDJSON and CSV
+        jdbcTemplate.query(sql, new ResultSetExporter(json, ExportFormat.NDJSON));
+        jdbcTemplate.query(sql, new ResultSetExporter(csv, ExportFormat.CSV));
+
+        // Then: each value is written in its textual form, escaped as needed
+        assertEquals("{\"A,\\\"B\":-42,\"MIN\":-9223372036854775808,\"DBL\":-1.5,\"NODBL\":null,\"NOBOOL\":null,\"NOINT\":null,"
+                + "\"TM\":\"10:11:12\",\"TS\":\"2020-01-02T10:11:12\",\"BIN\":\"yv4=\",\"CTRL\":\"€\\t\\n\\r\\b\\f\\u0001\"}\n",
+                json.toString(StandardCharsets.UTF_8));
+        assertEquals("\"A,\"\"B\",MIN,DBL,NODBL,NOBOOL,NOINT,TM,TS,BIN,CTRL\r\n"
+                + "-42,-9223372036854775808,-1.5,,,,10:11:12,2020-01-02T10:11:12,yv4=,\"€\t\n\r\b\f\u0001\"\r\n",
+                csv.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Output larger than the buffer is written in chunks, and write failures are rethrown unchecked")
+    void testChunks() {
+        // Given: a value larger than the buffer, and streams counting the writes or failing them
+        String sql = "select cast(repeat('x', 100000) as varchar(100000)) as big from (values (0))";
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        int[] writes = {0};
+        OutputStream counting = new OutputStream() {
+            @Override
+            public void write(int b) {
+                csv.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                writes[0]++;
+                csv.write(b, off, len);
+            }
+        };
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+
+        // When: I export the row
+        jdbcTemplate.query(sql, new ResultSetExporter(counting, ExportFormat.CSV));
+
+        // Then: it's written whole, in a few chunks, and a failing stream makes the export fail
+        assertEquals("BIG\r\n" + "x".repeat(100000) + "\r\n", csv.toString(StandardCharsets.UTF_8));
+        assertEquals(2, writes[0]);
+        ResultSetExporter exporter = new ResultSetExporter(failing, ExportFormat.JSON);
+        assertThrows(UncheckedIOException.class, () -> jdbcTemplate.query(sql, exporter));
+        assertThrows(NullPointerException.class, () -> new ResultSetExporter(null, ExportFormat.JSON));
+    }
+}
@@ -0,0 +1,211 @@
+package it.openly.core.data.support;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static it.openly.core.test.TestUtils.map;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RowTest {
+    private static final String PEOPLE = "select * from (values (1, 'John', 'Doe'), (2, 'Jane', null)) as t(idx, first_name, last_name)";
+
+    private static HikariDataSource dataSource;
+    private static JdbcTemplate jdbcTemplate;
+
+    @BeforeAll
+    static void prepareDataSource() {
+        dataSource = new HikariDataSource();
+        dataSource.setDriverClassName("org.hsqldb.jdbc.JDBCDriver");
+        dataSource.setJdbcUrl("jdbc:hsqldb:mem:RowTest_testdb");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @AfterAll
+    static void closeDataSource() {
+        dataSource.close();
+    }
+
+    @Test
+    @DisplayName("Rows behave like the maps produced by ColumnMapRowMapper")
+    void testRows() {
+        // Given: a query returning some rows
+
+        // When: I map them to compact rows
+        List<Map<String, Object>> rows = jdbcTemplate.query(PEOPLE, Row.rowMapper());
+
+        // Then: the rows equal the maps of ColumnMapRowMapper, with case-insensitive keys in column order
+        assertEquals(jdbcTemplate.queryForList(PEOPLE), rows);
+        Map<String, Object> row = rows.get(1);
+        assertInstanceOf(Row.class, row);
+        assertEquals(List.of("IDX", "FIRST_NAME", "LAST_NAME"), List.copyOf(row.keySet()));
+        assertEquals("Jane", row.get("first_name"));
+        assertTrue(row.containsKey("Last_Name"));
+        assertNull(row.get("LAST_NAME"));
+        assertFalse(row.containsKey("RATING"));
+        assertEquals(3, row.size());
+    }
+
+    @Test
+    @DisplayName("Rows can be modified")
+    void testModifications() {
+        // Given: two rows of the same result
+        List<Map<String, Object>> rows = jdbcTemplate.query(PEOPLE, Row.rowMapper());
+        Map<String, Object> row = rows.get(0);
+
+        // When: I replace, add and remove values of the first one
+        Object previous = row.put("first_name", "Johnny");
+        row.put("RATING", 5);
+        row.remove("LAST_NAME");
+
+        // Then: the first row reflects the changes while the second one is unaffected
+        assertEquals("John", previous);
+        assertEquals(map("IDX", 1, "FIRST_NAME", "Johnny", "RATING", 5), row);
+        assertEquals(5, row.get("rating"));
+        assertEquals(map("IDX", 2, "FIRST_NAME", "Jane", "LAST_NAME", null), rows.get(1));
+    }
+
+    @Test
+    @DisplayName("Copies of a row are independent of it")
+    void testCopy() {
+        // Given: a compact row and a detached one
+        List<Map<String, Object>> rows = jdbcTemplate.query(PEOPLE, Row.rowMapper());
+        Row row = (Row) rows.get(0);
+        Row detached = (Row) rows.get(1);
+        detached.put("RATING", 5);
+
+        // When: I copy them and modify the copies
+        Row copy = row.copy();
+        Row detachedCopy = detached.copy();
+        copy.put("FIRST_NAME", "Johnny");
+        detachedCopy.remove("RATING");
+
+        // Then: the original rows are unaffected
+        assertEquals(map("IDX", 1, "FIRST_NAME", "John", "LAST_NAME", "Doe"), row);
+        assertEquals(map("IDX", 1, "FIRST_NAME", "Johnny", "LAST_NAME", "Doe"), copy);
+        assertEquals(map("IDX", 2, "FIRST_NAME", "Jane", "LAST_NAME", null, "RATING", 5), detached);
+        assertEquals(map("IDX", 2, "FIRST_NAME", "Jane", "LAST_NAME", null), detachedCopy);
+    }
+
+    @Test
+    @DisplayName("Entries read and write through to the row")
+    void testEntries() {
+        // Given: a row, and a row of a result with a duplicate column label
+        Map<String, Object> row = jdbcTemplate.query(PEOPLE, Row.rowMapper()).get(0);
+        Map<String, Object> duplicate = jdbcTemplate.query("select 1 as a, 2 as a from (values(0))", Row.rowMapper()).get(0);
+
+        // When: I walk through its entries, replacing a value
+        Iterator<Map.Entry<String, Object>> entries = row.entrySet().iterator();
+        Map.Entry<String, Object> idx = entries.next();
+        Object previous = idx.setValue(10);
+        entries.next();
+        entries.next();
+
+        // Then: entries behave as map entries, and the last column with the same label wins
+        assertFalse(entries.hasNext());
+        assertThrows(NoSuchElementException.class, entries::next);
+        assertEquals(1, previous);
+        assertEquals(10, row.get("IDX"));
+        assertEquals(Map.entry("IDX", 10), idx);
+        assertEquals(Map.entry("IDX", 10).hashCode(), idx.hashCode());
+        assertEquals("IDX=10", idx.toString());
+        assertEquals(3, row.entrySet().size());
+        assertNull(row.get(1));
+        assertEquals(map("A", 2), duplicate);
+    }
+
+    @Test
+    @DisplayName("Entries can be removed through the views of the row")
+    void testRemoveThroughViews() {
+        // Given: rows
+        List<Map<String, Object>> rows = jdbcTemplate.query(PEOPLE, Row.rowMapper());
+        Map<String, Object> john = rows.get(0);
+        Map<String, Object> jane = rows.get(1);
+        Map<String, Object> iterated = jdbcTemplate.query(PEOPLE, Row.rowMapper()).get(0);
+        Map<String, Object> filtered = jdbcTemplate.query(PEOPLE, Row.rowMapper()).get(0);
+        Map<String, Object> viewed = jdbcTemplate.query(PEOPLE, Row.rowMapper()).get(0);
+        Set<Map.Entry<String, Object>> view = viewed.entrySet();
+        Map.Entry<String, Object> viewedIdx = view.iterator().next();
+
+        // When: I remove entries through the key set, the entry set, the values and an iterator
+        boolean removedMissing = john.keySet().remove("rating");
+        boolean removedKey = john.keySet().remove("first_name");
+        boolean removedKeys = filtered.keySet().removeIf(key -> key.endsWith("NAME"));
+        boolean removedEntries = jane.entrySet().removeIf(entry -> entry.getValue() == null);
+        boolean removedValues = john.values().removeIf(value -> "Doe".equals(value));
+        Iterator<Map.Entry<String, Object>> entries = iterated.entrySet().iterator();
+        Map.Entry<String, Object> idx = entries.next();
+        entries.remove();
+        Map.Entry<String, Object> firstName = entries.next();
+        firstName.setValue("Johnny");
+        viewed.put("RATING", 5);
+        viewedIdx.setValue(3);
+
+        // Then: the rows no longer hold them, and the iteration goes on
+        assertFalse(removedMissing);
+        assertTrue(removedKey);
+        assertTrue(removedKeys);
+        assertEquals(map("IDX", 1), filtered);
+        assertTrue(removedEntries);
+        assertTrue(removedValues);
+        assertEquals(map("IDX", 1), john);
+        assertTrue(john.keySet().contains("IDX"));
+        assertEquals(List.of(Map.entry("IDX", 1)), List.copyOf(john.entrySet()));
+        assertEquals(map("IDX", 2, "FIRST_NAME", "Jane"), jane);
+        assertEquals("IDX", idx.getKey());
+        assertEquals(map("FIRST_NAME", "Johnny", "LAST_NAME", "Doe"), iterated);
+        assertEquals("Johnny", firstName.getValue());
+        assertEquals(map("IDX", 3, "FIRST_NAME", "John", "LAST_NAME", "Doe", "RATING", 5), viewed);
+        assertTrue(view.contains(Map.entry("RATING", 5)));
+        assertTrue(filtered.keySet().contains("idx"));
+        assertEquals(2, iterated.entrySet().size());
+        assertThrows(IllegalStateException.class, () -> jdbcTemplate.query(PEOPLE, Row.rowMapper()).get(0).entrySet().iterator().remove());
+    }
+
+    @Test
+    @DisplayName("Rows can be cleared")
+    void testClear() {
+        // Given: a row
+        Map<String, Object> row = jdbcTemplate.query(PEOPLE, Row.rowMapper()).get(0);
+
+        // When: I clear it
+        row.clear();
+
+        // Then: it's empty
+        assertTrue(row.isEmpty());
+        assertTrue(row.entrySet().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Rows can be serialized")
+    void testSerialization() throws IOException, ClassNotFoundException {
+        // Given: a row
+        Map<String, Object> row = jdbcTemplate.query(PEOPLE, Row.rowMapper()).get(0);
+
+        // When: I serialize and deserialize it
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(row);
+        }
+        Object copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = in.readObject();
+        }
+
+        // Then: the copy is equal to the original, with case-insensitive keys
+        assertEquals(row, copy);
+        assertEquals("Doe", ((Map<?, ?>) copy).get("last_name"));
+    }
+}
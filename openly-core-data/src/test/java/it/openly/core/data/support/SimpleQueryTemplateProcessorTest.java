@@ -16,8 +16,7 @@ import java.nio.charset.Charset;
 import java.util.*;
 import java.util.stream.Stream;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.*;
 
 
 class SimpleQueryTemplateProcessorTest {
@@ -112,6 +111,148 @@ class SimpleQueryTemplateProcessorTest {
         assertThrows(NullPointerException.class, () -> simpleQueryTemplateProcessor.processTemplate(inputTemplate, context), "Expected an exception to be thrown as the template is required");
     }
 
+    @Test
+    @DisplayName("Processing the same template multiple times yields the same results for the same context")
+    void testProcessTemplateReusesCompiledTemplate() {
+        // Given: a template processed multiple times with different contexts
+        String inputTemplate = "select * from mytable where 1=1\n    -- key01 -- and col1 = :key01\n    -- !key02 -- and col2 in (:key02)";
+        SimpleQueryTemplateProcessor simpleQueryTemplateProcessor = new SimpleQueryTemplateProcessor(true);
+
+        // When: I process the template with different contexts
+        ProcessedTemplate first = simpleQueryTemplateProcessor.processTemplate(inputTemplate, Map.of("key01", "value01"));
+        ProcessedTemplate second = simpleQueryTemplateProcessor.processTemplate(inputTemplate, Map.of("key02", List.of(1, 2)));
+        ProcessedTemplate third = simpleQueryTemplateProcessor.processTemplate(inputTemplate, Map.of("key01", "value01"));
+
+        // Then: each result only depends on its own context
+        String nl = System.lineSeparator();
+        assertEquals("select * from mytable where 1=1" + nl + "     and col1 = :key01" + nl + "     and col2 in (:key02)", first.getSql());
+        assertEquals("select * from mytable where 1=1" + nl + "    -- key01 -- and col1 = :key01" + nl + "    -- !key02 -- and col2 in (:key02_0, :key02_1)", second.getSql());
+        assertEquals(first.getSql(), third.getSql());
+        assertEquals(1, second.getContext().get("key02_0"));
+        assertEquals(2, second.getContext().get("key02_1"));
+        assertFalse(first.getContext().containsKey("key02_0"));
+    }
+
+    @Test
+    @DisplayName("Contexts with the same shape share the same processed text while binding their own parameters")
+    void testProcessTemplateSharesTextForSameShape() {
+        // Given: a template and contexts having the same shape but different values
+        String inputTemplate = "select * from mytable where 1=1\n    -- key01 -- and col1 = :key01\n    -- key02 -- and col2 in (:key02)\n    -- key03:asc -- order by col1";
+        SimpleQueryTemplateProcessor simpleQueryTemplateProcessor = new SimpleQueryTemplateProcessor(true);
+
+        // When: I process the template with such contexts
+        ProcessedTemplate first = simpleQueryTemplateProcessor.processTemplate(inputTemplate, Map.of("key01", "a", "key02", List.of(1, 2), "key03", "asc"));
+        ProcessedTemplate second = simpleQueryTemplateProcessor.processTemplate(inputTemplate, Map.of("key01", "b", "key02", List.of(3, 4), "key03", "asc"));
+        ProcessedTemplate third = simpleQueryTemplateProcessor.processTemplate(inputTemplate, Map.of("key01", "b", "key02", List.of(3, 4, 5), "key03", "desc"));
+
+        // Then: the same text is shared by equal shapes and each context carries its own values
+        assertSame(first.getSql(), second.getSql());
+        assertSame(first.getParsedSql(), second.getParsedSql());
+        assertNotEquals(first.getSql(), third.getSql());
+        assertEquals(3, second.getContext().get("key02_0"));
+        assertEquals(4, second.getContext().get("key02_1"));
+        assertEquals(5, third.getContext().get("key02_2"));
+        assertEquals(2, simpleQueryTemplateProcessor.compile(inputTemplate).cachedShapes());
+    }
+
+    @Test
+    @DisplayName("Padded arrays repeat their last value and share the same processed text")
+    void testProcessTemplateInListPadding() {
+        // Given: a template opting-in for array padding
+        String inputTemplate = "-- PRAGMA:IN_LIST_PADDING --\nselect * from mytable where col in (:ids)";
+        SimpleQueryTemplateProcessor simpleQueryTemplateProcessor = new SimpleQueryTemplateProcessor(true);
+
+        // When: I process the template with arrays of sizes falling in the same bucket
+        ProcessedTemplate first = simpleQueryTemplateProcessor.processTemplate(inputTemplate, Map.of("ids", List.of(1, 2, 3, 4, 5)));
+        ProcessedTemplate second = simpleQueryTemplateProcessor.processTemplate(inputTemplate, Map.of("ids", List.of(1, 2, 3, 4, 5, 6, 7)));
+
+        // Then: the text is the same and the last value fills the gaps
+        assertSame(first.getSql(), second.getSql());
+        assertTrue(first.getSql().endsWith("(:ids_0, :ids_1, :ids_2, :ids_3, :ids_4, :ids_5, :ids_6, :ids_7)"));
+        assertEquals(5, first.getContext().get("ids_7"));
+        assertEquals(7, second.getContext().get("ids_7"));
+    }
+
+    @Test
+    @DisplayName("Injected values are part of the shape of the context")
+    void testProcessTemplateInjectedValuesDriveShape() {
+        // Given: a template using injection
+        String inputTemplate = "-- PRAGMA:ENABLE_INJECT --\nselect * from mytable order by -- =sort --";
+        SimpleQueryTemplateProcessor simpleQueryTemplateProcessor = new SimpleQueryTemplateProcessor(true);
+
+        // When: I process the template with different injected values
+        ProcessedTemplate first = simpleQueryTemplateProcessor.processTemplate(inputTemplate, Map.of("sort", "col1"));
+        ProcessedTemplate second = simpleQueryTemplateProcessor.processTemplate(inputTemplate, Map.of("sort", "col2"));
+
+        // Then: each text reflects its own injected value
+        assertTrue(first.getSql().endsWith("order by col1"));
+        assertTrue(second.getSql().endsWith("order by col2"));
+    }
+
+    @Test
+    @DisplayName("Comments that are not terminated are preserved as they are")
+    void testProcessTemplateUnterminatedComments() {
+        // Given: a template containing a block followed by a plain comment
+        String inputTemplate = "select 1 from dual -- !key01 -- where 1 = 1 -- key02";
+        SimpleQueryTemplateProcessor simpleQueryTemplateProcessor = new SimpleQueryTemplateProcessor(false);
+
+        // When: I process the template
+        ProcessedTemplate processedTemplate = simpleQueryTemplateProcessor.processTemplate(inputTemplate, Map.of("key02", "x"));
+
+        // Then: the block is evaluated whereas the plain comment is left untouched
+        assertEquals("select 1 from dual  where 1 = 1 -- key02", processedTemplate.getSql());
+    }
+
+    @Test
+    @DisplayName("Preparing a valid template reports no problems")
+    void testPrepareTemplate() {
+        // Given: a valid template
+        String inputTemplate = "-- PRAGMA:ENABLE_INJECT --\nselect * from mytable where 1=1\n    -- !key01 -- and col1 = 1\n    -- key02 -- order by -- =key02 --";
+        SimpleQueryTemplateProcessor simpleQueryTemplateProcessor = new SimpleQueryTemplateProcessor(true);
+
+        // When: I prepare the template
+        List<String> problems = simpleQueryTemplateProcessor.prepareTemplate(inputTemplate);
+
+        // Then: no problems are reported
+        assertTrue(problems.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Preparing a template reports its problems")
+    void testPrepareTemplateProblems() {
+        // Given: a template having an unterminated block, an empty key, an injection without pragma and an invalid padding
+        String inputTemplate = "-- PRAGMA:IN_LIST_PADDING=many --\nselect * from mytable where 1=1\n    -- !key01 and col1 = 1\n    -- ! -- and col2 = 2\n    order by -- =key02 --";
+        SimpleQueryTemplateProcessor simpleQueryTemplateProcessor = new SimpleQueryTemplateProcessor(true);
+
+        // When: I prepare the template
+        List<String> problems = simpleQueryTemplateProcessor.prepareTemplate(inputTemplate);
+
+        // Then: all the problems are reported
+        assertEquals(4, problems.size());
+        assertTrue(problems.get(0).contains("IN_LIST_PADDING"));
+        assertTrue(problems.get(1).startsWith("Line 3:"));
+        assertTrue(problems.get(2).startsWith("Line 4:"));
+        assertTrue(problems.get(3).startsWith("Line 5:"));
+    }
+
+    @Test
+    @DisplayName("Query settings are reported as pragmas and validated")
+    void testQuerySettingPragmas() {
+        // Given: a template declaring valid and invalid query settings
+        String validTemplate = "-- PRAGMA:FETCH_SIZE=500 -- -- PRAGMA:QUERY_TIMEOUT=30 --\nselect * from mytable";
+        String invalidTemplate = "-- PRAGMA:MAX_ROWS=-1 --\nselect * from mytable";
+        SimpleQueryTemplateProcessor simpleQueryTemplateProcessor = new SimpleQueryTemplateProcessor(true);
+
+        // When: I process and prepare the templates
+        ProcessedTemplate processedTemplate = simpleQueryTemplateProcessor.processTemplate(validTemplate, Map.of());
+        List<String> problems = simpleQueryTemplateProcessor.prepareTemplate(invalidTemplate);
+
+        // Then: the settings are reported and invalid values are detected
+        assertEquals(Map.of("FETCH_SIZE", "500", "QUERY_TIMEOUT", "30"), processedTemplate.getPragmas());
+        assertEquals(1, problems.size());
+        assertTrue(problems.get(0).contains("MAX_ROWS"));
+    }
+
     void testProcessTemplateInternal(Resource inputTemplateResource, boolean removeEmptyLines) {
         // Given: an input template and an expected result as well as a bunch key/values as context for the query
         String inputTemplate = loadInputTemplateText(inputTemplateResource);
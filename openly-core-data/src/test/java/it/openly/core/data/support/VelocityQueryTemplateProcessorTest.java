@@ -1,13 +1,18 @@
 package it.openly.core.data.support;
 
 import it.openly.core.data.ProcessedTemplate;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.exception.ParseErrorException;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
 import java.util.Map;
 
 import static it.openly.core.test.TestUtils.map;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class VelocityQueryTemplateProcessorTest {
 
@@ -27,4 +32,80 @@ class VelocityQueryTemplateProcessorTest {
         assertEquals(expectation, processedTemplate.getSql());
 
     }
+
+    @Test
+    @DisplayName("Processing the same template multiple times using Velocity")
+    void testProcessTemplateMultipleTimes() {
+        // Given: a template containing conditionals
+        String template = "select * from mytable#if($name) where name = :name#end";
+        VelocityQueryTemplateProcessor processor = new VelocityQueryTemplateProcessor();
+
+        // When: I process the template multiple times with different contexts
+        ProcessedTemplate first = processor.processTemplate(template, map("name", "world!"));
+        ProcessedTemplate second = processor.processTemplate(template, map());
+        ProcessedTemplate third = processor.processTemplate(template, map("name", "again"));
+
+        // Then: each resulting query string only depends on its own context
+        assertEquals("select * from mytable where name = :name", first.getSql());
+        assertEquals("select * from mytable", second.getSql());
+        assertEquals(first.getSql(), third.getSql());
+    }
+
+    @Test
+    @DisplayName("Processing of queries using a VelocityEngine")
+    void testProcessTemplateVelocityEngine() {
+        // Given: a template to process, an expected output and some input arguments
+        String template = "Hello ${name}";
+        Map<String, Object> context = map("name", "world!");
+
+        // When: I use a VelocityEngine to process the template
+        VelocityQueryTemplateProcessor processor = new VelocityQueryTemplateProcessor(new VelocityEngine());
+        ProcessedTemplate processedTemplate = processor.processTemplate(template, context);
+
+        // Then: the resulting query string matches the expectation
+        assertEquals("Hello world!", processedTemplate.getSql());
+    }
+
+    @Test
+    @DisplayName("Pragmas are collected from the processed text")
+    void testProcessTemplatePragmas() {
+        // Given: a template declaring a pragma conditionally
+        String template = "#if($export)-- PRAGMA:FETCH_SIZE=1000 --#end\nselect * from mytable";
+        VelocityQueryTemplateProcessor processor = new VelocityQueryTemplateProcessor();
+
+        // When: I process the template with and without the condition
+        ProcessedTemplate export = processor.processTemplate(template, map("export", true));
+        ProcessedTemplate lookup = processor.processTemplate(template, map());
+
+        // Then: only the pragmas in the resulting text are reported
+        assertEquals(Map.of("FETCH_SIZE", "1000"), export.getPragmas());
+        assertEquals(Map.of(), lookup.getPragmas());
+    }
+
+    @Test
+    @DisplayName("Processing of invalid templates fails")
+    void testProcessTemplateInvalid() {
+        // Given: an invalid template
+        String template = "select * from mytable #if($name";
+        VelocityQueryTemplateProcessor processor = new VelocityQueryTemplateProcessor();
+
+        // When: I process the template
+        // Then: an exception is thrown
+        assertThrows(ParseErrorException.class, () -> processor.processTemplate(template, map()), "Expected an exception to be thrown as the template is not valid");
+    }
+
+    @Test
+    @DisplayName("Preparing templates reports parsing problems")
+    void testPrepareTemplate() {
+        // Given: a valid and an invalid template
+        VelocityQueryTemplateProcessor processor = new VelocityQueryTemplateProcessor();
+
+        // When: I prepare the templates
+        List<String> validProblems = processor.prepareTemplate("select * from mytable#if($name) where name = :name#end");
+        List<String> invalidProblems = processor.prepareTemplate("select * from mytable #if($name");
+
+        // Then: only the problems of the invalid template are reported
+        assertTrue(validProblems.isEmpty());
+        assertEquals(1, invalidProblems.size());
+    }
 }
@@ -0,0 +1,5 @@
+select * from "cool_people"
+where 1 = 1
+    -- after_idx -- and idx > :after_idx
+order by idx
+-- page_size -- limit :page_size
@@ -0,0 +1,5 @@
+select * from "cool_people"
+where 1 = 1
+    -- PARTITION_FROM -- and idx >= :PARTITION_FROM and idx < :PARTITION_TO
+    -- !PARTITION_FROM -- -- PARTITION_COUNT -- and mod(idx, :PARTITION_COUNT) = :PARTITION_INDEX
+order by idx
@@ -0,0 +1,7 @@
+-- PRAGMA:WRITES=cool_people --
+update
+    "cool_people"
+set
+    first_name = :FIRST_NAME
+where
+    idx = :IDX
\ No newline at end of file
@@ -0,0 +1,3 @@
+select * from "cool_people"
+where 1 = 1
+    -- !LAST_NAME and last_name is null
\ No newline at end of file
@@ -4,9 +4,19 @@ import it.openly.core.exceptions.ResourceNotFoundException;
 import it.openly.core.exceptions.TooFewResultsException;
 import it.openly.core.exceptions.TooManyResultsException;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.SneakyThrows;
@@ -19,7 +29,14 @@ import org.springframework.core.io.support.ResourcePatternResolver;
 /**
  * Default implementation of IResourceResolver. It will either use the supplied
  * {@link ResourcePatternResolver} or a default
- * {@link PathMatchingResourcePatternResolver}
+ * {@link PathMatchingResourcePatternResolver}<br/>
+ * Unless disabled through {@link #setIndexResources(boolean)}, the resources are looked up in an index built the first
+ * time a top-level folder is accessed: the folder is scanned once and each following lookup underneath it is a hash
+ * probe, rather than a walk of the whole classpath. Resources added to the classpath after a folder was indexed are
+ * not listed until {@link #clearIndex()} is called (watchers of the resource directories are expected to call it on
+ * every change). Names missing from the index, as happens with jars built without directory entries, are looked up
+ * by their exact path, and the outcome is kept in the index as well. Names containing wildcards, and resources that
+ * are not inside a folder, are always resolved by scanning.
  * 
  * @author Filippo
  * 
@@ -27,25 +44,44 @@ import org.springframework.core.io.support.ResourcePatternResolver;
 @Getter
 @Setter
 public class DefaultResourceResolver implements IResourceResolver {
+	private static final Resource[] NO_RESOURCES = new Resource[0];
+
 	private String basePath = "classpath*:/";
 	private ResourcePatternResolver resourcePatternResolver = new PathMatchingResourcePatternResolver();
 	private boolean failIfNotExisting = true;
 	private boolean failIfManyExisting = true;
+	private boolean indexResources = true;
+
+	@Getter(AccessLevel.NONE)
+	private final Map<String, Map<String, Resource[]>> index = new ConcurrentHashMap<>();
+
+	public void setBasePath(String basePath) {
+		this.basePath = basePath;
+		clearIndex();
+	}
+
+	public void setResourcePatternResolver(ResourcePatternResolver resourcePatternResolver) {
+		this.resourcePatternResolver = resourcePatternResolver;
+		clearIndex();
+	}
+
+	/**
+	 * Discards the resource index, so that the folders are scanned again on their next access.
+	 */
+	public void clearIndex() {
+		index.clear();
+	}
 
 	@SneakyThrows
 	public boolean hasResource(String resourceName) {
-		ResourcePatternResolver resolver = getResourcePatternResolver();
-		String path = composePath(resourceName);
-		Resource[] resources = resolver.getResources(path);
-		return resources.length > 0;
+		return findResources(resourceName).length > 0;
 	}
 
 	@Override
 	@SneakyThrows
 	public InputStream resolveResource(String resourceName) {
-		ResourcePatternResolver resolver = getResourcePatternResolver();
 		String path = composePath(resourceName);
-		Resource[] resources = resolver.getResources(path);
+		Resource[] resources = findResources(resourceName);
 		if (resources.length == 0 && failIfNotExisting)
 			throw new TooFewResultsException("No matching resource was found.", path);
 		else if (resources.length > 1 && failIfManyExisting)
@@ -63,6 +99,106 @@ public class DefaultResourceResolver implements IResourceResolver {
 		return IOUtils.toString(resolveResource(resourceName), Charset.defaultCharset());
 	}
 
+	@Override
+	@SneakyThrows
+	public List<String> listResources(String resourceFolder) {
+		String folder = normalize(resourceFolder);
+		String marker = folder + "/";
+		Set<String> names = new TreeSet<>();
+		if (indexResources && !folder.isEmpty() && !isPattern(folder)) {
+			for (Map.Entry<String, Resource[]> entry : folderIndex(folder).entrySet()) {
+				if (entry.getKey().startsWith(marker) && entry.getValue().length > 0 && entry.getValue()[0].isReadable())
+					names.add(entry.getKey().substring(marker.length()));
+			}
+		}
+		else {
+			for (Resource resource : getResourcePatternResolver().getResources(composePath(folder) + "/**/*")) {
+				String url = resource.getURL().toString();
+				int position = url.lastIndexOf("/" + marker);
+				if (resource.isReadable() && position >= 0)
+					names.add(url.substring(position + marker.length() + 1));
+			}
+		}
+		return new ArrayList<>(names);
+	}
+
+	private Resource[] findResources(String resourceName) throws IOException {
+		String name = normalize(resourceName);
+		if (!indexResources || name.indexOf('/') < 0 || isPattern(name))
+			return getResourcePatternResolver().getResources(composePath(resourceName));
+		return folderIndex(name).computeIfAbsent(name, this::lookupResources);
+	}
+
+	private Resource[] lookupResources(String name) {
+		try {
+			List<Resource> resources = new ArrayList<>();
+			for (Resource resource : getResourcePatternResolver().getResources(composePath(name))) {
+				if (resource.exists())
+					resources.add(resource);
+			}
+			return resources.toArray(NO_RESOURCES);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private Map<String, Resource[]> folderIndex(String name) {
+		int separator = name.indexOf('/');
+		String topFolder = separator < 0 ? name : name.substring(0, separator);
+		return index.computeIfAbsent(topFolder, this::buildFolderIndex);
+	}
+
+	private Map<String, Resource[]> buildFolderIndex(String folder) {
+		try {
+			ResourcePatternResolver resolver = getResourcePatternResolver();
+			List<String> roots = new ArrayList<>();
+			for (Resource root : resolver.getResources(composePath(folder + "/"))) {
+				String url = root.getURL().toString();
+				roots.add(url.endsWith("/") ? url : url + "/");
+			}
+			Map<String, List<Resource>> entries = new HashMap<>();
+			for (Resource resource : resolver.getResources(composePath(folder) + "/**/*")) {
+				String relativeName = relativeName(resource.getURL().toString(), folder, roots);
+				if (relativeName != null)
+					entries.computeIfAbsent(folder + "/" + relativeName, k -> new ArrayList<>()).add(resource);
+			}
+			Map<String, Resource[]> result = new ConcurrentHashMap<>();
+			entries.forEach((name, resources) -> result.put(name, resources.toArray(NO_RESOURCES)));
+			return result;
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static String relativeName(String url, String folder, List<String> roots) {
+		String relativeName = null;
+		for (String root : roots) {
+			if (url.startsWith(root)) {
+				relativeName = url.substring(root.length());
+				break;
+			}
+		}
+		if (relativeName == null) {
+			String marker = "/" + folder + "/";
+			int position = url.lastIndexOf(marker);
+			if (position < 0)
+				return null;
+			relativeName = url.substring(position + marker.length());
+		}
+		relativeName = StringUtils.removeEnd(relativeName, "/");
+		return relativeName.isEmpty() ? null : relativeName;
+	}
+
+	private static String normalize(String resourceName) {
+		return StringUtils.strip(resourceName.replace('\\', '/'), "/");
+	}
+
+	private static boolean isPattern(String resourceName) {
+		return StringUtils.containsAny(resourceName, '*', '?', '{', '[');
+	}
+
 	private String composePath(String resourceName) {
 		String result = getBasePath();
 		if (!StringUtils.endsWith(result, "/"))
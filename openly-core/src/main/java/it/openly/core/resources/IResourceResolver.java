@@ -1,6 +1,7 @@
 package it.openly.core.resources;
 
 import java.io.InputStream;
+import java.util.List;
 
 public interface IResourceResolver {
 
@@ -15,6 +16,16 @@ public interface IResourceResolver {
 
 	String resolveStringResource(String resourceName);
 
+	/**
+	 * Lists the resources available underneath a folder, at any depth.
+	 * @param resourceFolder The folder
+	 * @return The names of the resources, relative to the folder. Resolvers that can't enumerate their resources
+	 * return an empty list.
+	 */
+	default List<String> listResources(String resourceFolder) {
+		return List.of();
+	}
+
 	boolean isFailIfNotExisting();
 	void setFailIfNotExisting(boolean failIfNotExisting);
 	
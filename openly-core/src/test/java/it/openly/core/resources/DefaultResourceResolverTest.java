@@ -0,0 +1,133 @@
+package it.openly.core.resources;
+
+import it.openly.core.exceptions.TooFewResultsException;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DefaultResourceResolverTest {
+	private static final String FOLDER = "defaultresourceresolvertest";
+
+	@ParameterizedTest
+	@ValueSource(booleans = {true, false})
+	@DisplayName("Listing a folder returns the names of all the resources underneath it, nested ones included")
+	void testListResources(boolean indexResources) {
+		// given
+		DefaultResourceResolver resolver = new DefaultResourceResolver();
+		resolver.setIndexResources(indexResources);
+
+		// when
+		List<String> all = resolver.listResources(FOLDER);
+		List<String> nested = resolver.listResources(FOLDER + "/nested/");
+		List<String> missing = resolver.listResources(FOLDER + "/missing");
+
+		// then
+		assertEquals(List.of("nested/deeper/deep.txt", "nested/middle.txt", "top.txt"), all);
+		assertEquals(List.of("deeper/deep.txt", "middle.txt"), nested);
+		assertEquals(List.of(), missing);
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = {true, false})
+	@DisplayName("Resources are resolved at any depth, and misses are reported")
+	void testResolveResource(boolean indexResources) {
+		// given
+		DefaultResourceResolver resolver = new DefaultResourceResolver();
+		resolver.setIndexResources(indexResources);
+
+		// when
+		String top = resolver.resolveStringResource(FOLDER + "/top.txt");
+		String deep = resolver.resolveStringResource(FOLDER + "\\nested\\deeper\\deep.txt");
+
+		// then
+		assertEquals("top", top);
+		assertEquals("deep", deep);
+		assertTrue(resolver.hasResource(FOLDER + "/nested/middle.txt"));
+		assertFalse(resolver.hasResource(FOLDER + "/nested/missing.txt"));
+		assertFalse(resolver.hasResource("missing" + FOLDER + "/top.txt"));
+		assertThrows(TooFewResultsException.class, () -> resolver.resolveResource(FOLDER + "/missing.txt"));
+		resolver.setFailIfNotExisting(false);
+		assertNull(resolver.resolveResource(FOLDER + "/missing.txt"));
+	}
+
+	@Test
+	@DisplayName("Names with wildcards are resolved by scanning")
+	void testResolvePattern() {
+		// given
+		DefaultResourceResolver resolver = new DefaultResourceResolver();
+
+		// when
+		boolean found = resolver.hasResource(FOLDER + "/**/deep.txt");
+
+		// then
+		assertTrue(found);
+		assertEquals("middle", resolver.resolveStringResource(FOLDER + "/*/middle.txt"));
+	}
+
+	@Test
+	@DisplayName("Resources added after a folder was indexed are found by name, but only listed once the index is cleared")
+	@SneakyThrows
+	void testClearIndex(@TempDir Path directory) {
+		// given
+		Path folder = Files.createDirectories(directory.resolve("folder"));
+		Files.writeString(folder.resolve("first.txt"), "first");
+		DefaultResourceResolver resolver = new DefaultResourceResolver();
+		resolver.setBasePath(directory.toUri().toString());
+		assertEquals(List.of("first.txt"), resolver.listResources("folder"));
+
+		// when
+		Files.writeString(Files.createDirectories(folder.resolve("nested")).resolve("second.txt"), "second");
+
+		// then
+		assertEquals(List.of("first.txt"), resolver.listResources("folder"));
+		assertTrue(resolver.hasResource("folder/nested/second.txt"));
+		assertFalse(resolver.hasResource("folder/nested/third.txt"));
+		resolver.clearIndex();
+		assertEquals(List.of("first.txt", "nested/second.txt"), resolver.listResources("folder"));
+		assertEquals("second", resolver.resolveStringResource("folder/nested/second.txt"));
+	}
+
+	@Test
+	@DisplayName("Resources missing from the index are looked up by their exact path, once")
+	void testExactLookupFallback() {
+		// given
+		AtomicInteger exactLookups = new AtomicInteger();
+		DefaultResourceResolver resolver = new DefaultResourceResolver();
+		resolver.setResourcePatternResolver(new PathMatchingResourcePatternResolver() {
+			@Override
+			public Resource[] getResources(String locationPattern) throws IOException {
+				// like a jar without directory entries, scanning finds nothing
+				String path = locationPattern.substring(locationPattern.indexOf(':') + 1);
+				if (path.contains("*") || path.endsWith("/"))
+					return new Resource[0];
+				exactLookups.incrementAndGet();
+				return super.getResources(locationPattern);
+			}
+		});
+
+		// when
+		String deep = resolver.resolveStringResource(FOLDER + "/nested/deeper/deep.txt");
+		boolean found = resolver.hasResource(FOLDER + "/nested/deeper/deep.txt");
+		boolean missing = resolver.hasResource(FOLDER + "/nested/missing.txt");
+
+		// then
+		assertEquals("deep", deep);
+		assertTrue(found);
+		assertFalse(missing);
+		assertFalse(resolver.hasResource(FOLDER + "/nested/missing.txt"));
+		assertEquals(2, exactLookups.get());
+	}
+}